@@ -0,0 +1,325 @@
+package com.ch.htable.core;
+
+import com.ch.htable.annotations.HColumn;
+import com.ch.htable.annotations.HId;
+import com.ch.htable.annotations.HTable;
+
+/**
+ * Entities used by the benchmarks. The narrow entity has a handful of numeric and string columns, the wide entity
+ * has sixteen columns and the json entity carries a single jackson serialized payload.
+ */
+public final class BenchmarkEntities {
+
+    private BenchmarkEntities() {}
+
+    static NarrowEntity narrow(int i) {
+        final NarrowEntity e = new NarrowEntity();
+        e.setId(String.format("narrow:%08d", i));
+        e.setName("name-" + i);
+        e.setCount((long) i);
+        e.setAmount(i * 1.5d);
+        return e;
+    }
+
+    static WideEntity wide(int i) {
+        final WideEntity e = new WideEntity();
+        e.setId(String.format("wide:%08d", i));
+        e.setL0((long) i); e.setL1(i + 1L); e.setL2(i + 2L); e.setL3(i + 3L);
+        e.setL4(i + 4L); e.setL5(i + 5L); e.setL6(i + 6L); e.setL7(i + 7L);
+        e.setD0(i * 0.5d); e.setD1(i * 1.5d); e.setD2(i * 2.5d); e.setD3(i * 3.5d);
+        e.setS0("s0-" + i); e.setS1("s1-" + i); e.setS2("s2-" + i); e.setS3("s3-" + i);
+        return e;
+    }
+
+    static JsonEntity json(int i) {
+        final JsonEntity e = new JsonEntity();
+        e.setId(String.format("json:%08d", i));
+        final Payload p = new Payload();
+        p.setLabel("label-" + i);
+        p.setValues(new double[]{i, i * 2d, i * 3d, i * 4d, i * 5d, i * 6d, i * 7d, i * 8d});
+        e.setPayload(p);
+        return e;
+    }
+
+    @HTable(name = "bench_narrow")
+    public static class NarrowEntity {
+        private String id;
+        private String name;
+        private Long count;
+        private Double amount;
+
+        @HId(converter = ColumnConverter.StringColumn.class)
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        @HColumn(name = "name", converter = ColumnConverter.StringColumn.class)
+        public String getName() {
+            return name;
+        }
+
+        @HColumn(name = "name", converter = ColumnConverter.StringColumn.class)
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @HColumn(name = "count", converter = ColumnConverter.LongColumn.class)
+        public Long getCount() {
+            return count;
+        }
+
+        @HColumn(name = "count", converter = ColumnConverter.LongColumn.class)
+        public void setCount(Long count) {
+            this.count = count;
+        }
+
+        @HColumn(name = "amount", converter = ColumnConverter.DoubleColumn.class)
+        public Double getAmount() {
+            return amount;
+        }
+
+        @HColumn(name = "amount", converter = ColumnConverter.DoubleColumn.class)
+        public void setAmount(Double amount) {
+            this.amount = amount;
+        }
+    }
+
+    @HTable(name = "bench_wide")
+    public static class WideEntity {
+        private String id;
+        private Long l0;
+        private Long l1;
+        private Long l2;
+        private Long l3;
+        private Long l4;
+        private Long l5;
+        private Long l6;
+        private Long l7;
+        private Double d0;
+        private Double d1;
+        private Double d2;
+        private Double d3;
+        private String s0;
+        private String s1;
+        private String s2;
+        private String s3;
+
+        @HColumn(name = "l0", converter = ColumnConverter.LongColumn.class)
+        public Long getL0() {
+            return l0;
+        }
+
+        @HColumn(name = "l0", converter = ColumnConverter.LongColumn.class)
+        public void setL0(Long l0) {
+            this.l0 = l0;
+        }
+
+        @HColumn(name = "l1", converter = ColumnConverter.LongColumn.class)
+        public Long getL1() {
+            return l1;
+        }
+
+        @HColumn(name = "l1", converter = ColumnConverter.LongColumn.class)
+        public void setL1(Long l1) {
+            this.l1 = l1;
+        }
+
+        @HColumn(name = "l2", converter = ColumnConverter.LongColumn.class)
+        public Long getL2() {
+            return l2;
+        }
+
+        @HColumn(name = "l2", converter = ColumnConverter.LongColumn.class)
+        public void setL2(Long l2) {
+            this.l2 = l2;
+        }
+
+        @HColumn(name = "l3", converter = ColumnConverter.LongColumn.class)
+        public Long getL3() {
+            return l3;
+        }
+
+        @HColumn(name = "l3", converter = ColumnConverter.LongColumn.class)
+        public void setL3(Long l3) {
+            this.l3 = l3;
+        }
+
+        @HColumn(name = "l4", converter = ColumnConverter.LongColumn.class)
+        public Long getL4() {
+            return l4;
+        }
+
+        @HColumn(name = "l4", converter = ColumnConverter.LongColumn.class)
+        public void setL4(Long l4) {
+            this.l4 = l4;
+        }
+
+        @HColumn(name = "l5", converter = ColumnConverter.LongColumn.class)
+        public Long getL5() {
+            return l5;
+        }
+
+        @HColumn(name = "l5", converter = ColumnConverter.LongColumn.class)
+        public void setL5(Long l5) {
+            this.l5 = l5;
+        }
+
+        @HColumn(name = "l6", converter = ColumnConverter.LongColumn.class)
+        public Long getL6() {
+            return l6;
+        }
+
+        @HColumn(name = "l6", converter = ColumnConverter.LongColumn.class)
+        public void setL6(Long l6) {
+            this.l6 = l6;
+        }
+
+        @HColumn(name = "l7", converter = ColumnConverter.LongColumn.class)
+        public Long getL7() {
+            return l7;
+        }
+
+        @HColumn(name = "l7", converter = ColumnConverter.LongColumn.class)
+        public void setL7(Long l7) {
+            this.l7 = l7;
+        }
+
+        @HColumn(name = "d0", converter = ColumnConverter.DoubleColumn.class)
+        public Double getD0() {
+            return d0;
+        }
+
+        @HColumn(name = "d0", converter = ColumnConverter.DoubleColumn.class)
+        public void setD0(Double d0) {
+            this.d0 = d0;
+        }
+
+        @HColumn(name = "d1", converter = ColumnConverter.DoubleColumn.class)
+        public Double getD1() {
+            return d1;
+        }
+
+        @HColumn(name = "d1", converter = ColumnConverter.DoubleColumn.class)
+        public void setD1(Double d1) {
+            this.d1 = d1;
+        }
+
+        @HColumn(name = "d2", converter = ColumnConverter.DoubleColumn.class)
+        public Double getD2() {
+            return d2;
+        }
+
+        @HColumn(name = "d2", converter = ColumnConverter.DoubleColumn.class)
+        public void setD2(Double d2) {
+            this.d2 = d2;
+        }
+
+        @HColumn(name = "d3", converter = ColumnConverter.DoubleColumn.class)
+        public Double getD3() {
+            return d3;
+        }
+
+        @HColumn(name = "d3", converter = ColumnConverter.DoubleColumn.class)
+        public void setD3(Double d3) {
+            this.d3 = d3;
+        }
+
+        @HColumn(name = "s0", converter = ColumnConverter.StringColumn.class)
+        public String getS0() {
+            return s0;
+        }
+
+        @HColumn(name = "s0", converter = ColumnConverter.StringColumn.class)
+        public void setS0(String s0) {
+            this.s0 = s0;
+        }
+
+        @HColumn(name = "s1", converter = ColumnConverter.StringColumn.class)
+        public String getS1() {
+            return s1;
+        }
+
+        @HColumn(name = "s1", converter = ColumnConverter.StringColumn.class)
+        public void setS1(String s1) {
+            this.s1 = s1;
+        }
+
+        @HColumn(name = "s2", converter = ColumnConverter.StringColumn.class)
+        public String getS2() {
+            return s2;
+        }
+
+        @HColumn(name = "s2", converter = ColumnConverter.StringColumn.class)
+        public void setS2(String s2) {
+            this.s2 = s2;
+        }
+
+        @HColumn(name = "s3", converter = ColumnConverter.StringColumn.class)
+        public String getS3() {
+            return s3;
+        }
+
+        @HColumn(name = "s3", converter = ColumnConverter.StringColumn.class)
+        public void setS3(String s3) {
+            this.s3 = s3;
+        }
+        @HId(converter = ColumnConverter.StringColumn.class)
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+    }
+
+    @HTable(name = "bench_json")
+    public static class JsonEntity {
+        private String id;
+        private Payload payload;
+
+        @HId(converter = ColumnConverter.StringColumn.class)
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        @HColumn(name = "payload", converter = ColumnConverter.JacksonJsonConverter.class)
+        public Payload getPayload() {
+            return payload;
+        }
+
+        @HColumn(name = "payload", converter = ColumnConverter.JacksonJsonConverter.class)
+        public void setPayload(Payload payload) {
+            this.payload = payload;
+        }
+    }
+
+    public static class Payload {
+        private String label;
+        private double[] values;
+
+        public String getLabel() {
+            return label;
+        }
+
+        public void setLabel(String label) {
+            this.label = label;
+        }
+
+        public double[] getValues() {
+            return values;
+        }
+
+        public void setValues(double[] values) {
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.ch.htable.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw cost of the {@link ColumnConverter} implementations, numeric columns against string and json columns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConverterBenchmark {
+
+    @Param({"long", "int", "double", "string", "json"})
+    public String type;
+
+    private ColumnConverter<Object> converter;
+    private Class<Object> valueType;
+    private Object value;
+    private byte[] bytes;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        final ColumnConverter<?> c;
+        switch (type) {
+            case "long":
+                c = new ColumnConverter.LongColumn();
+                value = 1234567890123L;
+                break;
+            case "int":
+                c = new ColumnConverter.IntegerColumn();
+                value = 123456789;
+                break;
+            case "double":
+                c = new ColumnConverter.DoubleColumn();
+                value = 12345.6789d;
+                break;
+            case "string":
+                c = new ColumnConverter.StringColumn();
+                value = "a reasonably sized string column value";
+                break;
+            default:
+                c = new ColumnConverter.JacksonJsonConverter<>();
+                value = BenchmarkEntities.json(42).getPayload();
+        }
+        converter = (ColumnConverter<Object>) c;
+        valueType = (Class<Object>) value.getClass();
+        bytes = converter.toBytes(valueType, value);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return converter.toBytes(valueType, value);
+    }
+
+    @Benchmark
+    public Object fromBytes() {
+        return converter.fromBytes(valueType, bytes);
+    }
+}
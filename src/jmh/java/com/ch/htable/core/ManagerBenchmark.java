@@ -0,0 +1,110 @@
+package com.ch.htable.core;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * End to end {@link HEntityManager} operations against the {@link InMemoryStorageEngine}, saveAll at different
+ * batch sizes and a full scan that either materializes an entity per row or reuses a single flyweight entity. These
+ * measure the client side cost only since there is no network or region server involved.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ManagerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SaveState {
+
+        @Param({"narrow", "wide"})
+        public String shape;
+
+        @Param({"1", "100", "4095", "20000"})
+        public int batchSize;
+
+        HEntityManager manager;
+        List<Object> entities;
+        Class<Object> clazz;
+
+        @Setup
+        public void setup() {
+            manager = new HEntityManager(new InMemoryStorageEngine(), AnnotationAnalyzer.getInstance(), "");
+            entities = entities(shape, batchSize);
+            clazz = type(shape);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ScanState {
+
+        @Param({"narrow", "wide", "json"})
+        public String shape;
+
+        @Param({"10000"})
+        public int rows;
+
+        HEntityManager manager;
+        Class<Object> clazz;
+
+        @Setup
+        public void setup() {
+            manager = new HEntityManager(new InMemoryStorageEngine(), AnnotationAnalyzer.getInstance(), "");
+            clazz = type(shape);
+            manager.saveAll(entities(shape, rows), clazz);
+        }
+    }
+
+    @Benchmark
+    public void saveAll(SaveState s) {
+        s.manager.saveAll(s.entities, s.clazz);
+    }
+
+    @Benchmark
+    public void scanMaterialize(ScanState s, Blackhole bh) {
+        try (Stream<Object> found = s.manager.find(s.clazz, s.shape)) {
+            found.forEach(bh::consume);
+        }
+    }
+
+    @Benchmark
+    public long scanFlyweight(ScanState s, Blackhole bh) {
+        return s.manager.forEach(s.clazz, s.shape, Optional.empty(), (Object e) -> bh.consume(e));
+    }
+
+    private static List<Object> entities(String shape, int count) {
+        final IntFunction<Object> factory;
+        switch (shape) {
+            case "narrow":
+                factory = BenchmarkEntities::narrow;
+                break;
+            case "wide":
+                factory = BenchmarkEntities::wide;
+                break;
+            default:
+                factory = BenchmarkEntities::json;
+        }
+        final List<Object> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entities.add(factory.apply(i));
+        }
+        return entities;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Object> type(String shape) {
+        switch (shape) {
+            case "narrow":
+                return (Class<Object>) (Class<?>) BenchmarkEntities.NarrowEntity.class;
+            case "wide":
+                return (Class<Object>) (Class<?>) BenchmarkEntities.WideEntity.class;
+            default:
+                return (Class<Object>) (Class<?>) BenchmarkEntities.JsonEntity.class;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting a single entity to a put and a single result back to an entity for narrow, wide and json
+ * shaped entities. Run with {@code -prof gc} to see the allocation rate per operation, {@link #putFloor()} builds
+ * the same put from values that are already encoded which is the least the hbase client allocates for it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MappingBenchmark {
+
+    @Param({"narrow", "wide", "json"})
+    public String shape;
+
+    private EntityClassModel<?> model;
+    private Object entity;
+    private Result result;
+    private byte[] row;
+    private Cell[] cells;
+
+    @Setup
+    public void setup() {
+        switch (shape) {
+            case "narrow":
+                entity = BenchmarkEntities.narrow(42);
+                break;
+            case "wide":
+                entity = BenchmarkEntities.wide(42);
+                break;
+            default:
+                entity = BenchmarkEntities.json(42);
+        }
+        model = AnnotationAnalyzer.getInstance().entityModel(entity.getClass());
+
+        final Put put = HEntityManager.entityToPut(model, entity);
+        final List<Cell> cells = new ArrayList<>();
+        put.getFamilyCellMap().values().forEach(cells::addAll);
+        cells.sort(CellComparator.getInstance());
+        result = Result.create(cells);
+        row = put.getRow();
+        this.cells = cells.toArray(new Cell[0]);
+    }
+
+    @Benchmark
+    public Put entityToPut() {
+        return HEntityManager.entityToPut(model, entity);
+    }
+
+    @Benchmark
+    public Put putFloor() {
+        final byte[] key = row.clone();
+        final NavigableMap<byte[], List<Cell>> familyMap = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        for (Cell c : cells) {
+            familyMap.computeIfAbsent(CellUtil.cloneFamily(c), f -> new ArrayList<>(cells.length))
+                    .add(new KeyValue(key, 0, key.length, c.getFamilyArray(), c.getFamilyOffset(), c.getFamilyLength(),
+                            c.getQualifierArray(), c.getQualifierOffset(), c.getQualifierLength(),
+                            HConstants.LATEST_TIMESTAMP, KeyValue.Type.Put,
+                            c.getValueArray(), c.getValueOffset(), c.getValueLength()));
+        }
+        return new Put(key, HConstants.LATEST_TIMESTAMP, familyMap);
+    }
+
+    @Benchmark
+    public Object resultToEntity() {
+        return HEntityManager.resultToEntity(result, model);
+    }
+}
@@ -0,0 +1,48 @@
+package com.ch.htable.core;
+
+import com.ch.htable.core.BenchmarkEntities.NarrowEntity;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reflective {@link ValueAccessor} access compared to a direct getter and setter call on the same entity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValueAccessorBenchmark {
+
+    private NarrowEntity entity;
+    private ValueAccessor<Long> accessor;
+    private Long value;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        entity = BenchmarkEntities.narrow(42);
+        final EntityClassModel<NarrowEntity> m = AnnotationAnalyzer.getInstance().entityModel(NarrowEntity.class);
+        accessor = (ValueAccessor<Long>) m.getColumnOrThrow("count").getValueAccessor();
+        value = 42L;
+    }
+
+    @Benchmark
+    public Long accessorGet() {
+        return accessor.getValue(entity);
+    }
+
+    @Benchmark
+    public void accessorSet() {
+        accessor.setValue(entity, value);
+    }
+
+    @Benchmark
+    public Long directGet() {
+        return entity.getCount();
+    }
+
+    @Benchmark
+    public void directSet() {
+        entity.setCount(value);
+    }
+}
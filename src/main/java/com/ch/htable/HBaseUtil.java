@@ -4,6 +4,8 @@ import java.util.Arrays;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class HBaseUtil {
 
     private HBaseUtil(){}
@@ -21,4 +23,30 @@ public class HBaseUtil {
         return Arrays.stream(objects).map(Objects::toString)
                 .collect(Collectors.joining(":"));
     }
+
+    /**
+     * Construct a key that starts with a salt bucket, a fixed width number derived from the hash of the key. Salted
+     * keys spread sequential keys, for example keys that start with a timestamp, over the regions of a table that
+     * is split by bucket. Rows with a common key prefix no longer share a salted prefix, a prefix scan has to be run
+     * once per bucket.
+     *
+     * @param buckets The number of salt buckets.
+     * @param objects List of objects that support to string
+     * @return The salt bucket and the key concatenated with colons :
+     */
+    public static String saltedKey(int buckets, Object ... objects) {
+        final String key = key(objects);
+        return key(salt(Math.floorMod(key.hashCode(), buckets), buckets), key);
+    }
+
+    /**
+     * @param bucket  The salt bucket.
+     * @param buckets The number of salt buckets.
+     * @return The bucket zero padded to the width of the largest bucket.
+     */
+    public static String salt(int bucket, int buckets) {
+        checkArgument(buckets > 0 && bucket >= 0 && bucket < buckets, "Invalid salt bucket %s of %s", bucket, buckets);
+        final int width = String.valueOf(buckets - 1).length();
+        return String.format("%0" + width + "d", bucket);
+    }
 }
@@ -12,6 +12,10 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 /**
  * This can be used to mark a getter, setter pair to be used when a column
  * is not found. This essentially is a generic bucket to store everything else in.
+ * <p>
+ * The setter either takes an {@link com.ch.htable.core.AnyColumn} and is called once per unmapped column, or it
+ * takes a {@code Map<String, T>} of qualifier to value and is called once with all of them. When the getter returns
+ * a {@code Map<String, T>} every entry is written as a column of the entity family on save.
  */
 @Retention(RUNTIME)
 @Target({FIELD, METHOD})
@@ -1,5 +1,6 @@
 package com.ch.htable.annotations;
 
+import com.ch.htable.core.ColumnCodec;
 import com.ch.htable.core.ColumnConverter;
 
 import java.lang.annotation.Retention;
@@ -17,4 +18,20 @@ public @interface HColumn {
 
     Class<? extends ColumnConverter> converter();
 
+    /**
+     * @return The column family of the column, empty for the family of the {@link HTable}.
+     */
+    String family() default "";
+
+    /**
+     * @return The compression of the column values, see {@link ColumnCodec}. A getter and setter only need to
+     * name the codec once.
+     */
+    Class<? extends ColumnCodec> codec() default ColumnCodec.None.class;
+
+    /**
+     * @return The size in bytes from which values are compressed, smaller values are stored raw.
+     */
+    int codecThreshold() default 256;
+
 }
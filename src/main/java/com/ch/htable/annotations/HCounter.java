@@ -0,0 +1,25 @@
+package com.ch.htable.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a getter, setter pair of type {@link Long} as an hbase counter column. The value is stored as an eight byte
+ * long and read like any other column, but it is never written by a save. Counters are changed with atomic
+ * increments through the entity manager or an increment buffer so concurrent updates are never lost.
+ */
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface HCounter {
+
+    String name();
+
+    /**
+     * @return The column family of the column, empty for the family of the {@link HTable}.
+     */
+    String family() default "";
+}
@@ -0,0 +1,17 @@
+package com.ch.htable.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The container of repeated {@link HFamily} annotations.
+ */
+@Retention(RUNTIME)
+@Target({TYPE})
+public @interface HFamilies {
+
+    HFamily[] value();
+}
@@ -0,0 +1,48 @@
+package com.ch.htable.annotations;
+
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The storage settings of a column family of an {@link HTable} entity, used when the table is created or validated
+ * through {@link com.ch.htable.core.HTableAdmin}. Families of the entity without this annotation use the hbase
+ * defaults, families of {@link HVersions} columns keep
+ * {@link com.ch.htable.core.HTableAdmin#VERSIONED_MAX_VERSIONS} versions. The defaults of the attributes are the
+ * hbase defaults as well. Only the settings of annotated families are validated and updated, other settings of the
+ * live family are kept.
+ */
+@Retention(RUNTIME)
+@Target({TYPE})
+@Repeatable(HFamilies.class)
+public @interface HFamily {
+
+    /**
+     * @return The name of the family, the default family of the {@link HTable} or a family named by a column.
+     */
+    String name();
+
+    BloomType bloom() default BloomType.ROW;
+
+    DataBlockEncoding encoding() default DataBlockEncoding.NONE;
+
+    Compression.Algorithm compression() default Compression.Algorithm.NONE;
+
+    /**
+     * @return The size in bytes of the blocks of the store files, small blocks favor random reads and large blocks
+     * favor scans.
+     */
+    int blockSize() default 64 * 1024;
+
+    /**
+     * @return The number of versions kept of every cell, more than one for families of {@link HVersions} columns.
+     */
+    int maxVersions() default 1;
+}
@@ -0,0 +1,23 @@
+package com.ch.htable.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks the getter of an {@link HColumn} as indexed. The entity manager maintains an index table for the column
+ * that maps the column value and row key to an empty cell so entities can be looked up by the value of the column
+ * without scanning the entity table. By default the index table is named {@code <table>_<column>_idx}.
+ */
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface HIndex {
+
+    /**
+     * @return The name of the index table, empty for the default name.
+     */
+    String table() default "";
+}
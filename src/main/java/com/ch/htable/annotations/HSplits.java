@@ -0,0 +1,47 @@
+package com.ch.htable.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * The regions an {@link HTable} entity table is created with, see {@link com.ch.htable.core.HTableAdmin}. A table
+ * created without split points starts as a single region and every write lands on one server until the region has
+ * grown enough to split. Split points only apply when the table is created.
+ */
+@Retention(RUNTIME)
+@Target({TYPE})
+public @interface HSplits {
+
+    enum Strategy {
+        /**
+         * Row keys start with uniformly distributed hex digits, for example a hex encoded hash. The key space
+         * {@code 00000000} to {@code ffffffff} is divided into {@link #regions()} equal ranges.
+         */
+        HEX,
+        /**
+         * Row keys start with a salt bucket, see {@link com.ch.htable.HBaseUtil#saltedKey(int, Object...)}. Every
+         * one of the {@link #regions()} buckets gets its own region.
+         */
+        SALT,
+        /**
+         * The split points are the {@link #keys()}.
+         */
+        EXPLICIT
+    }
+
+    Strategy strategy();
+
+    /**
+     * @return The number of regions for {@link Strategy#HEX} and the number of salt buckets for
+     * {@link Strategy#SALT}.
+     */
+    int regions() default 1;
+
+    /**
+     * @return The split points for {@link Strategy#EXPLICIT}, the first region starts at the empty key.
+     */
+    String[] keys() default {};
+}
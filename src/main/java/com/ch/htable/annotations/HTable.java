@@ -10,7 +10,8 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 /**
  * Used to mark an hbase entity. This is useful for specifiying the name of the table along with
  * the column family. By default the column family is specified as "default". This is the default
- * column family name in hbase.
+ * column family name in hbase. Columns can be moved to other families with {@link HColumn#family()}, for example
+ * to keep large, rarely read values out of the store files of small, hot columns.
  */
 @Retention(RUNTIME)
 @Target({TYPE})
@@ -0,0 +1,36 @@
+package com.ch.htable.annotations;
+
+import com.ch.htable.core.ColumnConverter;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Maps the versions of a column to a {@code NavigableMap<Long, T>} of timestamp to value. The column may also be
+ * mapped as a regular {@link HColumn} which then holds the newest value. The map is filled on reads that ask for
+ * more than one version, see {@link com.ch.htable.core.ReadOptions#versions(int)}. It is never written, versions
+ * are created by saving the column.
+ */
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface HVersions {
+
+    /**
+     * @return The name of the versioned column.
+     */
+    String name();
+
+    /**
+     * @return The converter of a single version of the value.
+     */
+    Class<? extends ColumnConverter> converter();
+
+    /**
+     * @return The column family of the column, empty for the family of the {@link HTable}.
+     */
+    String family() default "";
+}
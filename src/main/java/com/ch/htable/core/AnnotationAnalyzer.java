@@ -2,10 +2,15 @@ package com.ch.htable.core;
 
 import com.ch.htable.annotations.HAnyColumn;
 import com.ch.htable.annotations.HColumn;
+import com.ch.htable.annotations.HCounter;
 import com.ch.htable.annotations.HId;
+import com.ch.htable.annotations.HIndex;
 import com.ch.htable.annotations.HTable;
+import com.ch.htable.annotations.HVersions;
 import com.ch.htable.core.ValueAccessor.MethodAccessor;
 
+import org.apache.hadoop.hbase.util.Bytes;
+
 import java.lang.reflect.Method;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -45,24 +50,30 @@ class AnnotationAnalyzer {
      * @return The {@link EntityClassModel} instance for the class.
      */
     <T> EntityClassModel<T> entityModel(Class<T> clazz) {
-        if (! meta.containsKey(clazz)) {
-            registerType(clazz);
-        }
-        return meta.get(clazz);
+        return registerType(clazz);
     }
 
+    /**
+     * Analyze a class unless it is known already. The model is only published once the analysis is complete, a
+     * concurrent lookup of the same class waits for it instead of seeing a model without its columns.
+     */
+    @SuppressWarnings("unchecked")
     <T> EntityClassModel<T> registerType(Class<T> clazz) {
-        if (! meta.containsKey(clazz)) {
-            final EntityClassModel<T> em = analyzeClass(clazz);
-            meta.put(clazz, em);
-            analyzeMethods(em);
-
-            // Check for the id annotation
-            checkState(em.getIdentifier() != null, "Class %s is missing HId annotation", clazz);
-            return em;
-        } else {
-            return meta.get(clazz);
+        final EntityClassModel<T> known = meta.get(clazz);
+        if (known != null) {
+            return known;
         }
+        return meta.computeIfAbsent(clazz, c -> analyze(clazz));
+    }
+
+    private <T> EntityClassModel<T> analyze(Class<T> clazz) {
+        final EntityClassModel<T> em = analyzeClass(clazz);
+        analyzeMethods(em);
+        em.resolveFamilies();
+
+        // Check for the id annotation
+        checkState(em.getIdentifier() != null, "Class %s is missing HId annotation", clazz);
+        return em;
     }
 
     private <T> EntityClassModel<T> analyzeClass(Class<T> c) {
@@ -94,17 +105,39 @@ class AnnotationAnalyzer {
 
     /**
      * Analyze a single method and figure out if it is annotated with
-     * either {@link HColumn} or {@link HId}. If either of these
+     * either {@link HColumn} or {@link HId}. An {@link HColumn} that is also marked with {@link HIndex}
+     * registers an index for the column. If either of these
      * annotations exist then the corresponding method will be invoked
      * to handle building a {@link ColumnModel} or an {@link EntityClassModel.Identifier}
      * @param em
      * @param m
      */
-    private void analyzeMethod(EntityClassModel em, Method m) {
+    private void analyzeMethod(EntityClassModel<?> em, Method m) {
         if (m.isAnnotationPresent(HColumn.class)) {
             final HColumn a = m.getAnnotation(HColumn.class);
             final ColumnMeta<?> column =  em.hasColumn(a.name()) ? em.getColumnOrAny(a.name()) : new ColumnMeta<>(a.name());
             em.addColumn(a.name(), columnMethod(column, m, a));
+            if (!a.family().isEmpty()) {
+                column.setFamily(a.family());
+            }
+
+            if (m.isAnnotationPresent(HIndex.class)) {
+                final String table = m.getAnnotation(HIndex.class).table();
+                em.addIndex(new IndexMeta<>(column, table.isEmpty() ? em.getTableName() + "_" + a.name() + "_idx" : table));
+            }
+        }
+
+        if (m.isAnnotationPresent(HCounter.class)) {
+            final HCounter a = m.getAnnotation(HCounter.class);
+            final ColumnMeta<?> column =  em.hasColumn(a.name()) ? em.getColumnOrAny(a.name()) : new ColumnMeta<>(a.name());
+            em.addColumn(a.name(), counterMethod(column, m));
+            if (!a.family().isEmpty()) {
+                column.setFamily(a.family());
+            }
+        }
+
+        if (m.isAnnotationPresent(HVersions.class)) {
+            versionsMethod(em, m, m.getAnnotation(HVersions.class));
         }
 
         if (m.isAnnotationPresent(HId.class)) {
@@ -127,13 +160,74 @@ class AnnotationAnalyzer {
      * @param a The {@link HColumn} annotation.
      * @return The column definition of type.
      */
+    @SuppressWarnings("unchecked")
     private <T> ColumnMeta<T> columnMethod(ColumnMeta<T> column, Method m, HColumn a) {
         try {
-            column.setConverter(a.converter().newInstance());
+            final ColumnConverter<T> converter = a.converter().newInstance();
+            if (a.codec() != ColumnCodec.None.class) {
+                column.setConverter(new CompressedConverter<>(converter, a.codec().newInstance(), a.codecThreshold()));
+            } else if (column.converter() instanceof CompressedConverter) {
+                // the codec was named on the other method of the pair
+                final CompressedConverter<T> c = (CompressedConverter<T>) column.converter();
+                column.setConverter(new CompressedConverter<>(converter, c.getCodec(), c.getThreshold()));
+            } else {
+                column.setConverter(converter);
+            }
         } catch (InstantiationException | IllegalAccessException e) {
             throw new RuntimeException(String.format("Failed to analyze method {} ", m.getName()), e);
         }
+        return accessorMethod(column, m);
+    }
 
+    /**
+     * Analyze a method that is annotated with {@link HVersions}. The getter and setter share a single versions
+     * mapping per column name.
+     * @param em The entity model.
+     * @param m The getter or setter of the versions map.
+     * @param a The {@link HVersions} annotation.
+     */
+    @SuppressWarnings("unchecked")
+    private void versionsMethod(EntityClassModel<?> em, Method m, HVersions a) {
+        VersionsMeta<?> column = em.getVersions(a.name());
+        if (column == null) {
+            try {
+                column = new VersionsMeta<>(a.name(), a.converter().newInstance());
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new RuntimeException(String.format("Failed to analyze method %s ", m.getName()), e);
+            }
+            em.addVersions(column);
+        }
+        if (!a.family().isEmpty()) {
+            column.setFamily(Bytes.toBytes(a.family()));
+        }
+        if (m.getName().startsWith("get")) {
+            column.setGetter(m);
+        }
+        if (m.getName().startsWith("set")) {
+            column.setSetter(m);
+        }
+    }
+
+    /**
+     * Analyze a method that is annotated with {@link HCounter}. Counters are always stored as eight byte longs so
+     * hbase can increment them.
+     * @param column The column model for the counter.
+     * @param m The getter or setter of the counter.
+     * @return The column definition of the counter.
+     */
+    @SuppressWarnings("unchecked")
+    private ColumnMeta<?> counterMethod(ColumnMeta<?> column, Method m) {
+        checkState(m.getReturnType() == Long.class || (m.getParameterCount() == 1 && m.getParameterTypes()[0] == Long.class),
+                "Counter method %s must get or set a Long", m);
+        ((ColumnMeta<Long>) column).setConverter(new ColumnConverter.LongColumn());
+        column.setCounter(true);
+        return accessorMethod(column, m);
+    }
+
+    /**
+     * Register a getter or setter on the value accessor of a column.
+     */
+    private <T> ColumnMeta<T> accessorMethod(ColumnMeta<T> column, Method m) {
         final String methodName = m.getName();
 
         if (column.getValueAccessor() == null) {
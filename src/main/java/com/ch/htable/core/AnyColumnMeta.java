@@ -1,8 +1,22 @@
 package com.ch.htable.core;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
 
+/**
+ * The {@link com.ch.htable.annotations.HAnyColumn} of an entity, it receives every column that is not mapped by
+ * name. The pair is either mapped per cell, the setter takes an {@link AnyColumn} and is called once for every
+ * dynamic column, or as a whole, the getter returns and the setter takes a {@code Map<String, T>} of qualifier to
+ * value. Only the map form is written by a save, every entry of the map becomes a column.
+ *
+ * @param <T> The value type of the dynamic columns.
+ */
 class AnyColumnMeta<T> extends ColumnMeta<AnyColumn<T>> {
 
+    private Class<T> valueType;
+
     AnyColumnMeta(String name) {
         super(name);
     }
@@ -23,4 +37,80 @@ class AnyColumnMeta<T> extends ColumnMeta<AnyColumn<T>> {
         valueAccessor.setValue(entity, AnyColumn.of(colName, converter.fromBytes(valueAccessor.setterType(), bytes)));
 //        valueAccessor.setValue(entity, converter.fromBytes(valueAccessor.setterType(), bytes));
     }
+
+    /**
+     * Only the map of a mapped any column can be reset, a per cell setter has nothing to clear.
+     */
+    @Override
+    void clear(Object entity) {
+        if (isMapped()) {
+            super.clear(entity);
+        }
+    }
+
+    /**
+     * @return true when the dynamic columns are read into a single map instead of one {@link AnyColumn} per cell.
+     */
+    boolean isMapped() {
+        final Method setter = accessor().getSetter();
+        return setter != null && Map.class.isAssignableFrom(setter.getParameterTypes()[0]);
+    }
+
+    /**
+     * @return true when the getter returns the map of dynamic columns, only then are they written.
+     */
+    boolean isWritable() {
+        final Method getter = accessor().getGetter();
+        return getter != null && Map.class.isAssignableFrom(getter.getReturnType());
+    }
+
+    /**
+     * @param bytes The value of a dynamic column.
+     * @return The converted value.
+     */
+    @SuppressWarnings("unchecked")
+    T decode(byte[] bytes) {
+        return ((ColumnConverter<T>) (ColumnConverter<?>) converter).fromBytes(valueType(), bytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    byte[] encode(T value) {
+        return ((ColumnConverter<T>) (ColumnConverter<?>) converter).toBytes(valueType(), value);
+    }
+
+    /**
+     * @param entity The entity to read.
+     * @return The dynamic columns of the entity, null when the map is not set.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Map<String, T> getValues(Object entity) {
+        return (Map<String, T>) ((ValueAccessor) valueAccessor).getValue(entity);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void setValues(Object entity, Map<String, T> values) {
+        ((ValueAccessor) valueAccessor).setValue(entity, values);
+    }
+
+    /**
+     * The value type is the second type argument of the map or the type argument of the {@link AnyColumn}.
+     */
+    @SuppressWarnings("unchecked")
+    private Class<T> valueType() {
+        if (valueType == null) {
+            final Method getter = accessor().getGetter();
+            final Method setter = accessor().getSetter();
+            final Type type = setter != null ? setter.getGenericParameterTypes()[0] : getter.getGenericReturnType();
+            if (!(type instanceof ParameterizedType)) {
+                throw new IllegalStateException(String.format("Any column %s must use a Map<String, T> or AnyColumn<T>", type));
+            }
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            valueType = (Class<T>) arguments[arguments.length - 1];
+        }
+        return valueType;
+    }
+
+    private ValueAccessor.MethodAccessor<?> accessor() {
+        return (ValueAccessor.MethodAccessor<?>) valueAccessor;
+    }
 }
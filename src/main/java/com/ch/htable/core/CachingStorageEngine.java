@@ -0,0 +1,298 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * A {@link StorageEngine} that serves point reads from a {@link MappedRowCache} before it asks the engine it
+ * wraps. A row is cached with the families it was read with, so the entity reads of {@link HEntityManager} which
+ * read whole families fill the cache and any later read of a subset of those families or of single columns is
+ * served from it. Reads with a filter, a time range, more than one version or a consistency other than strong
+ * always go to the wrapped engine.
+ * <p>
+ * Puts, deletes, increments and batches through this engine invalidate the rows they touch. Writes by other clients are not
+ * seen until the cached row expires, the time to live of the cache bounds how stale a read can be. The same bound
+ * holds for a miss that races a write, its row may be cached just after the write invalidated it. Scans are never
+ * cached.
+ */
+public class CachingStorageEngine implements StorageEngine {
+
+    private final StorageEngine storage;
+    private final MappedRowCache cache;
+
+    /**
+     * @param storage The engine that is read on a miss and written through.
+     * @param cache   The cache, it is closed with the engine.
+     */
+    public CachingStorageEngine(StorageEngine storage, MappedRowCache cache) {
+        this.storage = storage;
+        this.cache = cache;
+    }
+
+    /**
+     * @return The row cache.
+     */
+    public MappedRowCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public StorageTable getTable(TableName tableName) throws IOException {
+        return new CachingTable(storage.getTable(tableName), cache);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            storage.close();
+        } finally {
+            cache.close();
+        }
+    }
+
+    static class CachingTable implements StorageTable {
+
+        private final StorageTable table;
+        private final MappedRowCache cache;
+        private final byte[] prefix;
+
+        CachingTable(StorageTable table, MappedRowCache cache) {
+            this.table = table;
+            this.cache = cache;
+            this.prefix = Bytes.add(table.getName().getName(), new byte[]{0});
+        }
+
+        @Override
+        public TableName getName() {
+            return table.getName();
+        }
+
+        @Override
+        public Result get(Get get) throws IOException {
+            if (!cacheable(get)) {
+                return table.get(get);
+            }
+            final Result cached = lookup(get);
+            if (cached != null) {
+                return cached;
+            }
+            final Result result = table.get(get);
+            store(get, result);
+            return result;
+        }
+
+        @Override
+        public Result[] get(List<Get> gets) throws IOException {
+            final Result[] results = new Result[gets.size()];
+            final List<Get> misses = new ArrayList<>();
+            final List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < gets.size(); i++) {
+                final Get get = gets.get(i);
+                results[i] = cacheable(get) ? lookup(get) : null;
+                if (results[i] == null) {
+                    misses.add(get);
+                    missing.add(i);
+                }
+            }
+            if (!misses.isEmpty()) {
+                final Result[] fetched = table.get(misses);
+                for (int i = 0; i < fetched.length; i++) {
+                    results[missing.get(i)] = fetched[i];
+                    if (cacheable(misses.get(i))) {
+                        store(misses.get(i), fetched[i]);
+                    }
+                }
+            }
+            return results;
+        }
+
+        @Override
+        public void put(Put put) throws IOException {
+            try {
+                table.put(put);
+            } finally {
+                invalidate(put);
+            }
+        }
+
+        @Override
+        public void put(List<Put> puts) throws IOException {
+            try {
+                table.put(puts);
+            } finally {
+                puts.forEach(this::invalidate);
+            }
+        }
+
+        @Override
+        public void delete(Delete delete) throws IOException {
+            try {
+                table.delete(delete);
+            } finally {
+                invalidate(delete);
+            }
+        }
+
+        @Override
+        public void delete(List<Delete> deletes) throws IOException {
+            final List<Delete> rows = new ArrayList<>(deletes);
+            try {
+                table.delete(deletes);
+            } finally {
+                rows.forEach(this::invalidate);
+            }
+        }
+
+        @Override
+        public Result increment(Increment increment) throws IOException {
+            try {
+                return table.increment(increment);
+            } finally {
+                invalidate(increment);
+            }
+        }
+
+        @Override
+        public Result[] increment(List<Increment> increments) throws IOException {
+            try {
+                return table.increment(increments);
+            } finally {
+                increments.forEach(this::invalidate);
+            }
+        }
+
+        @Override
+        public void batch(List<? extends Row> actions, Object[] results) throws IOException {
+            try {
+                table.batch(actions, results);
+            } finally {
+                for (Row action : actions) {
+                    cache.invalidate(key(action.getRow()));
+                }
+            }
+        }
+
+        @Override
+        public ResultScanner getScanner(Scan scan) throws IOException {
+            return table.getScanner(scan);
+        }
+
+        @Override
+        public byte[][] getStartKeys() throws IOException {
+            return table.getStartKeys();
+        }
+
+        @Override
+        public void close() throws IOException {
+            table.close();
+        }
+
+        private byte[] key(byte[] row) {
+            return Bytes.add(prefix, row);
+        }
+
+        private void invalidate(Mutation mutation) {
+            cache.invalidate(key(mutation.getRow()));
+        }
+
+        /**
+         * A get can be answered from a cached row when it reads the newest version of whole families or columns.
+         */
+        private static boolean cacheable(Get get) {
+            return get.hasFamilies()
+                    && get.getFilter() == null
+                    && get.getMaxVersions() == 1
+                    && get.getTimeRange().isAllTime()
+                    && get.getColumnFamilyTimeRange().isEmpty()
+                    && get.getConsistency() == Consistency.STRONG
+                    && !get.isCheckExistenceOnly()
+                    && get.getMaxResultsPerColumnFamily() < 0
+                    && get.getRowOffsetPerColumnFamily() == 0;
+        }
+
+        /**
+         * @return The cached cells the get asks for or null when the row is not cached with all of its families.
+         */
+        private Result lookup(Get get) {
+            final byte[] value = cache.get(key(get.getRow()));
+            if (value == null) {
+                return null;
+            }
+            final ByteBuffer in = ByteBuffer.wrap(value);
+            final NavigableSet<byte[]> families = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+            for (int n = in.get(); n > 0; n--) {
+                final byte[] family = new byte[in.getShort()];
+                in.get(family);
+                families.add(family);
+            }
+            final Map<byte[], NavigableSet<byte[]>> requested = get.getFamilyMap();
+            if (!families.containsAll(requested.keySet())) {
+                return null;
+            }
+            final int count = in.getInt();
+            final List<Cell> cells = new ArrayList<>(count);
+            for (int n = 0; n < count; n++) {
+                final int length = in.getInt();
+                final KeyValue cell = new KeyValue(value, in.position(), length);
+                in.position(in.position() + length);
+                final byte[] family = CellUtil.cloneFamily(cell);
+                if (!requested.containsKey(family)) {
+                    continue;
+                }
+                final NavigableSet<byte[]> qualifiers = requested.get(family);
+                if (qualifiers == null || qualifiers.isEmpty() || qualifiers.contains(CellUtil.cloneQualifier(cell))) {
+                    cells.add(cell);
+                }
+            }
+            return Result.create(cells);
+        }
+
+        /**
+         * Cache a row that was read with whole families, the families are kept so a later get knows whether the
+         * row answers it.
+         */
+        private void store(Get get, Result result) {
+            if (result.isEmpty() || get.getFamilyMap().size() > Byte.MAX_VALUE) {
+                return;
+            }
+            int length = 1 + Bytes.SIZEOF_INT;
+            for (Map.Entry<byte[], NavigableSet<byte[]>> e : get.getFamilyMap().entrySet()) {
+                if (e.getValue() != null && !e.getValue().isEmpty()) {
+                    return;
+                }
+                length += Bytes.SIZEOF_SHORT + e.getKey().length;
+            }
+            final Cell[] cells = result.rawCells();
+            final KeyValue[] kvs = new KeyValue[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                // client results hold key values already, anything else is copied once
+                kvs[i] = cells[i] instanceof KeyValue ? (KeyValue) cells[i] : new KeyValue(cells[i]);
+                length += Bytes.SIZEOF_INT + kvs[i].getLength();
+            }
+            final ByteBuffer out = ByteBuffer.allocate(length);
+            out.put((byte) get.getFamilyMap().size());
+            for (byte[] family : get.getFamilyMap().keySet()) {
+                out.putShort((short) family.length);
+                out.put(family);
+            }
+            out.putInt(kvs.length);
+            for (KeyValue kv : kvs) {
+                out.putInt(kv.getLength());
+                out.put(kv.getBuffer(), kv.getOffset(), kv.getLength());
+            }
+            cache.put(key(get.getRow()), out.array());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.ch.htable.core;
+
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Lookup of the {@link ColumnCodec} that wrote a value and the bindings of the optional compression libraries. The
+ * libraries are compile only dependencies, their classes are only referenced from the nested library holders which
+ * are not loaded until a codec that needs them is used.
+ */
+final class Codecs {
+
+    private static final ColumnCodec[] CODECS = new ColumnCodec[4];
+
+    private Codecs() {}
+
+    /**
+     * @param id The header byte of an encoded value.
+     * @return The codec that wrote the value.
+     */
+    static ColumnCodec get(byte id) {
+        if (id < 1 || id >= CODECS.length) {
+            throw new IllegalStateException(String.format("Unknown column codec %s", id));
+        }
+        ColumnCodec codec = CODECS[id];
+        if (codec == null) {
+            codec = id == 1 ? new ColumnCodec.Deflate() : id == 2 ? new ColumnCodec.Lz4() : new ColumnCodec.Zstd();
+            CODECS[id] = codec;
+        }
+        return codec;
+    }
+
+    static void require(String className, String artifact, String name) {
+        try {
+            Class.forName(className, false, Codecs.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(String.format("The %s column codec requires %s on the classpath", name, artifact), e);
+        }
+    }
+
+    static final class Lz4Library {
+
+        private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+        private Lz4Library() {}
+
+        static byte[] compress(byte[] raw) {
+            return FACTORY.fastCompressor().compress(raw);
+        }
+
+        static byte[] decompress(byte[] data, int offset, int size) {
+            return FACTORY.fastDecompressor().decompress(data, offset, size);
+        }
+    }
+
+    static final class ZstdLibrary {
+
+        private static final int LEVEL = 3;
+
+        private ZstdLibrary() {}
+
+        static byte[] compress(byte[] raw) {
+            return com.github.luben.zstd.Zstd.compress(raw, LEVEL);
+        }
+
+        static byte[] decompress(byte[] data, int offset, int length, int size) {
+            final byte[] raw = new byte[size];
+            final long read = com.github.luben.zstd.Zstd.decompressByteArray(raw, 0, size, data, offset, length);
+            if (com.github.luben.zstd.Zstd.isError(read) || read != size) {
+                throw new IllegalStateException(String.format("Corrupt zstd column value, expected %s bytes", size));
+            }
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A fixed size batch of rows held column by column, the row keys in one vector and every projected column in a
+ * primitive {@link ColumnVector}. A columnar scan fills the same batch over and over, the consumer must finish with
+ * a batch before it returns and must not keep references to the vectors.
+ * <p>
+ * Vectors are typically processed in tight loops, for example
+ * <pre>{@code
+ * final double[] amounts = batch.getDoubles("amount").values();
+ * for (int i = 0; i < batch.size(); i++) {
+ *     sum += amounts[i];
+ * }
+ * }</pre>
+ */
+public final class ColumnBatch {
+
+    private final int capacity;
+    private final byte[][] rowKeys;
+    private final ColumnMeta<?>[] columns;
+    private final ColumnVector[] vectors;
+    private final Map<String, ColumnVector> byName = new LinkedHashMap<>();
+    private int size;
+
+    ColumnBatch(ColumnMeta<?>[] columns, int capacity) {
+        checkArgument(capacity > 0, "Invalid batch capacity %s", capacity);
+        checkArgument(columns.length > 0, "A columnar scan needs at least one column");
+        this.capacity = capacity;
+        this.rowKeys = new byte[capacity][];
+        this.columns = columns;
+        this.vectors = new ColumnVector[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            vectors[i] = ColumnVector.of(columns[i], capacity);
+            byName.put(columns[i].getName(), vectors[i]);
+        }
+    }
+
+    /**
+     * @return The number of rows in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public byte[] getRowKey(int row) {
+        return rowKeys[row];
+    }
+
+    /**
+     * @return The row keys, only the first {@link #size()} entries are valid.
+     */
+    public byte[][] rowKeys() {
+        return rowKeys;
+    }
+
+    /**
+     * @return The vectors by column name in projection order.
+     */
+    public Map<String, ColumnVector> getVectors() {
+        return Collections.unmodifiableMap(byName);
+    }
+
+    public ColumnVector.LongVector getLongs(String column) {
+        return vector(column, ColumnVector.LongVector.class);
+    }
+
+    public ColumnVector.IntVector getInts(String column) {
+        return vector(column, ColumnVector.IntVector.class);
+    }
+
+    public ColumnVector.DoubleVector getDoubles(String column) {
+        return vector(column, ColumnVector.DoubleVector.class);
+    }
+
+    public ColumnVector.StringVector getStrings(String column) {
+        return vector(column, ColumnVector.StringVector.class);
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    void reset() {
+        for (ColumnVector v : vectors) {
+            v.reset();
+        }
+        for (int i = 0; i < size; i++) {
+            rowKeys[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Append a row, the newest cell of every projected column is decoded into its vector.
+     */
+    void add(Result result) {
+        final int row = size++;
+        rowKeys[row] = result.getRow();
+        for (int i = 0; i < columns.length; i++) {
+            final Cell cell = result.getColumnLatestCell(columns[i].getFamily(), columns[i].getQualifier());
+            vectors[i].read(cell, row);
+        }
+    }
+
+    private <V extends ColumnVector> V vector(String column, Class<V> type) {
+        final ColumnVector v = byName.get(column);
+        checkArgument(v != null, "Column %s is not projected by the scan", column);
+        checkArgument(type.isInstance(v), "Column %s is a %s, not a %s", column, v.getClass().getSimpleName(),
+                type.getSimpleName());
+        return type.cast(v);
+    }
+}
@@ -0,0 +1,211 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Block compression of column values, configured per column with {@link com.ch.htable.annotations.HColumn#codec()}.
+ * A codec wraps the converter of the column so it works with every value type, the converter produces the bytes and
+ * the codec compresses them.
+ * <p>
+ * Encoded values are self describing, the first byte names the codec that wrote the value followed by the length of
+ * the uncompressed value and the compressed bytes, {@code [codec][int length][data]}. Values below the threshold
+ * of the column, or values that do not get smaller, are stored as {@code [0][raw value]}. Any codec reads values of
+ * every other codec so the codec of a column can be changed without rewriting it. Values that were written before a
+ * codec was set on the column have no header and can not be read once it is set.
+ * <p>
+ * Compressed columns can not be compared by hbase filters, keep columns that are filtered on uncompressed.
+ */
+public interface ColumnCodec {
+
+    byte RAW = 0;
+
+    /**
+     * @return The header byte written in front of values compressed by this codec.
+     */
+    byte id();
+
+    byte[] compress(byte[] raw);
+
+    /**
+     * @param data   The buffer holding the compressed bytes.
+     * @param offset The offset of the compressed bytes.
+     * @param length The number of compressed bytes.
+     * @param size   The size of the uncompressed value.
+     * @return The uncompressed value.
+     */
+    byte[] decompress(byte[] data, int offset, int length, int size);
+
+    /**
+     * Encode a value with its header.
+     *
+     * @param codec     The codec of the column.
+     * @param threshold Values smaller than this many bytes are stored raw.
+     * @param raw       The value produced by the column converter, may be null.
+     * @return The encoded value.
+     */
+    static byte[] encode(ColumnCodec codec, int threshold, byte[] raw) {
+        if (raw == null) {
+            return null;
+        }
+        if (raw.length >= threshold) {
+            final byte[] compressed = codec.compress(raw);
+            if (compressed.length + Bytes.SIZEOF_INT < raw.length) {
+                final byte[] encoded = new byte[1 + Bytes.SIZEOF_INT + compressed.length];
+                encoded[0] = codec.id();
+                Bytes.putInt(encoded, 1, raw.length);
+                System.arraycopy(compressed, 0, encoded, 1 + Bytes.SIZEOF_INT, compressed.length);
+                return encoded;
+            }
+        }
+        final byte[] encoded = new byte[raw.length + 1];
+        encoded[0] = RAW;
+        System.arraycopy(raw, 0, encoded, 1, raw.length);
+        return encoded;
+    }
+
+    /**
+     * Decode a value written by {@link #encode(ColumnCodec, int, byte[])} with any codec.
+     *
+     * @param encoded The stored value.
+     * @return The value for the column converter.
+     */
+    static byte[] decode(byte[] encoded) {
+        checkState(encoded.length > 0, "Encoded column value has no header");
+        if (encoded[0] == RAW) {
+            return Bytes.copy(encoded, 1, encoded.length - 1);
+        }
+        final int size = Bytes.toInt(encoded, 1);
+        final int offset = 1 + Bytes.SIZEOF_INT;
+        return Codecs.get(encoded[0]).decompress(encoded, offset, encoded.length - offset, size);
+    }
+
+    /**
+     * Values are never compressed, columns without a codec have no header byte.
+     */
+    class None implements ColumnCodec {
+
+        @Override
+        public byte id() {
+            return RAW;
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) {
+            return raw;
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length, int size) {
+            return Bytes.copy(data, offset, length);
+        }
+    }
+
+    /**
+     * Deflate of the jdk, always available.
+     */
+    class Deflate implements ColumnCodec {
+
+        @Override
+        public byte id() {
+            return 1;
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) {
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+                final byte[] buffer = new byte[Math.min(raw.length + 16, 64 * 1024)];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length, int size) {
+            final Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data, offset, length);
+                final byte[] raw = new byte[size];
+                int read = 0;
+                while (read < size && !inflater.finished()) {
+                    final int n = inflater.inflate(raw, read, size - read);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += n;
+                }
+                checkState(read == size, "Corrupt deflate column value, expected %s bytes but got %s", size, read);
+                return raw;
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt deflate column value", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * LZ4, very fast with a moderate ratio. Requires {@code org.lz4:lz4-java} on the classpath.
+     */
+    class Lz4 implements ColumnCodec {
+
+        public Lz4() {
+            Codecs.require("net.jpountz.lz4.LZ4Factory", "org.lz4:lz4-java", "LZ4");
+        }
+
+        @Override
+        public byte id() {
+            return 2;
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) {
+            return Codecs.Lz4Library.compress(raw);
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length, int size) {
+            return Codecs.Lz4Library.decompress(data, offset, size);
+        }
+    }
+
+    /**
+     * Zstandard, a better ratio than deflate at a higher speed. Requires {@code com.github.luben:zstd-jni} on the
+     * classpath.
+     */
+    class Zstd implements ColumnCodec {
+
+        public Zstd() {
+            Codecs.require("com.github.luben.zstd.Zstd", "com.github.luben:zstd-jni", "Zstandard");
+        }
+
+        @Override
+        public byte id() {
+            return 3;
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) {
+            return Codecs.ZstdLibrary.compress(raw);
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length, int size) {
+            return Codecs.ZstdLibrary.decompress(data, offset, length, size);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.ch.htable.core;
 
 import com.ch.htable.annotations.HColumn;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
@@ -14,6 +16,8 @@ class ColumnMeta<T> {
     protected ValueAccessor<T> valueAccessor;
     protected ColumnConverter<T> converter;
     private byte[] qualifier;
+    private byte[] family;
+    private boolean counter;
 
     ColumnMeta(String name) {
         setName(name);
@@ -53,6 +57,27 @@ class ColumnMeta<T> {
         return qualifier;
     }
 
+    /**
+     * @return The column family of the column.
+     */
+    byte[] getFamily() {
+        return family;
+    }
+
+    /**
+     * Set the family of the column. A getter and setter may both name the family, they must agree.
+     *
+     * @param family The family name.
+     */
+    void setFamily(String family) {
+        final byte[] f = Bytes.toBytes(family);
+        if (this.family != null && !Bytes.equals(this.family, f)) {
+            throw new IllegalStateException(String.format("Column %s is mapped to families %s and %s", name,
+                    Bytes.toString(this.family), family));
+        }
+        this.family = f;
+    }
+
     /**
      * The column converter will handle converting the value to bytes and frombytes.
      *
@@ -70,6 +95,31 @@ class ColumnMeta<T> {
         this.converter = converter;
     }
 
+    /**
+     * Counter columns are only changed through increments, they are read like any other column but left out of the
+     * puts created for an entity.
+     *
+     * @return true when the column is annotated with {@link com.ch.htable.annotations.HCounter}.
+     */
+    boolean isCounter() {
+        return counter;
+    }
+
+    void setCounter(boolean counter) {
+        this.counter = counter;
+    }
+
+    /**
+     * Reset the property of the column on a reused entity so a row without the column leaves no value behind.
+     *
+     * @param entity The entity to reset.
+     */
+    void clear(Object entity) {
+        if (valueAccessor instanceof ValueAccessor.MethodAccessor) {
+            ((ValueAccessor.MethodAccessor<T>) valueAccessor).clear(entity);
+        }
+    }
+
     /**
      * Value is essentially a method that can be called to get or set the field on the object.
      * The {@link ValueAccessor#getValue(Object)} is called when retrieving the value for serialization.
@@ -115,4 +165,15 @@ class ColumnMeta<T> {
     void setBytes(Object entity, byte[] bytes, String colName) {
         valueAccessor.setValue(entity, converter.fromBytes(valueAccessor.setterType(), bytes));
     }
+
+    /**
+     * Decode the value of a cell without an entity instance. This is used when values are consumed directly from
+     * scan results, for example by aggregations.
+     *
+     * @param cell The hbase cell holding the value of this column.
+     * @return The converted value.
+     */
+    T fromCell(Cell cell) {
+        return converter.fromBytes(valueAccessor.getterType(), CellUtil.cloneValue(cell));
+    }
 }
@@ -0,0 +1,17 @@
+package com.ch.htable.core;
+
+import java.io.Serializable;
+import java.util.function.Function;
+
+/**
+ * A type safe reference to a mapped column using the getter of the entity, for example {@code Order::getAmount}.
+ * The reference is serializable which lets the meta model recover the getter name from the compiled method
+ * reference and resolve the {@link com.ch.htable.annotations.HColumn} annotated column behind it. Only method
+ * references to annotated getters can be resolved, a lambda such as {@code o -> o.getAmount()} can not.
+ *
+ * @param <T> The entity type.
+ * @param <R> The value type of the column.
+ */
+@FunctionalInterface
+public interface ColumnRef<T, R> extends Function<T, R>, Serializable {
+}
@@ -0,0 +1,106 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.CompareOperator;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A selection of the dynamic columns of a wide row, the columns that are received by the
+ * {@link com.ch.htable.annotations.HAnyColumn} of an entity. The selection is evaluated by the region servers so
+ * only the selected qualifiers are returned, for example {@code ColumnSlice.prefix("2019-")} of a row with a column
+ * per day.
+ */
+public final class ColumnSlice {
+
+    private static final ColumnSlice ALL = new ColumnSlice(() -> null);
+
+    /**
+     * Filters are stateful so every read gets a new one.
+     */
+    private final Supplier<Filter> filter;
+
+    private ColumnSlice(Supplier<Filter> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @return Every dynamic column.
+     */
+    public static ColumnSlice all() {
+        return ALL;
+    }
+
+    /**
+     * @param prefix The qualifier prefix.
+     * @return The dynamic columns whose qualifier starts with the prefix.
+     */
+    public static ColumnSlice prefix(String prefix) {
+        checkNotNull(prefix, "Invalid column prefix");
+        final byte[] bytes = Bytes.toBytes(prefix);
+        return new ColumnSlice(() -> new ColumnPrefixFilter(bytes));
+    }
+
+    /**
+     * The dynamic columns with a qualifier between two bounds in the byte order of the qualifiers. A null bound
+     * leaves that side of the range open.
+     *
+     * @param min          The lower bound or null.
+     * @param minInclusive Whether the lower bound is part of the range.
+     * @param max          The upper bound or null.
+     * @param maxInclusive Whether the upper bound is part of the range.
+     * @return The dynamic columns within the range.
+     */
+    public static ColumnSlice range(String min, boolean minInclusive, String max, boolean maxInclusive) {
+        final byte[] lower = min == null ? null : Bytes.toBytes(min);
+        final byte[] upper = max == null ? null : Bytes.toBytes(max);
+        checkArgument(lower == null || upper == null || Bytes.compareTo(lower, upper) <= 0,
+                "Invalid column range %s to %s", min, max);
+        return new ColumnSlice(() -> new ColumnRangeFilter(lower, minInclusive, upper, maxInclusive));
+    }
+
+    /**
+     * The filter that reads the mapped columns of an entity along with the slice of its dynamic columns.
+     *
+     * @param m The entity model.
+     * @return The filter or null when every column is read.
+     */
+    Filter entityFilter(EntityClassModel<?> m) {
+        final Filter slice = filter.get();
+        if (slice == null) {
+            return null;
+        }
+        final FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ONE, slice);
+        for (byte[] qualifier : m.getMappedQualifiers()) {
+            filters.addFilter(new QualifierFilter(CompareOperator.EQUAL, new BinaryComparator(qualifier)));
+        }
+        return filters;
+    }
+
+    /**
+     * The filter that reads only the slice of the dynamic columns of an entity.
+     *
+     * @param m The entity model.
+     * @return The filter.
+     */
+    Filter columnFilter(EntityClassModel<?> m) {
+        final FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+        final Filter slice = filter.get();
+        if (slice != null) {
+            filters.addFilter(slice);
+        }
+        for (byte[] qualifier : m.getMappedQualifiers()) {
+            filters.addFilter(new QualifierFilter(CompareOperator.NOT_EQUAL, new BinaryComparator(qualifier)));
+        }
+        return filters;
+    }
+}
@@ -0,0 +1,278 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values of a single column for the rows of a {@link ColumnBatch}. Values are held in a primitive array indexed
+ * by the row of the batch and rows without a value are marked in a null bitmap, the value of a null row is zero.
+ * The arrays are sized to the capacity of the batch and reused for every batch, only the first
+ * {@link ColumnBatch#size()} entries are valid.
+ */
+public abstract class ColumnVector {
+
+    private final String name;
+    private long[] nulls;
+    private int nullCount;
+
+    ColumnVector(String name, int capacity) {
+        this.name = name;
+        this.nulls = new long[(capacity + 63) >>> 6];
+    }
+
+    /**
+     * Create the vector of a column from the value type of its getter.
+     *
+     * @param column   The projected column.
+     * @param capacity The number of rows of a batch.
+     * @return The vector.
+     * @throws IllegalArgumentException When the column is not a long, int, double or string column.
+     */
+    static ColumnVector of(ColumnMeta<?> column, int capacity) {
+        final Class<?> type = column.getValueAccessor().getterType();
+        final ColumnConverter<?> converter = column.converter();
+        if (type == Long.class || type == long.class) {
+            return new LongVector(column, capacity, converter instanceof ColumnConverter.LongColumn);
+        }
+        if (type == Integer.class || type == int.class || type == Short.class || type == short.class) {
+            return new IntVector(column, capacity, converter instanceof ColumnConverter.IntegerColumn);
+        }
+        if (type == Double.class || type == double.class || type == Float.class || type == float.class) {
+            return new DoubleVector(column, capacity, converter instanceof ColumnConverter.DoubleColumn);
+        }
+        if (type == String.class) {
+            return new StringVector(column, capacity, converter instanceof ColumnConverter.StringColumn);
+        }
+        throw new IllegalArgumentException(String.format("Column %s of type %s can not be read into a vector",
+                column.getName(), type.getName()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param row The row of the batch.
+     * @return true when the row has no value for the column.
+     */
+    public boolean isNull(int row) {
+        return (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @return The number of rows of the batch without a value, when zero the null bitmap can be ignored.
+     */
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * @return The null bitmap, bit {@code row % 64} of word {@code row / 64} is set for a null row.
+     */
+    public long[] nulls() {
+        return nulls;
+    }
+
+    void reset() {
+        Arrays.fill(nulls, 0L);
+        nullCount = 0;
+    }
+
+    void setNull(int row) {
+        nulls[row >>> 6] |= 1L << row;
+        nullCount++;
+    }
+
+    /**
+     * Decode the value of a row, a null cell or an empty value is a null row.
+     */
+    void read(Cell cell, int row) {
+        if (cell == null || cell.getValueLength() == 0) {
+            setNull(row);
+            clear(row);
+        } else {
+            decode(cell, row);
+        }
+    }
+
+    abstract void clear(int row);
+
+    abstract void decode(Cell cell, int row);
+
+    /**
+     * A column of longs.
+     */
+    public static final class LongVector extends ColumnVector {
+
+        private final ColumnMeta<?> column;
+        private final boolean direct;
+        private final long[] values;
+
+        private LongVector(ColumnMeta<?> column, int capacity, boolean direct) {
+            super(column.getName(), capacity);
+            this.column = column;
+            this.direct = direct;
+            this.values = new long[capacity];
+        }
+
+        public long get(int row) {
+            return values[row];
+        }
+
+        public long[] values() {
+            return values;
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0L;
+        }
+
+        @Override
+        void decode(Cell cell, int row) {
+            values[row] = direct ? Bytes.toLong(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength())
+                    : ((Number) column.fromCell(cell)).longValue();
+        }
+    }
+
+    /**
+     * A column of ints, short columns are widened.
+     */
+    public static final class IntVector extends ColumnVector {
+
+        private final ColumnMeta<?> column;
+        private final boolean direct;
+        private final int[] values;
+
+        private IntVector(ColumnMeta<?> column, int capacity, boolean direct) {
+            super(column.getName(), capacity);
+            this.column = column;
+            this.direct = direct;
+            this.values = new int[capacity];
+        }
+
+        public int get(int row) {
+            return values[row];
+        }
+
+        public int[] values() {
+            return values;
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        void decode(Cell cell, int row) {
+            values[row] = direct ? Bytes.toInt(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength())
+                    : ((Number) column.fromCell(cell)).intValue();
+        }
+    }
+
+    /**
+     * A column of doubles, float columns are widened.
+     */
+    public static final class DoubleVector extends ColumnVector {
+
+        private final ColumnMeta<?> column;
+        private final boolean direct;
+        private final double[] values;
+
+        private DoubleVector(ColumnMeta<?> column, int capacity, boolean direct) {
+            super(column.getName(), capacity);
+            this.column = column;
+            this.direct = direct;
+            this.values = new double[capacity];
+        }
+
+        public double get(int row) {
+            return values[row];
+        }
+
+        public double[] values() {
+            return values;
+        }
+
+        @Override
+        void clear(int row) {
+            values[row] = 0d;
+        }
+
+        @Override
+        void decode(Cell cell, int row) {
+            values[row] = direct ? Bytes.toDouble(cell.getValueArray(), cell.getValueOffset())
+                    : ((Number) column.fromCell(cell)).doubleValue();
+        }
+    }
+
+    /**
+     * A dictionary encoded column of strings. Every row holds the code of its value in the dictionary of the batch,
+     * a value is decoded once per batch however many rows share it. The code of a null row is -1.
+     */
+    public static final class StringVector extends ColumnVector {
+
+        private final ColumnMeta<?> column;
+        private final boolean direct;
+        private final int[] codes;
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<ByteBuffer, Integer> lookup = new HashMap<>();
+
+        private StringVector(ColumnMeta<?> column, int capacity, boolean direct) {
+            super(column.getName(), capacity);
+            this.column = column;
+            this.direct = direct;
+            this.codes = new int[capacity];
+        }
+
+        public String get(int row) {
+            final int code = codes[row];
+            return code < 0 ? null : dictionary.get(code);
+        }
+
+        public int[] codes() {
+            return codes;
+        }
+
+        /**
+         * @return The distinct values of the batch indexed by their code.
+         */
+        public List<String> dictionary() {
+            return dictionary;
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            dictionary.clear();
+            lookup.clear();
+        }
+
+        @Override
+        void clear(int row) {
+            codes[row] = -1;
+        }
+
+        @Override
+        void decode(Cell cell, int row) {
+            final ByteBuffer value = ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+            Integer code = lookup.get(value);
+            if (code == null) {
+                final byte[] bytes = new byte[value.remaining()];
+                value.duplicate().get(bytes);
+                code = dictionary.size();
+                dictionary.add(direct ? Bytes.toString(bytes) : String.valueOf(column.fromCell(cell)));
+                lookup.put(ByteBuffer.wrap(bytes), code);
+            }
+            codes[row] = code;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.ch.htable.core;
+
+import com.google.common.base.MoreObjects;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Outcome of a {@link UnitOfWork} commit. A commit applies every mutation it can, so the report carries an
+ * {@link Outcome} per registered mutation in registration order telling whether it was applied.
+ */
+public class CommitReport {
+
+    /**
+     * The kind of a registered mutation.
+     */
+    public enum Kind {
+        SAVE,
+        DELETE,
+        INCREMENT
+    }
+
+    private final List<Outcome> outcomes;
+
+    CommitReport(List<Outcome> outcomes) {
+        this.outcomes = Collections.unmodifiableList(outcomes);
+    }
+
+    /**
+     * @return An outcome per registered mutation in registration order.
+     */
+    public List<Outcome> getOutcomes() {
+        return outcomes;
+    }
+
+    /**
+     * @return The outcomes of the mutations that were not applied.
+     */
+    public List<Outcome> getFailures() {
+        return outcomes.stream().filter(o -> !o.isSucceeded()).collect(Collectors.toList());
+    }
+
+    public long getSucceeded() {
+        return outcomes.stream().filter(Outcome::isSucceeded).count();
+    }
+
+    public long getFailed() {
+        return outcomes.size() - getSucceeded();
+    }
+
+    public boolean isSuccessful() {
+        return outcomes.stream().allMatch(Outcome::isSucceeded);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("succeeded", getSucceeded())
+                .add("failed", getFailed())
+                .toString();
+    }
+
+    /**
+     * The outcome of one mutation. It is updated by the table workers of the commit and complete once the commit
+     * returns.
+     */
+    public static class Outcome {
+
+        private final Class<?> entityType;
+        private final Kind kind;
+        private final byte[] key;
+        private volatile Result result;
+        private volatile Throwable cause;
+
+        Outcome(Class<?> entityType, Kind kind, byte[] key) {
+            this.entityType = entityType;
+            this.kind = kind;
+            this.key = key;
+        }
+
+        void succeeded(Result result) {
+            this.result = result;
+        }
+
+        /**
+         * Mark the mutation failed, the first cause is kept.
+         */
+        synchronized void failed(Throwable cause) {
+            if (this.cause == null) {
+                this.cause = cause;
+            }
+        }
+
+        public Class<?> getEntityType() {
+            return entityType;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public boolean isSucceeded() {
+            return cause == null && result != null;
+        }
+
+        /**
+         * @return The result of the mutation, the new counter values of an increment, or null when it failed.
+         */
+        public Result getResult() {
+            return cause == null ? result : null;
+        }
+
+        /**
+         * @return The cause of the failure or null.
+         */
+        public Throwable getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("entityType", entityType.getSimpleName())
+                    .add("kind", kind)
+                    .add("key", Bytes.toStringBinary(key))
+                    .add("cause", cause)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.ch.htable.core;
+
+/**
+ * A converter that compresses the bytes of another converter with a {@link ColumnCodec}.
+ *
+ * @param <T> The value type of the column.
+ */
+class CompressedConverter<T> implements ColumnConverter<T> {
+
+    private final ColumnConverter<T> converter;
+    private final ColumnCodec codec;
+    private final int threshold;
+
+    CompressedConverter(ColumnConverter<T> converter, ColumnCodec codec, int threshold) {
+        this.converter = converter;
+        this.codec = codec;
+        this.threshold = threshold;
+    }
+
+    ColumnConverter<T> getConverter() {
+        return converter;
+    }
+
+    ColumnCodec getCodec() {
+        return codec;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public byte[] toBytes(T value) {
+        return ColumnCodec.encode(codec, threshold, converter.toBytes(value));
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public T fromBytes(byte[] bytes) {
+        return converter.fromBytes(ColumnCodec.decode(bytes));
+    }
+
+    @Override
+    public byte[] toBytes(Class<T> clazz, T value) {
+        return ColumnCodec.encode(codec, threshold, converter.toBytes(clazz, value));
+    }
+
+    @Override
+    public T fromBytes(Class<T> clazz, byte[] bytes) {
+        return converter.fromBytes(clazz, ColumnCodec.decode(bytes));
+    }
+}
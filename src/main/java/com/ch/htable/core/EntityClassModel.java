@@ -5,8 +5,21 @@ import com.ch.htable.annotations.HColumn;
 import com.ch.htable.annotations.HId;
 import com.ch.htable.annotations.HTable;
 import com.google.common.base.MoreObjects;
+import org.apache.hadoop.hbase.util.Bytes;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -15,18 +28,35 @@ import static com.google.common.base.Preconditions.checkState;
  */
 class EntityClassModel<T> {
 
+    /**
+     * Getter names resolved from {@link ColumnRef} implementation classes. A method reference compiles to a single
+     * class per call site so this stays small.
+     */
+    private static final ConcurrentHashMap<Class<?>, String> refNames = new ConcurrentHashMap<>();
+
     private final Class<T> clazz;
     private final String tableName;
     private final String columnFamily;
     private final ColumnModel columnModel;
 
+    private final Map<String, IndexMeta<?>> indexes = new LinkedHashMap<>();
+    private final Map<String, VersionsMeta<?>> versions = new LinkedHashMap<>();
+
+    private final byte[] family;
+    private byte[][] families;
+
     private Identifier identifier;
 
+    private volatile MethodHandle constructor;
+    private volatile WritePlan<T> writePlan;
+
     EntityClassModel(Class<T> clazz, String tableName, String columnFamily) {
         this.clazz = clazz;
         this.tableName = tableName;
         this.columnFamily = columnFamily;
         this.columnModel = new ColumnModel();
+        this.family = Bytes.toBytes(columnFamily);
+        this.families = new byte[][]{family};
     }
 
     public ColumnModel getColumnModel() {
@@ -89,6 +119,107 @@ class EntityClassModel<T> {
         return columnModel.getNamedColumn(columnName);
     }
 
+    /**
+     * Resolve the column behind a getter method reference such as {@code Order::getAmount}.
+     *
+     * @param ref The method reference of a getter annotated with {@link HColumn}.
+     * @param <R> The value type of the column.
+     * @return The column of the getter.
+     */
+    @SuppressWarnings("unchecked")
+    <R> ColumnMeta<R> getColumn(ColumnRef<T, R> ref) {
+        final String getter = refNames.computeIfAbsent(ref.getClass(), k -> implMethodName(ref));
+        for (ColumnMeta<?> column : columnModel.getNamedColumns()) {
+            final ValueAccessor<?> accessor = column.getValueAccessor();
+            if (accessor instanceof ValueAccessor.MethodAccessor
+                    && ((ValueAccessor.MethodAccessor<?>) accessor).getterName().equals(getter)) {
+                return (ColumnMeta<R>) column;
+            }
+        }
+        throw new HBaseException(String.format("Method %s is not a mapped column getter of entity %s", getter, getEntityType()));
+    }
+
+    void addVersions(VersionsMeta<?> column) {
+        versions.put(column.getName(), column);
+    }
+
+    /**
+     * @param columnName The name of the column.
+     * @return The versions mapping of the column or null when its versions are not mapped.
+     */
+    VersionsMeta<?> getVersions(String columnName) {
+        return versions.get(columnName);
+    }
+
+    /**
+     * @return The names of the families that hold columns with mapped versions.
+     */
+    Set<String> getVersionedFamilies() {
+        final Set<String> families = new TreeSet<>();
+        for (VersionsMeta<?> v : versions.values()) {
+            families.add(Bytes.toString(v.getFamily()));
+        }
+        return families;
+    }
+
+    /**
+     * @return The qualifiers that are mapped by name, the named columns and the columns with mapped versions.
+     */
+    List<byte[]> getMappedQualifiers() {
+        final List<byte[]> qualifiers = new ArrayList<>();
+        for (ColumnMeta<?> c : columnModel.getNamedColumns()) {
+            qualifiers.add(c.getQualifier());
+        }
+        for (VersionsMeta<?> v : versions.values()) {
+            if (!hasColumn(v.getName())) {
+                qualifiers.add(v.getQualifier());
+            }
+        }
+        return qualifiers;
+    }
+
+    /**
+     * Register the index of a column, a column has at most one index.
+     * @param index The index of the column.
+     */
+    void addIndex(IndexMeta<?> index) {
+        indexes.put(index.getColumn().getName(), index);
+    }
+
+    Collection<IndexMeta<?>> getIndexes() {
+        return indexes.values();
+    }
+
+    boolean hasIndexes() {
+        return !indexes.isEmpty();
+    }
+
+    /**
+     * Resolve the index of the column behind a getter method reference.
+     * @param ref The method reference of a getter annotated with {@link com.ch.htable.annotations.HIndex}.
+     * @param <R> The value type of the column.
+     * @return The index of the column.
+     */
+    @SuppressWarnings("unchecked")
+    <R> IndexMeta<R> getIndex(ColumnRef<T, R> ref) {
+        final ColumnMeta<R> column = getColumn(ref);
+        final IndexMeta<?> index = indexes.get(column.getName());
+        if (index == null) {
+            throw new HBaseException(String.format("Column %s of entity %s is not indexed", column.getName(), getEntityType()));
+        }
+        return (IndexMeta<R>) index;
+    }
+
+    private static String implMethodName(ColumnRef<?, ?> ref) {
+        try {
+            final Method writeReplace = ref.getClass().getDeclaredMethod("writeReplace");
+            writeReplace.setAccessible(true);
+            return ((SerializedLambda) writeReplace.invoke(ref)).getImplMethodName();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new HBaseException(String.format("Column reference %s must be a method reference to a getter", ref), e);
+        }
+    }
+
     /**
      * Getter for the name of the table. This is marked on the entity by it's {@link HTable} annotation. This is
      * the hbase table name for the entity.
@@ -106,6 +237,60 @@ class EntityClassModel<T> {
         return clazz;
     }
 
+    /**
+     * Create an entity with the no argument constructor. The constructor handle is looked up once, reflective
+     * instantiation through {@link Class#newInstance()} checks access on every call.
+     *
+     * @return A new entity.
+     */
+    @SuppressWarnings("unchecked")
+    T newInstance() {
+        MethodHandle c = constructor;
+        if (c == null) {
+            try {
+                final Constructor<T> declared = clazz.getDeclaredConstructor();
+                declared.setAccessible(true);
+                c = MethodHandles.lookup().unreflectConstructor(declared);
+                constructor = c;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new HBaseException(String.format("Entity %s must have a no argument constructor", clazz), e);
+            }
+        }
+        try {
+            return (T) c.invoke();
+        } catch (Throwable t) {
+            throw new HBaseException(String.format("Unable to initialize the result for class %s ", clazz), t);
+        }
+    }
+
+    /**
+     * @return The precompiled conversion of entities to puts, built on first use once every column is known.
+     */
+    WritePlan<T> writePlan() {
+        WritePlan<T> plan = writePlan;
+        if (plan == null) {
+            plan = new WritePlan<>(this);
+            writePlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * Reset every mapped property of an entity that is reused for another row. Properties without a setter and a
+     * per cell {@link com.ch.htable.annotations.HAnyColumn} setter are left as they are.
+     *
+     * @param entity The entity to reset.
+     */
+    void clear(T entity) {
+        for (ColumnMeta<?> c : columnModel.getNamedColumns()) {
+            c.clear(entity);
+        }
+        columnModel.getAnyColumn().ifPresent(c -> c.clear(entity));
+        for (VersionsMeta<?> v : versions.values()) {
+            v.clear(entity);
+        }
+    }
+
     /**
      * Set the identifier accessor for the row.
      * @param identifier The identifier for the row.
@@ -130,6 +315,54 @@ class EntityClassModel<T> {
         return columnFamily;
     }
 
+    /**
+     * @return The default column family of the entity as bytes.
+     */
+    byte[] getFamily() {
+        return family;
+    }
+
+    /**
+     * @return Every column family the entity maps to, the default family first.
+     */
+    byte[][] getFamilies() {
+        return families;
+    }
+
+    /**
+     * Assign the default family to every column that did not name one and collect the families of the entity. This
+     * is called once after all columns were analyzed.
+     */
+    void resolveFamilies() {
+        final Set<byte[]> all = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+        for (ColumnMeta<?> c : columnModel.getNamedColumns()) {
+            if (c.getFamily() == null) {
+                c.setFamily(columnFamily);
+            }
+            all.add(c.getFamily());
+        }
+        columnModel.getAnyColumn().ifPresent(c -> c.setFamily(columnFamily));
+        for (VersionsMeta<?> v : versions.values()) {
+            if (v.getFamily() == null) {
+                v.setFamily(family);
+            }
+            all.add(v.getFamily());
+        }
+        all.remove(family);
+        final List<byte[]> ordered = new ArrayList<>(all.size() + 1);
+        ordered.add(family);
+        ordered.addAll(all);
+        this.families = ordered.toArray(new byte[0][]);
+    }
+
+    /**
+     * @param columnName The name of a column.
+     * @return The family of a mapped column, the default family for unmapped columns where the any column lives.
+     */
+    byte[] getFamily(String columnName) {
+        return hasColumn(columnName) ? getColumnOrThrow(columnName).getFamily() : family;
+    }
+
     /**
      * Helper to get the byte value for an entity using it's Identifier implementation.
      * @param o The value to invoke the identifier on.
@@ -139,6 +372,22 @@ class EntityClassModel<T> {
         return identifier.converter.toBytes(identifier.valueAccessor.getValue(o));
     }
 
+    /**
+     * @return The converter of the row key.
+     */
+    ColumnConverter<?> getIdConverter() {
+        return identifier.converter;
+    }
+
+    /**
+     * @param row A row key.
+     * @return The identifier value of the row key.
+     */
+    @SuppressWarnings("unchecked")
+    Object decodeId(byte[] row) {
+        return identifier.converter.fromBytes(identifier.valueAccessor.getterType(), row);
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
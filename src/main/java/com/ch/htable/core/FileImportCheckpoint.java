@@ -0,0 +1,54 @@
+package com.ch.htable.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An {@link ImportCheckpoint} stored in a local file. A commit writes the offset to a sibling temporary file which
+ * is then atomically moved over the checkpoint, a crash while committing leaves the previous offset in place.
+ */
+public class FileImportCheckpoint implements ImportCheckpoint {
+
+    private final Path file;
+    private final Path temp;
+
+    public FileImportCheckpoint(Path file) {
+        this.file = file;
+        this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    @Override
+    public long load() throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        final String offset = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        try {
+            return Long.parseLong(offset);
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Invalid import checkpoint %s in %s", offset, file), e);
+        }
+    }
+
+    @Override
+    public void commit(long offset) throws IOException {
+        Files.write(temp, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the checkpoint so the next import starts from the beginning of the source.
+     *
+     * @throws IOException If the file could not be removed.
+     */
+    public void clear() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,325 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.ch.htable.core.HMetrics.Operation;
+import com.google.common.collect.Iterators;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CompareOperator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Client side aggregations over mapped entities. Aggregations never build entities, the scan only asks for the
+ * qualifiers that are referenced by the aggregation (or only the row keys for counts) and the values are decoded
+ * straight from the cells using the converter of the column. The scan is split along region boundaries and every
+ * region is aggregated on its own worker before the partial results are combined.
+ * <p>
+ * Columns are referenced through getter method references, for example
+ * {@code aggregator.sum(Order.class, "2019", Order::getAmount)}.
+ */
+public class HAggregator {
+
+    private final HEntityManager manager;
+
+    public HAggregator(HEntityManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Count the rows with a key prefix. Only the first key of every row is returned by the region servers.
+     *
+     * @param clazz  The mapped entity class.
+     * @param prefix The row key prefix.
+     * @param <T>    The entity type.
+     * @return The number of rows.
+     */
+    public <T> long count(Class<T> clazz, String prefix) {
+        return count(clazz, prefix, Optional.empty());
+    }
+
+    /**
+     * Count the rows with a key prefix that pass a filter. When a filter is given every cell of the row is still
+     * evaluated by the filter but only keys are returned.
+     *
+     * @param clazz  The mapped entity class.
+     * @param prefix The row key prefix.
+     * @param filter Optional filter the rows must pass.
+     * @param <T>    The entity type.
+     * @return The number of rows.
+     */
+    public <T> long count(Class<T> clazz, String prefix, Optional<Filter> filter) {
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final Scan scan = scan(m, prefix);
+        scan.setFilter(filter
+                .<Filter>map(f -> new FilterList(FilterList.Operator.MUST_PASS_ALL, f, new KeyOnlyFilter()))
+                .orElseGet(() -> new FilterList(FilterList.Operator.MUST_PASS_ALL,
+                        new FirstKeyOnlyFilter(), new KeyOnlyFilter())));
+
+        return aggregate(m, scan, () -> new long[1], (count, r) -> count[0]++, (a, b) -> {
+            a[0] += b[0];
+            return a;
+        })[0];
+    }
+
+    /**
+     * Sum a numeric column over all rows with a key prefix. Rows without a value for the column are ignored.
+     * Integral values are summed exactly in a long, floating point values in a double.
+     *
+     * @param clazz  The mapped entity class.
+     * @param prefix The row key prefix.
+     * @param column Getter reference of the numeric column.
+     * @param <T>    The entity type.
+     * @param <R>    The numeric type of the column.
+     * @return The sum, a {@link Long} when every value is integral and a {@link Double} otherwise.
+     */
+    public <T, R extends Number> Number sum(Class<T> clazz, String prefix, ColumnRef<T, R> column) {
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final ColumnMeta<R> c = m.getColumn(column);
+
+        return aggregate(m, scan(m, prefix, c), NumberSum::new, (sum, r) -> sum.add(value(r, c)),
+                NumberSum::combine).result();
+    }
+
+    public <T, R extends Comparable<? super R>> Optional<R> min(Class<T> clazz, String prefix,
+                                                               ColumnRef<T, R> column) {
+        return extreme(clazz, prefix, column, -1);
+    }
+
+    public <T, R extends Comparable<? super R>> Optional<R> max(Class<T> clazz, String prefix,
+                                                               ColumnRef<T, R> column) {
+        return extreme(clazz, prefix, column, 1);
+    }
+
+    /**
+     * Group the rows with a key prefix by the value of a column.
+     *
+     * @param clazz  The mapped entity class.
+     * @param prefix The row key prefix.
+     * @param key    Getter reference of the column to group by.
+     * @param <T>    The entity type.
+     * @param <K>    The type of the group key.
+     * @return The grouping which can be aggregated further.
+     */
+    public <T, K> GroupBy<T, K> groupBy(Class<T> clazz, String prefix, ColumnRef<T, K> key) {
+        return new GroupBy<>(manager.entityModel(clazz), prefix, key);
+    }
+
+    /**
+     * Find the smallest (sign -1) or largest (sign 1) value of a column.
+     */
+    private <T, R extends Comparable<? super R>> Optional<R> extreme(Class<T> clazz, String prefix,
+                                                                    ColumnRef<T, R> column, int sign) {
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final ColumnMeta<R> c = m.getColumn(column);
+        final BinaryOperator<R> pick = (a, b) -> a == null ? b : b == null ? a : (a.compareTo(b) * sign >= 0 ? a : b);
+
+        final Object[] result = aggregate(m, scan(m, prefix, c), () -> new Object[1], (acc, r) ->
+                acc[0] = pick.apply(cast(acc[0]), value(r, c)), (a, b) -> {
+            a[0] = pick.apply(cast(a[0]), cast(b[0]));
+            return a;
+        });
+        return Optional.ofNullable(cast(result[0]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> R cast(Object o) {
+        return (R) o;
+    }
+
+    /**
+     * Decode the value of a column, a missing cell and the empty cell written for a null field are both null.
+     */
+    private static <R> R value(Result r, ColumnMeta<R> column) {
+        final Cell cell = r.getColumnLatestCell(column.getFamily(), column.getQualifier());
+        return cell == null || cell.getValueLength() == 0 ? null : column.fromCell(cell);
+    }
+
+    /**
+     * Create the scan for an aggregation. Only the given columns are requested, when there are none every family
+     * of the entity is scanned. Aggregations read a range once so they skip the block cache.
+     */
+    private static Scan scan(EntityClassModel<?> m, String prefix, ColumnMeta<?>... columns) {
+        final Scan scan = new Scan();
+        scan.setRowPrefixFilter(Bytes.toBytes(prefix));
+        scan.setCacheBlocks(false);
+        if (columns.length == 0) {
+            for (byte[] family : m.getFamilies()) {
+                scan.addFamily(family);
+            }
+        }
+        for (ColumnMeta<?> c : columns) {
+            scan.addColumn(c.getFamily(), c.getQualifier());
+        }
+        return scan;
+    }
+
+    /**
+     * Create the scan of a grouping. Every row returns its first cell, which marks that the row exists, and the
+     * cells with the qualifier of the group column so rows without a value for the group column still come back
+     * and are grouped under null. The qualifier filter only skips cells, a filter that skips the rest of a row
+     * would hide a group column that is not in the first family of the row.
+     */
+    private static Scan groupScan(EntityClassModel<?> m, String prefix, ColumnMeta<?> key) {
+        final Scan scan = scan(m, prefix);
+        scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ONE,
+                new FirstKeyOnlyFilter(),
+                new QualifierFilter(CompareOperator.EQUAL, new BinaryComparator(key.getQualifier()))));
+        return scan;
+    }
+
+    /**
+     * Aggregate every region of the scan on its own I/O task and combine the partial results. At most the
+     * {@link Operation#AGGREGATE} limit of regions are scanned at once.
+     *
+     * @param m           The entity model of the scanned table.
+     * @param scan        The scan covering the whole range.
+     * @param identity    Creates an empty accumulator for a region.
+     * @param accumulator Folds a single result into the accumulator of a region.
+     * @param combiner    Combines the accumulators of two regions.
+     * @param <A>         The accumulator type.
+     * @return The combined accumulator.
+     */
+    <A> A aggregate(EntityClassModel<?> m, Scan scan, Supplier<A> identity, BiConsumer<A, Result> accumulator,
+                    BinaryOperator<A> combiner) {
+        final OperationTimer timer = OperationTimer.start(manager.getMetrics(), m.getEntityType(), Operation.AGGREGATE);
+        scan.setScanMetricsEnabled(timer.isEnabled());
+
+        try (StorageTable table = manager.getTable(m)) {
+            final List<Scan> regions = RegionSplits.split(scan, table.getStartKeys());
+            final Iterator<Callable<A>> tasks = Iterators.transform(regions.iterator(), region -> () -> {
+                final A acc = identity.get();
+                try (ResultScanner scanner = table.getScanner(region)) {
+                    for (Result r : scanner) {
+                        timer.result(r);
+                        accumulator.accept(acc, r);
+                    }
+                    timer.scanMetrics(scanner.getScanMetrics());
+                } catch (IOException e) {
+                    throw new HBaseException(String.format("Error while aggregating region starting at %s",
+                            Bytes.toStringBinary(region.getStartRow())), e);
+                }
+                return acc;
+            });
+            final A result = manager.getExecutors().fanOut(Operation.AGGREGATE, tasks).stream()
+                    .reduce(combiner)
+                    .orElseGet(identity);
+            timer.succeeded();
+            return result;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while aggregating entity %s", m.getEntityType()), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * Rows grouped by the value of a column. Rows without a value for the group column are grouped under null.
+     *
+     * @param <T> The entity type.
+     * @param <K> The type of the group key.
+     */
+    public class GroupBy<T, K> {
+
+        private final EntityClassModel<T> model;
+        private final String prefix;
+        private final ColumnMeta<K> key;
+
+        private GroupBy(EntityClassModel<T> model, String prefix, ColumnRef<T, K> key) {
+            this.model = model;
+            this.prefix = prefix;
+            this.key = model.getColumn(key);
+        }
+
+        /**
+         * @return The number of rows per group.
+         */
+        public Map<K, Long> count() {
+            return aggregate(model, groupScan(model, prefix, key), HashMap::new,
+                    (counts, r) -> counts.merge(value(r, key), 1L, Long::sum),
+                    (a, b) -> {
+                        b.forEach((k, v) -> a.merge(k, v, Long::sum));
+                        return a;
+                    });
+        }
+
+        /**
+         * Sum a numeric column per group, integral values are summed exactly as in
+         * {@link HAggregator#sum(Class, String, ColumnRef)}.
+         *
+         * @param column Getter reference of the numeric column to sum.
+         * @param <R>    The numeric type of the column.
+         * @return The sum of the column per group, a {@link Long} when every value of the group is integral and a
+         * {@link Double} otherwise.
+         */
+        public <R extends Number> Map<K, Number> sum(ColumnRef<T, R> column) {
+            final ColumnMeta<R> c = model.getColumn(column);
+            final Map<K, NumberSum> sums = aggregate(model, scan(model, prefix, key, c), HashMap::new,
+                    (acc, r) -> {
+                        final R value = value(r, c);
+                        if (value != null) {
+                            acc.computeIfAbsent(value(r, key), k -> new NumberSum()).add(value);
+                        }
+                    },
+                    (a, b) -> {
+                        b.forEach((k, v) -> a.merge(k, v, NumberSum::combine));
+                        return a;
+                    });
+            final Map<K, Number> result = new HashMap<>();
+            sums.forEach((k, v) -> result.put(k, v.result()));
+            return result;
+        }
+    }
+
+    /**
+     * Accumulates integral values in a long and floating point values in a double so large integral sums stay
+     * exact.
+     */
+    private static final class NumberSum {
+
+        private long integral;
+        private double real;
+        private boolean hasReal;
+
+        private void add(Number value) {
+            if (value == null) {
+                return;
+            }
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                integral += value.longValue();
+            } else {
+                real += value.doubleValue();
+                hasReal = true;
+            }
+        }
+
+        private NumberSum combine(NumberSum other) {
+            integral += other.integral;
+            real += other.real;
+            hasReal |= other.hasReal;
+            return this;
+        }
+
+        private Number result() {
+            return hasReal ? (Number) (integral + real) : (Number) integral;
+        }
+    }
+}
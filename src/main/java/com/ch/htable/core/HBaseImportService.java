@@ -1,8 +1,12 @@
 package com.ch.htable.core;
 
+import com.ch.htable.HBaseException;
 import com.google.common.base.Stopwatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 public class HBaseImportService {
@@ -26,4 +30,40 @@ public class HBaseImportService {
                 clazz);
 
     }
+
+    /**
+     * Import raw records through a staged parse, map and write pipeline. The stages are connected by bounded queues
+     * and run with the parallelism of the options, the writes slow down when the region servers push back. The
+     * offset of the last written record is committed to the checkpoint of the options so an import that crashed
+     * resumes from the committed offset instead of starting over, records after the offset may be written twice.
+     *
+     * @param source  The raw records, opened at the committed offset.
+     * @param parser  Turns a raw record into an entity, it is called concurrently when there are several parse threads.
+     * @param clazz   The mapped entity class.
+     * @param options The pipeline tuning and checkpoint.
+     * @param <R>     The raw record type.
+     * @param <V>     The entity type.
+     * @return The final progress of the import.
+     * @throws HBaseException If the source could not be read, a record could not be parsed or a batch could not be
+     *                        written after all retries. The committed offset is kept.
+     */
+    public <R, V> ImportProgress importFrom(ImportSource<R> source, Function<R, V> parser, Class<V> clazz,
+                                            ImportOptions options) {
+        final EntityClassModel<V> m = repository.entityModel(clazz);
+        final long offset;
+        try {
+            offset = options.getCheckpoint().load();
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Unable to load the import checkpoint of %s", clazz), e);
+        }
+        if (offset > 0) {
+            logger.info("Resuming import of {} at offset {}", clazz, offset);
+        }
+
+        try (StorageTable table = repository.getTable(m); Stream<R> records = source.open(offset)) {
+            return new ImportPipeline<>(repository, m, table, parser, options, offset).run(records.iterator());
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while importing %s", clazz), e);
+        }
+    }
 }
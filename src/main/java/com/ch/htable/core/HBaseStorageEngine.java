@@ -0,0 +1,129 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@link StorageEngine} backed by an hbase cluster. Every table handle is a thin delegate to the hbase
+ * {@link Table} of the connection.
+ */
+public class HBaseStorageEngine implements StorageEngine {
+
+    private final Connection connection;
+
+    public HBaseStorageEngine(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @return The hbase connection used by this engine.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public StorageTable getTable(TableName tableName) throws IOException {
+        return new HBaseStorageTable(connection, connection.getTable(tableName));
+    }
+
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+
+    static class HBaseStorageTable implements StorageTable {
+
+        private final Connection connection;
+        private final Table table;
+
+        HBaseStorageTable(Connection connection, Table table) {
+            this.connection = connection;
+            this.table = table;
+        }
+
+        @Override
+        public TableName getName() {
+            return table.getName();
+        }
+
+        @Override
+        public Result get(Get get) throws IOException {
+            return table.get(get);
+        }
+
+        @Override
+        public Result[] get(List<Get> gets) throws IOException {
+            return table.get(gets);
+        }
+
+        @Override
+        public void put(Put put) throws IOException {
+            table.put(put);
+        }
+
+        @Override
+        public void put(List<Put> puts) throws IOException {
+            table.put(puts);
+        }
+
+        @Override
+        public void delete(Delete delete) throws IOException {
+            table.delete(delete);
+        }
+
+        @Override
+        public void delete(List<Delete> deletes) throws IOException {
+            table.delete(deletes);
+        }
+
+        @Override
+        public Result increment(Increment increment) throws IOException {
+            return table.increment(increment);
+        }
+
+        @Override
+        public Result[] increment(List<Increment> increments) throws IOException {
+            final Object[] results = new Object[increments.size()];
+            try {
+                table.batch(increments, results);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (InterruptedIOException) new InterruptedIOException("Interrupted while incrementing").initCause(e);
+            }
+            return Arrays.copyOf(results, results.length, Result[].class);
+        }
+
+        @Override
+        public void batch(List<? extends Row> actions, Object[] results) throws IOException {
+            try {
+                table.batch(actions, results);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (InterruptedIOException) new InterruptedIOException("Interrupted while applying a batch").initCause(e);
+            }
+        }
+
+        @Override
+        public ResultScanner getScanner(Scan scan) throws IOException {
+            return table.getScanner(scan);
+        }
+
+        @Override
+        public byte[][] getStartKeys() throws IOException {
+            try (RegionLocator locator = connection.getRegionLocator(table.getName())) {
+                return locator.getStartKeys();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            table.close();
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.ch.htable.core;
 
 import com.ch.htable.*;
+import com.ch.htable.core.HMetrics.Operation;
 import com.google.common.annotations.Beta;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
@@ -13,9 +17,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -30,14 +60,71 @@ public class HEntityManager {
     private static final Logger LOG = LoggerFactory.getLogger(HEntityManager.class);
 
     private static final int MAX_BATCH_SIZE = 0xFFF;
+
+    /**
+     * How long an index entry without a row is kept, the row of a save in flight is written after its index entry.
+     */
+    private static final long INDEX_GRACE_MILLIS = 60_000;
     private final AnnotationAnalyzer metaModel;
     private final String tableNameSpace;
-    private final Connection connection;
+    private final StorageEngine storage;
+    private final HMetrics metrics;
+    private final HExecutors executors;
+
+    /**
+     * Latency of hedged single entity reads per entity type, the delay of percentile hedged reads is derived from it.
+     */
+    private final Map<Class<?>, LatencyHistogram> readLatencies = new ConcurrentHashMap<>();
+
+    /**
+     * Key filters per entity type, the filters that are being built also receive the written keys.
+     */
+    private final Map<Class<?>, KeyFilter> keyFilters = new ConcurrentHashMap<>();
+    private final Map<Class<?>, KeyFilter> buildingKeyFilters = new ConcurrentHashMap<>();
+    /**
+     * Held shared by writers from {@link #keysWritten} until their mutations completed, a filter that starts
+     * building takes it exclusively once to wait for the writes that did not see it.
+     */
+    private final ReadWriteLock keyWrites = new ReentrantReadWriteLock();
 
     public HEntityManager(Connection connection, AnnotationAnalyzer metaModel, String tableNameSpace) {
-        this.connection = connection;
+        this(new HBaseStorageEngine(connection), metaModel, tableNameSpace, HMetrics.NOOP);
+    }
+
+    public HEntityManager(Connection connection, AnnotationAnalyzer metaModel, String tableNameSpace,
+                          HMetrics metrics) {
+        this(new HBaseStorageEngine(connection), metaModel, tableNameSpace, metrics);
+    }
+
+    public HEntityManager(StorageEngine storage, AnnotationAnalyzer metaModel, String tableNameSpace) {
+        this(storage, metaModel, tableNameSpace, HMetrics.NOOP);
+    }
+
+    /**
+     * @param storage        The storage engine the entities are read from and written to.
+     * @param metaModel      The meta model of the mapped entities.
+     * @param tableNameSpace The prefix that is prepended to every table name.
+     * @param metrics        The metrics that every operation is reported to, {@link HMetrics#NOOP} to disable.
+     */
+    public HEntityManager(StorageEngine storage, AnnotationAnalyzer metaModel, String tableNameSpace,
+                          HMetrics metrics) {
+        this(storage, metaModel, tableNameSpace, metrics, HExecutors.shared());
+    }
+
+    /**
+     * @param storage        The storage engine the entities are read from and written to.
+     * @param metaModel      The meta model of the mapped entities.
+     * @param tableNameSpace The prefix that is prepended to every table name.
+     * @param metrics        The metrics that every operation is reported to, {@link HMetrics#NOOP} to disable.
+     * @param executors      The threads that map entities and call the storage.
+     */
+    public HEntityManager(StorageEngine storage, AnnotationAnalyzer metaModel, String tableNameSpace,
+                          HMetrics metrics, HExecutors executors) {
+        this.storage = checkNotNull(storage, "Invalid storage engine");
         this.metaModel = metaModel;
         this.tableNameSpace = tableNameSpace;
+        this.metrics = checkNotNull(metrics, "Invalid metrics, use HMetrics.NOOP to disable metrics");
+        this.executors = checkNotNull(executors, "Invalid executors, use HExecutors.shared() for the defaults");
     }
 
     /**
@@ -48,71 +135,404 @@ public class HEntityManager {
      */
     public <T> void save(T entity) {
         final EntityClassModel m = metaModel.entityModel(entity.getClass());
-        try (Table table = getTable(m)) {
-            final Put row = entityToPut(entity);
-            table.put(row);
+        final OperationTimer timer = OperationTimer.start(metrics, m.getEntityType(), Operation.SAVE);
+        try (StorageTable table = getTable(m)) {
+            long mark = timer.mark();
+            final Put row = entityToPut(m, entity);
+            timer.mapping(mark);
+
+            putIndexes(m, Collections.singletonList(entity), timer);
+            final PendingKeys keys = keysWritten(m, Collections.singletonList(row));
+            try {
+                mark = timer.mark();
+                table.put(row);
+                timer.rpc(mark);
+            } finally {
+                keys.close();
+            }
+            timer.mutation(row);
+            timer.succeeded();
         } catch (IOException e) {
             throw new HBaseException("Error while saving entity column", e);
+        } finally {
+            timer.finish();
         }
     }
 
     /**
-     * Save a collection of entities to the datastore.
+     * Save a collection of entities to the datastore. The entities are written in batches, every batch is mapped on
+     * the CPU pool and written from the I/O executor with at most the {@link Operation#SAVE_ALL} limit of batches
+     * in flight.
      */
     public <T> void saveAll(Iterable<T> entities, Class<T> clazz) {
         final EntityClassModel m = metaModel.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.SAVE_ALL);
 
-        try (Table table = getTable(m)) {
-            stream(partition(entities, MAX_BATCH_SIZE).spliterator(), true)
-                    .map((batch) -> entityToPut(m, batch))
-                    .forEach(b -> {
+        try (StorageTable table = getTable(m)) {
+            final Iterator<Callable<Void>> batches = Iterators.transform(partition(entities, MAX_BATCH_SIZE).iterator(),
+                    batch -> () -> {
+                        long mark = timer.mark();
+                        final List<Put> puts = executors.compute(() -> entityToPut(m, batch));
+                        timer.mapping(mark);
+                        final PendingKeys keys = keysWritten(m, puts);
                         try {
-                            // put the batch
-                            table.put(b);
-                        } catch (IOException e) {
-                            throw new HBaseException("Error while saving entity column", e);
+                            try {
+                                putIndexes(m, batch, timer);
+                            } catch (IOException e) {
+                                throw new HBaseException("Error while saving entity index", e);
+                            }
+                            try {
+                                // put the batch
+                                mark = timer.mark();
+                                table.put(puts);
+                                timer.rpc(mark);
+                                timer.mutations(puts);
+                            } catch (IOException e) {
+                                throw new HBaseException("Error while saving entity column", e);
+                            }
+                        } finally {
+                            keys.close();
                         }
+                        return null;
                     });
+            executors.fanOut(Operation.SAVE_ALL, batches);
+            timer.succeeded();
         } catch (IOException e) {
             throw new HBaseException("Error while saving entity column", e);
+        } finally {
+            timer.finish();
         }
     }
 
     public <T> T getOne(Class<T> clazz, String key, String ... columns) {
-        final EntityClassModel m = metaModel.entityModel(clazz);
-        try (final Table table = getTable(m)) {
-            final Get get = new Get(Bytes.toBytes(key));
+        return getOne(clazz, key, ReadOptions.latest(), columns);
+    }
+
+    /**
+     * Read a single entity within time and version bounds.
+     *
+     * @param clazz   The mapped entity class.
+     * @param key     The row key of the entity.
+     * @param options The time range and number of versions to read.
+     * @param columns The columns to read, all columns when empty.
+     * @param <T>     The entity type.
+     * @return The entity built from the cells within the bounds.
+     * @throws HBaseException When the row has no cells within the bounds.
+     */
+    public <T> T getOne(Class<T> clazz, String key, ReadOptions options, String ... columns) {
+        return read(clazz, key, options, columns).getEntity();
+    }
+
+    /**
+     * Read a single entity and report how it was answered. With {@link ReadOptions#timeline()} the entity may come
+     * from a region replica and is then flagged stale, with {@link ReadOptions#hedged(double)} a backup request is
+     * sent when the first one is slow and the first answer wins.
+     *
+     * @param clazz   The mapped entity class.
+     * @param key     The row key of the entity.
+     * @param options The bounds, consistency and hedging of the read.
+     * @param columns The columns to read, all columns when empty.
+     * @param <T>     The entity type.
+     * @return The entity and whether it is stale.
+     * @throws HBaseEntityNotFoundException When the row has no cells within the bounds.
+     */
+    public <T> ReadResult<T> read(Class<T> clazz, String key, ReadOptions options, String ... columns) {
+        return read(clazz, key, options, true, columns);
+    }
+
+    /**
+     * Read a single entity that may not exist. A miss is not an error, when a {@link KeyFilter} is enabled for the
+     * entity most misses are answered without a read.
+     *
+     * @param clazz   The mapped entity class.
+     * @param key     The row key of the entity.
+     * @param columns The columns to read, all columns when empty.
+     * @param <T>     The entity type.
+     * @return The entity or empty when the row does not exist.
+     */
+    public <T> Optional<T> findOne(Class<T> clazz, String key, String ... columns) {
+        return findOne(clazz, key, ReadOptions.latest(), columns);
+    }
+
+    /**
+     * @param clazz   The mapped entity class.
+     * @param key     The row key of the entity.
+     * @param options The bounds, consistency and hedging of the read.
+     * @param columns The columns to read, all columns when empty.
+     * @param <T>     The entity type.
+     * @return The entity or empty when the row has no cells within the bounds.
+     * @see #findOne(Class, String, String...)
+     */
+    public <T> Optional<T> findOne(Class<T> clazz, String key, ReadOptions options, String ... columns) {
+        final ReadResult<T> result = read(clazz, key, options, false, columns);
+        return result == null ? Optional.empty() : Optional.of(result.getEntity());
+    }
+
+    /**
+     * @param required Whether a miss throws, otherwise null is returned.
+     */
+    private <T> ReadResult<T> read(Class<T> clazz, String key, ReadOptions options, boolean required,
+                                   String ... columns) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.GET_ONE);
+        final byte[] row = Bytes.toBytes(key);
+        final KeyFilter filter = keyFilters.get(clazz);
+        if (filter != null && !filter.mightContain(row)) {
+            return miss(clazz, key, required, timer);
+        }
+        try {
+            final Get get = options.apply(new Get(row));
+            if (columns.length == 0) {
+                Stream.of(m.getFamilies()).forEach(get::addFamily);
+            }
             Stream.of(columns)
-                    .forEach(c -> get.addColumn(Bytes.toBytes(m.getColumnFamily()), Bytes.toBytes(c)));
+                    .forEach(c -> get.addColumn(m.getFamily(c), Bytes.toBytes(c)));
 
+            final LatencyHistogram latencies = options.isHedged()
+                    ? readLatencies.computeIfAbsent(clazz, c -> new LatencyHistogram()) : null;
+            final long delay = latencies != null ? options.hedgeDelay(latencies) : -1;
+            long mark = timer.mark();
+            final Result[] answer = delay < 0 ? new Result[]{timedGet(m, get, latencies), null}
+                    : hedgedGet(m, get, delay, latencies);
+            timer.rpc(mark);
+            final Result r = answer[0] != null ? answer[0] : answer[1];
+            if (r.isEmpty()) {
+                if (filter != null && options.isLatest() && columns.length == 0) {
+                    filter.falsePositive();
+                }
+                return miss(clazz, key, required, timer);
+            }
+            timer.result(r);
+
+            mark = timer.mark();
+            final T entity = resultToEntity(r, m, options.isVersioned());
+            timer.mapping(mark);
+            timer.succeeded();
+            return new ReadResult<>(entity, r.isStale(), answer[0] == null);
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error retrieving entity for class %s with key %s", clazz, key), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    private static <T> T miss(Class<?> clazz, String key, boolean required, OperationTimer timer) {
+        if (required) {
+            timer.finish();
+            throw new HBaseEntityNotFoundException(String.format("Entity %s with key %s does not exist", clazz, key));
+        }
+        timer.succeeded();
+        timer.finish();
+        return null;
+    }
+
+    /**
+     * Send a get on its own table, the table of a hedged get that lost is closed when it answers.
+     *
+     * @param latencies The histogram the latency is recorded to, null to not time the get.
+     */
+    private Result timedGet(EntityClassModel<?> m, Get get, LatencyHistogram latencies) throws IOException {
+        try (StorageTable table = getTable(m)) {
+            if (latencies == null) {
+                return table.get(get);
+            }
+            final long start = System.nanoTime();
             final Result r = table.get(get);
+            latencies.record(System.nanoTime() - start);
+            return r;
+        }
+    }
+
+    /**
+     * Send a get and a backup of it when the get has not answered within the delay. The get that loses is not
+     * waited for, it closes its own table when it answers.
+     *
+     * @return The result of the first get at index zero or the result of the backup at index one.
+     */
+    private Result[] hedgedGet(EntityClassModel<?> m, Get get, long delayNanos, LatencyHistogram latencies)
+            throws IOException {
+        final CompletableFuture<Result> primary = CompletableFuture.supplyAsync(
+                () -> uncheck(() -> timedGet(m, get, latencies)), executors.io());
+        try {
+            return new Result[]{primary.get(delayNanos, TimeUnit.NANOSECONDS), null};
+        } catch (TimeoutException e) {
+            LOG.debug("Hedging get of {} after {}ns", Bytes.toStringBinary(get.getRow()), delayNanos);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HBaseException("Interrupted while reading entity", e);
+        }
+
+        final CompletableFuture<Result> backup = CompletableFuture.supplyAsync(
+                () -> uncheck(() -> timedGet(m, new Get(get), latencies)), executors.io());
+        final CompletableFuture<Result[]> first = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger();
+        final BiConsumer<Result[], Throwable> answer = (r, t) -> {
+            if (t == null) {
+                first.complete(r);
+            } else if (failures.incrementAndGet() == 2) {
+                first.completeExceptionally(t);
+            }
+        };
+        primary.thenApply(r -> new Result[]{r, null}).whenComplete(answer);
+        backup.thenApply(r -> new Result[]{null, r}).whenComplete(answer);
+        try {
+            return first.get();
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HBaseException("Interrupted while reading entity", e);
+        } finally {
+            primary.cancel(false);
+            backup.cancel(false);
+        }
+    }
+
+    /**
+     * Unwrap the failure of an asynchronous storage call.
+     */
+    private static IOException propagate(Throwable t) {
+        final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Read a single entity with a slice of its dynamic columns, the mapped columns are always read. This keeps wide
+     * rows from being read whole when only some of the dynamic columns are needed.
+     *
+     * @param clazz The mapped entity class.
+     * @param key   The row key of the entity.
+     * @param slice The dynamic columns to read.
+     * @param <T>   The entity type.
+     * @return The entity.
+     * @throws HBaseEntityNotFoundException When the row does not exist.
+     */
+    public <T> T getOne(Class<T> clazz, String key, ColumnSlice slice) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.GET_ONE);
+        final byte[] row = Bytes.toBytes(key);
+        final KeyFilter filter = keyFilters.get(clazz);
+        if (filter != null && !filter.mightContain(row)) {
+            return miss(clazz, key, true, timer);
+        }
+        try (final StorageTable table = getTable(m)) {
+            final Get get = new Get(row);
+            Stream.of(m.getFamilies()).forEach(get::addFamily);
+            get.setFilter(slice.entityFilter(m));
+
+            long mark = timer.mark();
+            final Result r = table.get(get);
+            timer.rpc(mark);
             if (r.isEmpty()) {
-                throw new HBaseException(String.format("Error retrieving entity for class %s with key %s", clazz, key));
+                return miss(clazz, key, true, timer);
             }
+            timer.result(r);
 
-            return resultToEntity(r, m);
+            mark = timer.mark();
+            final T entity = resultToEntity(r, m);
+            timer.mapping(mark);
+            timer.succeeded();
+            return entity;
         } catch (IOException e) {
-            throw new HBaseException(String.format("Error retrieving entity for class %s with key %s", clazz, key));
+            throw new HBaseException(String.format("Error retrieving entity for class %s with key %s", clazz, key), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * Iterate the dynamic columns of a single row page by page. The row is read with a batched scan so at most
+     * {@code batchSize} cells are held per page, a row with millions of columns is never loaded whole. The columns
+     * are returned in qualifier order and the stream must be closed.
+     *
+     * @param clazz     The mapped entity class, it must have an {@link com.ch.htable.annotations.HAnyColumn}.
+     * @param key       The row key of the entity.
+     * @param slice     The dynamic columns to read.
+     * @param batchSize The maximum number of columns per page.
+     * @param <T>       The entity type.
+     * @param <V>       The value type of the dynamic columns.
+     * @return Stream of the dynamic columns.
+     */
+    @SuppressWarnings("unchecked")
+    public <T, V> Stream<AnyColumn<V>> columns(Class<T> clazz, String key, ColumnSlice slice, int batchSize) {
+        checkArgument(batchSize > 0, "Invalid batch size %s", batchSize);
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        checkArgument(m.hasAnyColumn(), "Entity %s has no dynamic columns", clazz);
+        final AnyColumnMeta<V> column = (AnyColumnMeta<V>) m.getAnyColumn();
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
+
+        final byte[] row = Bytes.toBytes(key);
+        final Scan scan = new Scan()
+                .withStartRow(row)
+                .withStopRow(row, true)
+                .addFamily(column.getFamily())
+                .setFilter(slice.columnFilter(m))
+                .setBatch(batchSize)
+                .setAllowPartialResults(true);
+        scan.setScanMetricsEnabled(timer.isEnabled());
+
+        try {
+            final StorageTable table = getTable(m);
+            final ResultScanner scanner = table.getScanner(scan);
+            return stream(spliterator(scanner, timer), false)
+                    .onClose(() -> uncheck(() -> {
+                        timer.scanMetrics(scanner.getScanMetrics());
+                        if (!timer.isFailed()) {
+                            timer.succeeded();
+                        }
+                        timer.finish();
+                        scanner.close();
+                        table.close();
+                    }))
+                    .flatMap(r -> Stream.of(r.rawCells()))
+                    .map(c -> new AnyColumn<>(Bytes.toString(CellUtil.cloneQualifier(c)),
+                            column.decode(CellUtil.cloneValue(c))));
+        } catch (IOException e) {
+            timer.finish();
+            throw new HBaseException(String.format("Error while reading the columns of entity %s with key %s",
+                    clazz, key), e);
         }
     }
 
     public <T> Filter singleColumnFilter(Class<T> clazz, String column, CompareFilter.CompareOp compareOp, byte[] value ) {
         final EntityClassModel m = metaModel.entityModel(clazz);
         final ColumnMeta<?> columnDescriptor = m.getColumnOrThrow(column);
-        return new SingleColumnValueFilter(Bytes.toBytes(m.getColumnFamily()), columnDescriptor.getQualifier(), compareOp, value);
+        return new SingleColumnValueFilter(columnDescriptor.getFamily(), columnDescriptor.getQualifier(), compareOp, value);
     }
 
 
     public <T> T findFirst(Class<T> clazz, String key) {
         final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
         final Scan scan = createScan(clazz, key, Optional.empty());
         scan.setMaxResultSize(1);
+        scan.setScanMetricsEnabled(timer.isEnabled());
 
-        try (final Table table = getTable(m)) {
-            final ResultScanner scanner = table.getScanner(scan);
-            return resultToEntity(scanner.next(), m);
+        try (final StorageTable table = getTable(m);
+             final ResultScanner scanner = table.getScanner(scan)) {
+            long mark = timer.mark();
+            final Result r = scanner.next();
+            timer.rpc(mark);
+            timer.result(r);
+
+            mark = timer.mark();
+            final T entity = resultToEntity(r, m);
+            timer.mapping(mark);
+            timer.scanMetrics(scanner.getScanMetrics());
+            timer.succeeded();
+            return entity;
         } catch (IOException e) {
             throw new HBaseException("Error while attempting to find first result", e);
+        } finally {
+            timer.finish();
         }
     }
 
@@ -123,6 +543,9 @@ public class HEntityManager {
     /**
      * Important you must close the stream coming back from this method. This will result in closing the table
      * along with the ResultScanner. If not this will cause a memory leak.
+     * <p>
+     * The stream is sequential, the scanner blocks on the region servers and must not run on the common pool. Use
+     * {@link #publish(Class, String, Optional, ReadOptions, int, Executor, String...)} to map results in parallel.
      *
      * @param clazz The class type that will be scanned.
      * @param prefix The filter that will be used for find.
@@ -132,44 +555,271 @@ public class HEntityManager {
      * @return Stream of entities found matching the find.
      */
     public <T> Stream<T> find(Class<T> clazz, String prefix, Optional<Filter> filter, String ... columns) {
+        return find(clazz, prefix, filter, ReadOptions.latest(), columns);
+    }
+
+    /**
+     * Find entities within time and version bounds. A time range lets hbase skip every store file that holds no
+     * cells in the range, which makes queries for recent changes cheap. The stream must be closed.
+     *
+     * @param clazz   The class type that will be scanned.
+     * @param prefix  The row key prefix.
+     * @param filter  The optional filter that can be applied to the results.
+     * @param options The time range and number of versions to read.
+     * @param columns List of columns to fetch.
+     * @param <T>     The type of entity that will be returned.
+     * @return Stream of entities with cells within the bounds.
+     * @see #find(Class, String, Optional, String...)
+     */
+    public <T> Stream<T> find(Class<T> clazz, String prefix, Optional<Filter> filter, ReadOptions options,
+                              String ... columns) {
         final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
 
         try {
-            final Table table = getTable(m);
-            final Scan scan = createScan(clazz, prefix, filter, columns);
+            final StorageTable table = getTable(m);
+            final Scan scan = options.apply(createScan(clazz, prefix, filter, columns));
+            scan.setScanMetricsEnabled(timer.isEnabled());
 
             final ResultScanner scanner = table.getScanner(scan);
-            return stream(scanner.spliterator(), true)
+            return stream(spliterator(scanner, timer), false)
                     .onClose(() -> uncheck(() -> {
+                        timer.scanMetrics(scanner.getScanMetrics());
+                        if (!timer.isFailed()) {
+                            timer.succeeded();
+                        }
+                        timer.finish();
                         scanner.close();
                         table.close();
-                    })).map(r -> resultToEntity(r, m));
+                    })).map(r -> {
+                        final long mark = timer.mark();
+                        final T entity = resultToEntity(r, m, options.isVersioned());
+                        timer.mapping(mark);
+                        return entity;
+                    });
 
         } catch (IOException e) {
+            timer.finish();
             throw new HBaseException(String.format("Error while finding column data for column(s) %s on" +
                     " column family %s and row key prefix %s", columns, m.getColumnFamily(), prefix), e);
         }
     }
 
 
+    /**
+     * Publish the entities with a key prefix to a reactive subscriber. Unlike {@link #find(Class, String, String...)}
+     * nothing has to be closed, results are only pulled from the region servers as the subscriber requests them and
+     * the scanner and table are released when the scan completes, fails or is cancelled. Every subscriber runs its
+     * own scan.
+     *
+     * @param clazz   The class type that will be scanned.
+     * @param prefix  The row key prefix.
+     * @param columns List of columns to fetch.
+     * @param <T>     The type of entity that will be published.
+     * @return The publisher of the entities.
+     */
+    public <T> Flow.Publisher<T> publish(Class<T> clazz, String prefix, String ... columns) {
+        return publish(clazz, prefix, Optional.empty(), ReadOptions.latest(), 1, executors.io(), columns);
+    }
+
+    /**
+     * Publish the entities with a key prefix to a reactive subscriber, mapping up to {@code parallelism} results
+     * concurrently. Entities are published in row key order whatever the parallelism.
+     *
+     * @param clazz       The class type that will be scanned.
+     * @param prefix      The row key prefix.
+     * @param filter      The optional filter that can be applied to the results.
+     * @param options     The time range and number of versions to read.
+     * @param parallelism The maximum number of results that are mapped at once.
+     * @param executor    Runs the scanner and the mapping of the results.
+     * @param columns     List of columns to fetch.
+     * @param <T>         The type of entity that will be published.
+     * @return The publisher of the entities.
+     */
+    public <T> Flow.Publisher<T> publish(Class<T> clazz, String prefix, Optional<Filter> filter, ReadOptions options,
+                                         int parallelism, Executor executor, String ... columns) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        return new ScanPublisher<>(m, () -> getTable(m),
+                () -> uncheck(() -> options.apply(createScan(clazz, prefix, filter, columns))),
+                r -> resultToEntity(r, m, options.isVersioned()), metrics, executor, parallelism);
+    }
+
+    /**
+     * Visit every entity with a key prefix using a single entity instance. The instance is reset and filled again
+     * for every row, so the action must not keep a reference to it after it returns. Scans over many rows that
+     * consume every entity right away allocate no entity per row this way. The scan skips the block cache.
+     *
+     * @param clazz   The class type that will be scanned.
+     * @param prefix  The row key prefix.
+     * @param filter  The optional filter that can be applied to the results.
+     * @param action  Consumes the reused entity of every row.
+     * @param columns List of columns to fetch.
+     * @param <T>     The entity type.
+     * @return The number of rows visited.
+     */
+    public <T> long forEach(Class<T> clazz, String prefix, Optional<Filter> filter, Consumer<? super T> action,
+                            String ... columns) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
+        final Scan scan = flyweightScan(clazz, prefix, filter, timer, columns);
+        try (StorageTable table = getTable(m)) {
+            final long rows = forEach(m, table, scan, m.newInstance(), action, timer);
+            timer.succeeded();
+            return rows;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while visiting entities of %s with row key prefix %s",
+                    clazz, prefix), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * Visit every entity with a key prefix in parallel, one worker per region. Every worker takes one instance from
+     * the supplier and reuses it for all rows of its region, the supplier must therefore return a distinct instance
+     * per call and the action must be thread safe. The action must not keep a reference to an instance.
+     *
+     * @param clazz     The class type that will be scanned.
+     * @param prefix    The row key prefix.
+     * @param filter    The optional filter that can be applied to the results.
+     * @param instances Supplies the instance of every region worker.
+     * @param action    Consumes the reused entity of every row.
+     * @param columns   List of columns to fetch.
+     * @param <T>       The entity type.
+     * @return The number of rows visited.
+     */
+    public <T> long forEach(Class<T> clazz, String prefix, Optional<Filter> filter, Supplier<? extends T> instances,
+                            Consumer<? super T> action, String ... columns) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
+        final Scan scan = flyweightScan(clazz, prefix, filter, timer, columns);
+        try (StorageTable table = getTable(m)) {
+            final Iterator<Callable<Long>> tasks = Iterators.transform(
+                    RegionSplits.split(scan, table.getStartKeys()).iterator(),
+                    region -> () -> forEach(m, table, region, instances.get(), action, timer));
+            final long rows = executors.fanOut(Operation.FIND, tasks).stream().mapToLong(Long::longValue).sum();
+            timer.succeeded();
+            return rows;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while visiting entities of %s with row key prefix %s",
+                    clazz, prefix), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * Scan a few columns of many rows into columnar batches instead of entities. Values are decoded straight from
+     * the cells into primitive vectors, long and int columns into {@code long[]} and {@code int[]}, double and
+     * float columns into {@code double[]} and string columns into dictionary encoded vectors, and rows without a
+     * value are marked in the null bitmap of the vector. The same batch is filled again after the consumer returns.
+     * The scan skips the block cache.
+     *
+     * @param clazz     The mapped entity class.
+     * @param prefix    The row key prefix.
+     * @param filter    The optional filter that can be applied to the results.
+     * @param batchSize The number of rows per batch.
+     * @param consumer  Consumes every batch, the last one may be smaller.
+     * @param columns   The columns to project, at least one.
+     * @param <T>       The entity type.
+     * @return The number of rows scanned.
+     */
+    public <T> long scanColumns(Class<T> clazz, String prefix, Optional<Filter> filter, int batchSize,
+                                Consumer<ColumnBatch> consumer, String ... columns) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final ColumnBatch batch = new ColumnBatch(Stream.of(columns).map(m::getColumnOrThrow)
+                .toArray(ColumnMeta<?>[]::new), batchSize);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
+        final Scan scan = flyweightScan(clazz, prefix, filter, timer, columns);
+        scan.setCaching(batchSize);
+        long rows = 0;
+        try (StorageTable table = getTable(m);
+             ResultScanner scanner = table.getScanner(scan)) {
+            for (Result r = next(scanner, timer); r != null; r = next(scanner, timer)) {
+                final long mark = timer.mark();
+                batch.add(r);
+                timer.mapping(mark);
+                rows++;
+                if (batch.isFull()) {
+                    consumer.accept(batch);
+                    batch.reset();
+                }
+            }
+            if (batch.size() > 0) {
+                consumer.accept(batch);
+                batch.reset();
+            }
+            timer.scanMetrics(scanner.getScanMetrics());
+            timer.succeeded();
+            return rows;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while scanning columns %s of %s with row key prefix %s",
+                    Arrays.toString(columns), clazz, prefix), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    private <T> Scan flyweightScan(Class<T> clazz, String prefix, Optional<Filter> filter, OperationTimer timer,
+                                   String ... columns) {
+        final Scan scan = createScan(clazz, prefix, filter, columns);
+        scan.setCacheBlocks(false);
+        scan.setScanMetricsEnabled(timer.isEnabled());
+        return scan;
+    }
+
+    private static <T> long forEach(EntityClassModel<T> m, StorageTable table, Scan scan, T instance,
+                                    Consumer<? super T> action, OperationTimer timer) throws IOException {
+        checkNotNull(instance, "Invalid entity instance for %s", m.getEntityType());
+        long rows = 0;
+        try (ResultScanner scanner = table.getScanner(scan)) {
+            for (Result r = next(scanner, timer); r != null; r = next(scanner, timer)) {
+                final long mark = timer.mark();
+                m.clear(instance);
+                resultToEntity(r, m, instance);
+                timer.mapping(mark);
+                action.accept(instance);
+                rows++;
+            }
+            timer.scanMetrics(scanner.getScanMetrics());
+        }
+        return rows;
+    }
+
+    private static Result next(ResultScanner scanner, OperationTimer timer) throws IOException {
+        final long mark = timer.mark();
+        final Result r = scanner.next();
+        timer.rpc(mark);
+        timer.result(r);
+        return r;
+    }
+
     public <T> Stream<String> findRowKeys(Class<T> clazz, String prefix) {
         final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
         try {
 
-            final Table table = getTable(m);
+            final StorageTable table = getTable(m);
             final FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL,
                     new FirstKeyOnlyFilter(),
                     new KeyOnlyFilter());
             final Scan scan = createScan(clazz, prefix, Optional.of(filters));
+            scan.setScanMetricsEnabled(timer.isEnabled());
 
             final ResultScanner scanner = table.getScanner(scan);
-            return stream(scanner.spliterator(), true)
+            return stream(spliterator(scanner, timer), false)
                     .onClose(() -> uncheck(() -> {
+                        timer.scanMetrics(scanner.getScanMetrics());
+                        if (!timer.isFailed()) {
+                            timer.succeeded();
+                        }
+                        timer.finish();
                         scanner.close();
                         table.close();
                     })).map(r -> Bytes.toString(r.getRow()));
 
         } catch (IOException e) {
+            timer.finish();
             throw new HBaseException(String.format("Error while finding column data for " +
                     " column family %s and row key prefix %s", m.getColumnFamily(), prefix), e);
         }
@@ -177,7 +827,8 @@ public class HEntityManager {
 
 
     /**
-     * Create a scan that can be used to query the datastore.
+     * Create a scan that can be used to query the datastore. Only the families of the requested columns are read
+     * so columns kept in other families do not cost any io.
      *
      * @param clazz The type of entity that will be scanned.
      * @param prefix The prefix for the scan.
@@ -190,7 +841,9 @@ public class HEntityManager {
         final EntityClassModel<T> m = metaModel.entityModel(clazz);
         final Scan scan = new Scan();
 
-        scan.addFamily(Bytes.toBytes(m.getColumnFamily()));
+        if (columns.length == 0) {
+            Stream.of(m.getFamilies()).forEach(scan::addFamily);
+        }
         scan.setRowPrefixFilter(Bytes.toBytes(prefix));
 //        scan.setMaxResultSize(1);
 
@@ -199,7 +852,7 @@ public class HEntityManager {
 
         // If we have columns then we can add them.
         for (String col : columns) {
-            scan.addColumn(Bytes.toBytes(m.getColumnFamily()), Bytes.toBytes(col));
+            scan.addColumn(m.getFamily(col), Bytes.toBytes(col));
         }
         return scan;
     }
@@ -218,16 +871,15 @@ public class HEntityManager {
 
     /**
      * This will construct a list of puts based on a collection of entities. It will convert the entity to a put
-     * using the column information from the entity.
+     * using the column information from the entity. The entities share the scratch buffer of the write plan.
      *.
      * @param entities The Collection of entities that will be converted to puts.
      * @param <T>      The type of the entity that is being passed in.
      * @return List of put instances that are ready to be published to hbase.
      */
+    @SuppressWarnings("unchecked")
     protected static <T> List<Put> entityToPut(EntityClassModel m, Collection<T> entities) {
-        return entities.stream().parallel()
-                .map(e -> entityToPut(m, e))
-                .collect(Collectors.toList());
+        return m.writePlan().toPuts(entities);
     }
 
     /**
@@ -244,8 +896,8 @@ public class HEntityManager {
 
     /**
      * Implementation of entity to put that will convert the entity to a put that can be saved into
-     * hbase. This will iterate through all the columns and set the values and qualifiers on the put using
-     * the entity.
+     * hbase. The columns, families and qualifiers are resolved once per entity type by its {@link WritePlan}, this
+     * only reads the values of the entity.
      * <p>
      * This method will validate that the entity type and entity class match before proceeding.
      *
@@ -254,27 +906,43 @@ public class HEntityManager {
      * @param <T>    The type of the entity.
      * @return Put that was created from the entity
      */
+    @SuppressWarnings("unchecked")
     protected static <T> Put entityToPut(EntityClassModel m, T entity) {
-        checkArgument(m.getEntityType().isAssignableFrom(entity.getClass()),
-                "Entity %s is not assignable to class entity type %s", m.getEntityType(), entity.getClass());
-        final ColumnModel cm = m.getColumnModel();
-        checkState(cm.size() > 0, "Invalid number of columns for entity %s", entity);
-        final Put put = new Put(m.getIdValue(entity));
-
-        cm.getNamedColumns().forEach(c -> {
-            if (c.getQualifier() == null || c.getQualifier().length == 0) {
-                throw new IllegalStateException(String.format("Entity does not have a valid column identifier for type %s", m.getEntityType()));
+        return m.writePlan().toPut(entity, new byte[WritePlan.SCRATCH_SIZE]);
+    }
+
+    /**
+     * Add every entry of the dynamic column map of an entity to a put. Entries with a null value are skipped and a
+     * key may not be the name of a mapped column.
+     */
+    static <V> void anyColumnsToPut(EntityClassModel<?> m, AnyColumnMeta<V> column, Object entity, Put put) {
+        if (!column.isWritable()) {
+            return;
+        }
+        final Map<String, V> values = column.getValues(entity);
+        if (values == null) {
+            return;
+        }
+        values.forEach((name, value) -> {
+            if (m.hasColumn(name) || m.getVersions(name) != null) {
+                throw new IllegalStateException(String.format("Dynamic column %s of entity %s collides with a mapped column",
+                        name, m.getEntityType()));
+            }
+            if (value != null) {
+                put.addColumn(column.getFamily(), Bytes.toBytes(name), column.encode(value));
             }
-            put.addColumn(Bytes.toBytes(m.getColumnFamily()),
-                    c.getQualifier(), c.getBytes(entity));
         });
-
-        return put;
     }
 
+    /**
+     * Delete an entity and its index entries.
+     *
+     * @param entity The entity to delete.
+     * @param <T>    The entity type.
+     */
     public <T> void delete(T entity) {
-        final EntityClassModel m = metaModel.entityModel(entity.getClass());
-        delete(m.getEntityType(), Stream.of(m.getIdValue(entity)));
+        final EntityClassModel<?> m = metaModel.entityModel(entity.getClass());
+        delete(m, Stream.of(entity), m::getIdValue, true);
     }
 
     public <T> void delete(Class<T> clazz, String id) {
@@ -283,22 +951,25 @@ public class HEntityManager {
     }
 
 
+    /**
+     * Delete every entity of a stream. The stream is consumed incrementally and deleted in batches so the whole
+     * stream is never held in memory, the next batch is only pulled from the stream once the previous one has
+     * been written. The index entries of the entities are removed with every batch.
+     *
+     * @param clazz        The mapped entity class.
+     * @param entityStream The entities to delete.
+     * @param <T>          The entity type.
+     */
     public <T> void deleteAll(Class<T> clazz, Stream<T> entityStream) {
-        final EntityClassModel m = metaModel.entityModel(clazz);
-        try (Table table = getTable(m)) {
-            final List<Delete> deletes = entityStream.map(m::getIdValue)
-                    .map(Delete::new).collect(Collectors.toList());
-
-            table.delete(deletes);
-        } catch (IOException e) {
-            throw new HBaseException("Error while deleting row entity", e);
-        }
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        delete(m, entityStream, m::getIdValue, true);
     }
 
 
     /**
      * Delete a stream of keys from the data store. This assumes that the keys have already been converted
-     * to bytes.
+     * to bytes. The keys are consumed incrementally and deleted in batches. Index entries of the rows are not
+     * known here, they are left behind and removed by {@link #findBy(Class, ColumnRef, Object)} when it finds them.
      * Note: this should probably not be exposed and will likely be converted to protected.
      *
      * @param clazz The required entity type for the keys that will be deleted.
@@ -306,13 +977,479 @@ public class HEntityManager {
      */
     @Beta
     public void delete(Class<?> clazz, Stream<byte[]> keys) {
-        final EntityClassModel m = metaModel.entityModel(clazz);
-        try (Table table = getTable(m)) {
-            final List<Delete> deletes = keys.map(Delete::new).collect(Collectors.toList());
-            table.delete(deletes);
+        delete(metaModel.entityModel(clazz), keys, k -> k, false);
+    }
+
+    /**
+     * Delete the rows of a stream of keys or entities in batches.
+     *
+     * @param m        The entity model of the rows.
+     * @param items    The keys or entities to delete.
+     * @param key      Maps an item to its row key.
+     * @param entities True when the items are entities, their index entries are removed after the rows.
+     * @param <E>      The item type.
+     */
+    private <E> void delete(EntityClassModel<?> m, Stream<E> items, Function<? super E, byte[]> key, boolean entities) {
+        final OperationTimer timer = OperationTimer.start(metrics, m.getEntityType(), Operation.DELETE);
+        try (StorageTable table = getTable(m)) {
+            final Iterator<List<E>> batches = Iterators.partition(items.iterator(), MAX_BATCH_SIZE);
+            while (batches.hasNext()) {
+                final List<E> batch = batches.next();
+                final List<Delete> deletes = batch.stream()
+                        .map(e -> new Delete(key.apply(e))).collect(Collectors.toList());
+                final long mark = timer.mark();
+                table.delete(deletes);
+                timer.rpc(mark);
+                timer.rows(deletes.size());
+                keysDeleted(m, deletes.size());
+                if (entities) {
+                    deleteIndexes(m, batch, timer);
+                }
+            }
+            timer.succeeded();
         } catch (IOException e) {
             throw new HBaseException("Error while deleting row entity", e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    public <T> PurgeReport deleteByPrefix(Class<T> clazz, String prefix) {
+        return deleteByPrefix(clazz, prefix, PurgeReport.Listener.NONE);
+    }
+
+    /**
+     * Delete every row with a key prefix. The rows are found with a key only scan that is split per region, every
+     * region is purged on its own worker in batches. A failing batch does not stop the purge, failures are
+     * collected in the returned report.
+     *
+     * @param clazz    The mapped entity class.
+     * @param prefix   The row key prefix to purge.
+     * @param listener Progress callback invoked after every batch.
+     * @param <T>      The entity type.
+     * @return The report of deleted and failed rows.
+     */
+    public <T> PurgeReport deleteByPrefix(Class<T> clazz, String prefix, PurgeReport.Listener listener) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final Scan scan = keyOnlyScan(m);
+        scan.setRowPrefixFilter(Bytes.toBytes(prefix));
+        return purge(m, scan, listener);
+    }
+
+    public <T> PurgeReport deleteRange(Class<T> clazz, String startKey, String stopKey) {
+        return deleteRange(clazz, startKey, stopKey, PurgeReport.Listener.NONE);
+    }
+
+    /**
+     * Delete every row from the start key (inclusive) up to the stop key (exclusive).
+     *
+     * @param clazz    The mapped entity class.
+     * @param startKey The first row key to purge.
+     * @param stopKey  The row key where the purge stops, this row is not deleted.
+     * @param listener Progress callback invoked after every batch.
+     * @param <T>      The entity type.
+     * @return The report of deleted and failed rows.
+     * @see #deleteByPrefix(Class, String, PurgeReport.Listener)
+     */
+    public <T> PurgeReport deleteRange(Class<T> clazz, String startKey, String stopKey, PurgeReport.Listener listener) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final Scan scan = keyOnlyScan(m)
+                .withStartRow(Bytes.toBytes(startKey))
+                .withStopRow(Bytes.toBytes(stopKey));
+        return purge(m, scan, listener);
+    }
+
+    private static Scan keyOnlyScan(EntityClassModel<?> m) {
+        final Scan scan = new Scan();
+        Stream.of(m.getFamilies()).forEach(scan::addFamily);
+        scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+        scan.setCaching(MAX_BATCH_SIZE);
+        scan.setCacheBlocks(false);
+        return scan;
+    }
+
+    private PurgeReport purge(EntityClassModel<?> m, Scan scan, PurgeReport.Listener listener) {
+        final OperationTimer timer = OperationTimer.start(metrics, m.getEntityType(), Operation.DELETE);
+        final PurgeReport report = new PurgeReport(listener);
+        try (StorageTable table = getTable(m)) {
+            final List<Scan> regions = RegionSplits.split(scan, table.getStartKeys());
+            final Iterator<Callable<Void>> tasks = Iterators.transform(regions.iterator(), region -> () -> {
+                try (ResultScanner scanner = table.getScanner(region)) {
+                    final Iterator<Delete> deletes = Iterators.transform(scanner.iterator(), r -> new Delete(r.getRow()));
+                    Iterators.partition(deletes, MAX_BATCH_SIZE).forEachRemaining(batch -> {
+                        final long mark = timer.mark();
+                        delete(table, batch, report);
+                        timer.rpc(mark);
+                        report.progress();
+                    });
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("Purge of region starting at {} failed", Bytes.toStringBinary(region.getStartRow()), e);
+                    report.failed(null, e);
+                    report.progress();
+                }
+                return null;
+            });
+            executors.fanOut(Operation.DELETE, tasks);
+            timer.rows(report.getDeleted());
+            keysDeleted(m, report.getDeleted());
+            timer.succeeded();
+            return report;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while purging entity %s", m.getEntityType()), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * Delete a single batch of a purge and record the outcome of every row in the report.
+     */
+    private static void delete(StorageTable table, List<Delete> batch, PurgeReport report) {
+        try {
+            table.delete(new ArrayList<>(batch));
+            report.deleted(batch.size());
+        } catch (RetriesExhaustedWithDetailsException e) {
+            report.deleted(batch.size() - e.getNumExceptions());
+            for (int i = 0; i < e.getNumExceptions(); i++) {
+                report.failed(e.getRow(i).getRow(), e.getCause(i));
+            }
+        } catch (IOException e) {
+            batch.forEach(d -> report.failed(d.getRow(), e));
+        }
+    }
+
+    /**
+     * Atomically add to a counter column. Use an {@link IncrementBuffer} when the same counters are changed often
+     * and the new value is not needed.
+     *
+     * @param clazz   The mapped entity class.
+     * @param id      The row key of the entity.
+     * @param counter Getter reference of a column annotated with {@link com.ch.htable.annotations.HCounter}.
+     * @param delta   The amount to add, negative to subtract.
+     * @param <T>     The entity type.
+     * @return The new value of the counter.
+     */
+    public <T> long increment(Class<T> clazz, String id, ColumnRef<T, Long> counter, long delta) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final ColumnMeta<Long> column = counterColumn(m, counter);
+        final byte[] family = column.getFamily();
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.INCREMENT);
+        try (StorageTable table = getTable(m)) {
+            final Increment increment = new Increment(Bytes.toBytes(id)).addColumn(family, column.getQualifier(), delta);
+            final long mark = timer.mark();
+            final Result result;
+            final PendingKeys keys = keysWritten(m, Collections.singletonList(increment));
+            try {
+                result = table.increment(increment);
+            } finally {
+                keys.close();
+            }
+            timer.rpc(mark);
+            timer.mutation(increment);
+            timer.succeeded();
+            return Bytes.toLong(result.getValue(family, column.getQualifier()));
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while incrementing %s of entity %s", column.getName(), clazz), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * Create a buffer that coalesces increments of the same counters. Buffered increments are written when the
+     * buffer holds the given number of distinct counters, when the window elapses and when the buffer is closed.
+     *
+     * @param clazz      The mapped entity class.
+     * @param maxPending The number of distinct row and counter pairs that triggers a flush.
+     * @param window     The longest time an increment stays in the buffer.
+     * @param <T>        The entity type.
+     * @return The buffer, it must be closed to write the last increments.
+     */
+    public <T> IncrementBuffer<T> incrementBuffer(Class<T> clazz, int maxPending, Duration window) {
+        return new IncrementBuffer<>(this, metaModel.entityModel(clazz), maxPending, window);
+    }
+
+    /**
+     * Create a coalescer for concurrent point reads of an entity type. Reads of the same key share one read and
+     * the keys requested within the window are read with a single multi get.
+     *
+     * @param clazz    The mapped entity class.
+     * @param maxBatch The number of keys that sends a batch before its window elapses.
+     * @param window   How long the first key of a batch waits for more keys.
+     * @param <T>      The entity type.
+     * @return The coalescer, it must be closed.
+     */
+    public <T> ReadCoalescer<T> readCoalescer(Class<T> clazz, int maxBatch, Duration window) {
+        return new ReadCoalescer<>(this, metaModel.entityModel(clazz), maxBatch, window);
+    }
+
+    /**
+     * Start a unit of work that collects saves, deletes and increments of any entity type and writes them grouped
+     * per table on commit.
+     *
+     * @return An empty unit of work.
+     */
+    public UnitOfWork unitOfWork() {
+        return new UnitOfWork(this);
+    }
+
+    static <T> ColumnMeta<Long> counterColumn(EntityClassModel<T> m, ColumnRef<T, Long> counter) {
+        final ColumnMeta<Long> column = m.getColumn(counter);
+        if (!column.isCounter()) {
+            throw new HBaseException(String.format("Column %s of entity %s is not a counter", column.getName(), m.getEntityType()));
+        }
+        return column;
+    }
+
+    /**
+     * Find the entities with a value in an indexed column. The index is scanned for the value and the matching rows
+     * are read with batched multi gets, the cost grows with the number of matches instead of the size of the table.
+     * <p>
+     * Index entries are written before the rows they point to and are not removed when a row is deleted by key or
+     * its value changes, so every row is verified against the value. Entries that point to a missing row or to a
+     * row with another value are removed from the index.
+     *
+     * @param clazz  The mapped entity class.
+     * @param column Getter reference of a column annotated with {@link com.ch.htable.annotations.HIndex}.
+     * @param value  The value to look up.
+     * @param <T>    The entity type.
+     * @param <R>    The value type of the column.
+     * @return The entities with the value in index order.
+     */
+    public <T, R> List<T> findBy(Class<T> clazz, ColumnRef<T, R> column, R value) {
+        checkNotNull(value, "Null values are not indexed, column %s of entity %s", column, clazz);
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final IndexMeta<R> index = m.getIndex(column);
+        final byte[] family = index.getColumn().getFamily();
+        final byte[] qualifier = index.getColumn().getQualifier();
+        final byte[] encoded = index.encode(value);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
+
+        try (StorageTable indexTable = getTable(index.getTableName()); StorageTable table = getTable(m)) {
+            final Scan scan = new Scan().setRowPrefixFilter(index.prefix(encoded));
+            scan.setFilter(new KeyOnlyFilter());
+            scan.setCaching(MAX_BATCH_SIZE);
+
+            final List<Cell> entries = new ArrayList<>();
+            long mark = timer.mark();
+            try (ResultScanner scanner = indexTable.getScanner(scan)) {
+                for (Result r : scanner) {
+                    entries.add(r.rawCells()[0]);
+                }
+            }
+            timer.rpc(mark);
+
+            final List<T> entities = new ArrayList<>(entries.size());
+            final List<Delete> stale = new ArrayList<>();
+            for (List<Cell> batch : partition(entries, MAX_BATCH_SIZE)) {
+                final List<Get> gets = batch.stream()
+                        .map(e -> {
+                            final Get get = new Get(index.rowKey(CellUtil.cloneRow(e)));
+                            Stream.of(m.getFamilies()).forEach(get::addFamily);
+                            return get;
+                        })
+                        .collect(Collectors.toList());
+                mark = timer.mark();
+                final Result[] results = table.get(gets);
+                timer.rpc(mark);
+
+                for (int i = 0; i < results.length; i++) {
+                    final Cell entry = batch.get(i);
+                    final Cell cell = results[i].getColumnLatestCell(family, qualifier);
+                    if (cell != null && CellUtil.matchingValue(cell, encoded)) {
+                        timer.result(results[i]);
+                        mark = timer.mark();
+                        entities.add(resultToEntity(results[i], m));
+                        timer.mapping(mark);
+                    } else if (isStale(entry, cell)) {
+                        stale.add(new Delete(CellUtil.cloneRow(entry)));
+                    }
+                }
+            }
+
+            if (!stale.isEmpty()) {
+                LOG.debug("Removing {} stale entries from index {}", stale.size(), index.getTableName());
+                indexTable.delete(stale);
+            }
+            timer.rows(entities.size());
+            timer.succeeded();
+            return entities;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while finding entity %s by index %s",
+                    clazz, index.getTableName()), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * An index entry that does not match its row is only stale once the row was written after the entry, or for a
+     * missing row once the entry is older than {@link #INDEX_GRACE_MILLIS}. A younger entry may belong to a save
+     * that has written the index but not the row yet.
+     *
+     * @param entry The index cell.
+     * @param cell  The indexed column of the row, null when the row or column is missing.
+     * @return True when the entry can be removed.
+     */
+    private static boolean isStale(Cell entry, Cell cell) {
+        return cell != null
+                ? cell.getTimestamp() >= entry.getTimestamp()
+                : System.currentTimeMillis() - entry.getTimestamp() > INDEX_GRACE_MILLIS;
+    }
+
+    /**
+     * Write the index entries of a batch of entities. Entities without a value for an indexed column are not indexed.
+     */
+    void putIndexes(EntityClassModel<?> m, Collection<?> entities, OperationTimer timer) throws IOException {
+        final byte[] family = Bytes.toBytes(m.getColumnFamily());
+        for (IndexMeta<?> index : m.getIndexes()) {
+            final List<Put> puts = new ArrayList<>(entities.size());
+            for (Object entity : entities) {
+                final byte[] value = index.encodeEntity(entity);
+                if (value != null) {
+                    puts.add(new Put(index.indexKey(value, m.getIdValue(entity)))
+                            .addColumn(family, HConstants.EMPTY_BYTE_ARRAY, HConstants.EMPTY_BYTE_ARRAY));
+                }
+            }
+            try (StorageTable table = getTable(index.getTableName())) {
+                final long mark = timer.mark();
+                table.put(puts);
+                timer.rpc(mark);
+                timer.mutations(puts);
+            }
+        }
+    }
+
+    private void deleteIndexes(EntityClassModel<?> m, Collection<?> entities, OperationTimer timer) throws IOException {
+        for (IndexMeta<?> index : m.getIndexes()) {
+            final List<Delete> deletes = new ArrayList<>(entities.size());
+            for (Object entity : entities) {
+                final byte[] value = index.encodeEntity(entity);
+                if (value != null) {
+                    deletes.add(new Delete(index.indexKey(value, m.getIdValue(entity))));
+                }
+            }
+            try (StorageTable table = getTable(index.getTableName())) {
+                final long mark = timer.mark();
+                table.delete(deletes);
+                timer.rpc(mark);
+            }
+        }
+    }
+
+    /**
+     * @param clazz The mapped entity class.
+     * @param <T>   The entity type.
+     * @return The meta model of the entity class.
+     */
+    <T> EntityClassModel<T> entityModel(Class<T> clazz) {
+        return metaModel.entityModel(clazz);
+    }
+
+    /**
+     * Enable a {@link KeyFilter} for an entity type so reads of missing keys are answered without a call to the
+     * region servers. The filter is filled with a key only scan of the table, split per region, and replaces the
+     * current filter once it is complete. Enabling the filter again rebuilds it, which clears the keys of deleted
+     * rows. Only enable the filter when every writer of the table uses this manager.
+     *
+     * @param clazz        The mapped entity class.
+     * @param expectedKeys The number of rows the filter is sized for, more rows raise the false positive rate.
+     * @param fpp          The desired false positive probability, for example 0.01.
+     * @param <T>          The entity type.
+     * @return The filter, its statistics show how well it works.
+     */
+    public <T> KeyFilter enableKeyFilter(Class<T> clazz, long expectedKeys, double fpp) {
+        final EntityClassModel<T> m = metaModel.entityModel(clazz);
+        final KeyFilter filter = new KeyFilter(expectedKeys, fpp);
+        final OperationTimer timer = OperationTimer.start(metrics, clazz, Operation.FIND);
+        buildingKeyFilters.put(clazz, filter);
+        // wait for the writes that registered their keys before the filter was visible to them
+        keyWrites.writeLock().lock();
+        keyWrites.writeLock().unlock();
+        try (StorageTable table = getTable(m)) {
+            final Iterator<Callable<Long>> tasks = Iterators.transform(
+                    RegionSplits.split(keyOnlyScan(m), table.getStartKeys()).iterator(), region -> () -> {
+                        long keys = 0;
+                        try (ResultScanner scanner = table.getScanner(region)) {
+                            for (Result r = next(scanner, timer); r != null; r = next(scanner, timer)) {
+                                filter.add(r.getRow());
+                                keys++;
+                            }
+                        }
+                        return keys;
+                    });
+            final long keys = executors.fanOut(Operation.FIND, tasks).stream().mapToLong(Long::longValue).sum();
+            keyFilters.put(clazz, filter);
+            LOG.info("Enabled key filter of {} with {} keys", clazz, keys);
+            timer.succeeded();
+            return filter;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while building the key filter of %s", clazz), e);
+        } finally {
+            buildingKeyFilters.remove(clazz, filter);
+            timer.finish();
+        }
+    }
+
+    /**
+     * @param clazz The mapped entity class.
+     * @return The key filter of the entity type or empty when none is enabled.
+     */
+    public Optional<KeyFilter> getKeyFilter(Class<?> clazz) {
+        return Optional.ofNullable(keyFilters.get(clazz));
+    }
+
+    public void disableKeyFilter(Class<?> clazz) {
+        keyFilters.remove(clazz);
+    }
+
+    /**
+     * Add the rows of mutations to the key filters of the entity, called before the mutations are sent so a reader
+     * never misses a row that is being written. The returned keys must be closed once the mutations completed or
+     * failed, until then a key filter that starts building waits for them so its scan sees their rows.
+     */
+    PendingKeys keysWritten(EntityClassModel<?> m, Collection<? extends Mutation> mutations) {
+        final Lock lock = keyWrites.readLock();
+        lock.lock();
+        final KeyFilter filter = keyFilters.get(m.getEntityType());
+        final KeyFilter building = buildingKeyFilters.get(m.getEntityType());
+        if (filter == null && building == null) {
+            return lock::unlock;
+        }
+        for (Mutation mutation : mutations) {
+            if (filter != null) {
+                filter.add(mutation.getRow());
+            }
+            if (building != null) {
+                building.add(mutation.getRow());
+            }
         }
+        return lock::unlock;
+    }
+
+    /**
+     * Keys registered by {@link #keysWritten} whose mutations are in flight, closed by the thread that registered
+     * them.
+     */
+    @FunctionalInterface
+    interface PendingKeys extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    void keysDeleted(EntityClassModel<?> m, long count) {
+        final KeyFilter filter = keyFilters.get(m.getEntityType());
+        if (filter != null) {
+            filter.deleted(count);
+        }
+    }
+
+    HExecutors getExecutors() {
+        return executors;
+    }
+
+    HMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -321,15 +1458,53 @@ public class HEntityManager {
      * @param entityModel The entity used to decipher the table name.
      * @return The table instance that can be used to make queries.
      */
-    private Table getTable(final EntityClassModel entityModel) {
+    StorageTable getTable(final EntityClassModel entityModel) {
         checkNotNull(entityModel.getTableName(), "Invalid table name for entity type %s ", entityModel.getEntityType());
+        return getTable(entityModel.getTableName());
+    }
+
+    StorageTable getTable(String tableName) {
         try {
-            final String table = tableNameSpace + entityModel.getTableName();
+            final String table = tableNameSpace + tableName;
             LOG.debug("Creating connection for table: {}", table);
-            return connection.getTable(TableName.valueOf(table));
+            return storage.getTable(TableName.valueOf(table));
         } catch (IOException e) {
-            throw new RuntimeException("Unable to connect initialize table " + entityModel.getTableName(), e);
+            throw new RuntimeException("Unable to connect initialize table " + tableName, e);
+        }
+    }
+
+    /**
+     * Create a spliterator over the scanner. When metrics are enabled every call to the scanner is timed as rpc
+     * time and a failing call marks the operation failed, otherwise this is the plain spliterator of the scanner.
+     *
+     * @param scanner The scanner that will be iterated.
+     * @param timer   The timer of the operation that owns the scanner.
+     * @return Spliterator over all results of the scanner.
+     */
+    static Spliterator<Result> spliterator(ResultScanner scanner, OperationTimer timer) {
+        if (!timer.isEnabled()) {
+            return scanner.spliterator();
         }
+        final Iterator<Result> results = new AbstractIterator<Result>() {
+            @Override
+            protected Result computeNext() {
+                final long mark = timer.mark();
+                final Result r;
+                try {
+                    r = uncheck(() -> scanner.next());
+                } catch (Exception e) {
+                    timer.failed();
+                    throw e;
+                }
+                timer.rpc(mark);
+                if (r == null) {
+                    return endOfData();
+                }
+                timer.result(r);
+                return r;
+            }
+        };
+        return Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED | Spliterator.NONNULL);
     }
 
     /**
@@ -342,22 +1517,68 @@ public class HEntityManager {
      * @param <T>    The type of the entity that will be returned.
      * @return A newly constructed entity with values set.
      */
-    private static <T> T resultToEntity(Result result, EntityClassModel m) {
+    static <T> T resultToEntity(Result result, EntityClassModel m) {
+        return resultToEntity(result, m, (T) m.newInstance(), false);
+    }
+
+    /**
+     * @param versions Whether the read asked for more than one version, only then the versions columns are set.
+     * @see #resultToEntity(Result, EntityClassModel)
+     */
+    static <T> T resultToEntity(Result result, EntityClassModel<T> m, boolean versions) {
+        return resultToEntity(result, m, m.newInstance(), versions);
+    }
+
+    /**
+     * Set the columns of a result on an existing entity. The entity is not reset, properties of columns that are
+     * missing from the result keep their values.
+     *
+     * @param result   Hbase result object.
+     * @param m        The entity
+     * @param instance The entity the values are set on.
+     * @param <T>      The type of the entity.
+     * @return The instance.
+     */
+    static <T> T resultToEntity(Result result, EntityClassModel m, T instance) {
+        return resultToEntity(result, m, instance, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T resultToEntity(Result result, EntityClassModel<?> m, T instance, boolean readVersions) {
         checkState(! result.isEmpty(), "No results were found while attempting to map entity for model %s", m);
-        final T instance;
-        try {
-            instance = (T) m.getEntityType().newInstance();
-            for (Cell c : result.rawCells()) {
-                final String colName = Bytes.toString(CellUtil.cloneQualifier(c));
-                final ColumnMeta<?> col = m.getColumnOrAny(colName);
-                if (col == null) {
-                    LOG.warn(String.format("Column [%s] was not found ", colName));
-                } else {
-                    col.setBytes(instance, CellUtil.cloneValue(c), colName);
+        final AnyColumnMeta<Object> any = m.hasAnyColumn() ? (AnyColumnMeta<Object>) m.getAnyColumn() : null;
+        final Map<String, Object> dynamic = any != null && any.isMapped() ? new LinkedHashMap<>() : null;
+        final Cell[] cells = result.rawCells();
+        for (int i = 0, next; i < cells.length; i = next) {
+            // The versions of a column are adjacent, newest first.
+            next = i + 1;
+            while (next < cells.length && CellUtil.matchingColumn(cells[i], cells[next])) {
+                next++;
+            }
+            final String colName = Bytes.toString(cells[i].getQualifierArray(), cells[i].getQualifierOffset(),
+                    cells[i].getQualifierLength());
+            final VersionsMeta<?> versions = m.getVersions(colName);
+            if (versions != null) {
+                if (readVersions) {
+                    versions.setVersions(instance, cells, i, next);
+                }
+                if (!m.hasColumn(colName)) {
+                    continue;
                 }
             }
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new RuntimeException(String.format("Unable to initialize the result for class %s ", m.getEntityType()));
+            if (dynamic != null && !m.hasColumn(colName)) {
+                dynamic.put(colName, any.decode(CellUtil.cloneValue(cells[i])));
+                continue;
+            }
+            final ColumnMeta<?> col = m.getColumnOrAny(colName);
+            if (col == null) {
+                LOG.warn(String.format("Column [%s] was not found ", colName));
+            } else {
+                col.setBytes(instance, CellUtil.cloneValue(cells[i]), colName);
+            }
+        }
+        if (dynamic != null) {
+            any.setValues(instance, dynamic);
         }
         return instance;
     }
@@ -0,0 +1,314 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.ch.htable.core.HMetrics.Operation;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The threads of an {@link HEntityManager}. Mapping between entities and cells is CPU bound and runs on a sized
+ * {@link ForkJoinPool}, calls to the storage block and run on the I/O executor which uses virtual threads when the
+ * JVM has them (JDK 21 and later) and a bounded pool of platform threads otherwise. Blocking calls therefore never
+ * occupy the common pool that unrelated CPU work of the application relies on.
+ * <p>
+ * Operations that fan out, for example over the batches of a save or the regions of a scan, run their tasks on the
+ * I/O executor. The number of tasks that run at once is limited per operation type and the
+ * fan out is structured, it returns only after every task has finished and the first failure cancels the tasks that
+ * are still running.
+ */
+public class HExecutors implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HExecutors.class);
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of tasks of an operation type that run at once unless a limit is set.
+     */
+    private static final int DEFAULT_LIMIT = Math.max(8, 4 * CORES);
+
+    private static volatile HExecutors shared;
+
+    private final ForkJoinPool cpu;
+    private final ExecutorService io;
+    private final boolean virtual;
+    private final boolean owned;
+    private final Map<Operation, Semaphore> limits = new EnumMap<>(Operation.class);
+
+    /**
+     * Create executors with a bounded pool of platform threads for I/O.
+     *
+     * @param cpuThreads The number of threads that map entities.
+     * @param ioThreads  The number of threads that call the storage.
+     */
+    public HExecutors(int cpuThreads, int ioThreads) {
+        this(new ForkJoinPool(cpuThreads), Executors.newFixedThreadPool(ioThreads, ioThreadFactory()), false, true);
+    }
+
+    private HExecutors(ForkJoinPool cpu, ExecutorService io, boolean virtual, boolean owned) {
+        this.cpu = cpu;
+        this.io = io;
+        this.virtual = virtual;
+        this.owned = owned;
+        for (Operation operation : Operation.values()) {
+            limits.put(operation, new Semaphore(DEFAULT_LIMIT));
+        }
+    }
+
+    /**
+     * Create executors that run every blocking call on its own virtual thread, on a JVM without virtual threads
+     * this falls back to a bounded pool of platform threads.
+     *
+     * @param cpuThreads The number of threads that map entities.
+     * @return The executors.
+     */
+    public static HExecutors virtual(int cpuThreads) {
+        final ExecutorService io = virtualThreads();
+        return io == null ? new HExecutors(cpuThreads, DEFAULT_LIMIT)
+                : new HExecutors(new ForkJoinPool(cpuThreads), io, true, true);
+    }
+
+    /**
+     * The executors of the managers that are created without their own. Mapping uses the common pool, which is
+     * fine for CPU bound work, and blocking calls use virtual threads or a pool of daemon threads. The shared
+     * executors are never closed.
+     *
+     * @return The shared executors.
+     */
+    public static HExecutors shared() {
+        if (shared == null) {
+            synchronized (HExecutors.class) {
+                if (shared == null) {
+                    final ExecutorService io = virtualThreads();
+                    shared = new HExecutors(ForkJoinPool.commonPool(),
+                            io == null ? Executors.newFixedThreadPool(DEFAULT_LIMIT, ioThreadFactory()) : io,
+                            io != null, false);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Limit the number of tasks of an operation type that run at once across every fan out of these executors.
+     * Limits must be set before the executors are used.
+     *
+     * @param operation The operation type.
+     * @param permits   The number of concurrent tasks.
+     * @return These executors.
+     */
+    public HExecutors limit(Operation operation, int permits) {
+        checkArgument(permits > 0, "Invalid limit %s for %s", permits, operation);
+        limits.put(operation, new Semaphore(permits));
+        return this;
+    }
+
+    public ForkJoinPool cpu() {
+        return cpu;
+    }
+
+    public ExecutorService io() {
+        return io;
+    }
+
+    /**
+     * @return true when blocking calls run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Run CPU bound work on the mapping pool and wait for it. Work that is already on the pool runs inline.
+     *
+     * @param work The work to run.
+     * @param <R>  The type of the result.
+     * @return The result of the work.
+     */
+    <R> R compute(Supplier<R> work) {
+        final Thread current = Thread.currentThread();
+        if (current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == cpu) {
+            return work.get();
+        }
+        try {
+            return CompletableFuture.supplyAsync(work, cpu).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HBaseException("Interrupted while mapping entities", e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Run tasks on the I/O executor and wait for all of them. Tasks are taken from the iterator only when a permit
+     * of the operation is available so the tasks are never all materialized at once. When a task fails no further
+     * tasks are started, the running ones are cancelled and the first failure is thrown once every task has ended,
+     * so callers may release what the tasks use as soon as this returns.
+     *
+     * @param operation The operation type whose limit applies.
+     * @param tasks     The tasks to run.
+     * @param <R>       The result type of the tasks.
+     * @return The results in the order of the tasks.
+     */
+    <R> List<R> fanOut(Operation operation, Iterator<? extends Callable<R>> tasks) {
+        final Semaphore permits = limits.get(operation);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Future<R>> futures = new ArrayList<>();
+        final List<Task<R>> started = new ArrayList<>();
+        try {
+            while (failure.get() == null && tasks.hasNext()) {
+                final Task<R> task = new Task<>(tasks.next(), permits, failure);
+                permits.acquire();
+                if (failure.get() != null) {
+                    // a task failed while this one waited for its permit
+                    permits.release();
+                    break;
+                }
+                try {
+                    futures.add(io.submit(task));
+                    started.add(task);
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        final List<R> results = new ArrayList<>(futures.size());
+        for (Future<R> future : futures) {
+            if (failure.get() != null) {
+                future.cancel(true);
+            }
+            try {
+                results.add(future.get());
+            } catch (CancellationException e) {
+                results.add(null);
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            }
+        }
+        // a cancelled future is done at once, the task itself may still be running and using shared resources
+        started.forEach(Task::awaitEnd);
+        if (failure.get() != null) {
+            throw propagate(failure.get());
+        }
+        return results;
+    }
+
+    /**
+     * A task of a fan out. Its end is tracked apart from its future since cancelling the future does not wait for
+     * the task. A task whose future is cancelled before it started never runs.
+     */
+    private static final class Task<R> implements Callable<R> {
+
+        private final Callable<R> task;
+        private final Semaphore permits;
+        private final AtomicReference<Throwable> failure;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch ended = new CountDownLatch(1);
+
+        private Task(Callable<R> task, Semaphore permits, AtomicReference<Throwable> failure) {
+            this.task = task;
+            this.permits = permits;
+            this.failure = failure;
+        }
+
+        @Override
+        public R call() throws Exception {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                return task.call();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+                throw t;
+            } finally {
+                permits.release();
+                ended.countDown();
+            }
+        }
+
+        /**
+         * Wait until the task has ended. A task that has not started yet is claimed so it never starts.
+         */
+        private void awaitEnd() {
+            if (claimed.compareAndSet(false, true)) {
+                permits.release();
+            } else {
+                Uninterruptibles.awaitUninterruptibly(ended);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (owned) {
+            io.shutdown();
+            cpu.shutdown();
+        }
+    }
+
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new HBaseException("Error while executing a storage operation", t);
+    }
+
+    private static ThreadFactory ioThreadFactory() {
+        return new ThreadFactoryBuilder().setNameFormat("htable-io-%d").setDaemon(true).build();
+    }
+
+    /**
+     * Create a virtual thread per task executor through reflection so the library still runs on older JVMs.
+     *
+     * @return The executor or null when the JVM has no virtual threads.
+     */
+    private static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Virtual threads are not available, blocking calls use a bounded pool", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.ch.htable.core.HMetrics.Operation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Iterators;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.IntStream;
+
+/**
+ * Exports rows of mapped entities as newline delimited json or csv without building entities. The scan only asks for
+ * the exported columns and every cell is written straight to the output using the converter of its column: numbers
+ * are formatted from their bytes, strings are escaped byte by byte without decoding them and columns that already
+ * hold json are copied verbatim. Only columns with other converters are decoded to a value first.
+ * <p>
+ * Every line holds the row key as {@code key} followed by the columns, a json line has a null and a csv line an
+ * empty field for a missing value. Csv output starts with a header line. Dynamic columns are not exported.
+ */
+public class HExporter {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] NULL = Bytes.toBytes("null");
+    private static final byte[] HEX = Bytes.toBytes("0123456789abcdef");
+
+    public enum Format {
+        NDJSON("ndjson"),
+        CSV("csv");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final HEntityManager manager;
+
+    public HExporter(HEntityManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Export the rows with a key prefix to a stream. The stream is flushed but not closed.
+     *
+     * @param clazz   The mapped entity class.
+     * @param prefix  The row key prefix.
+     * @param format  The output format.
+     * @param out     The stream the rows are written to.
+     * @param columns The exported columns, all mapped columns in name order when empty.
+     * @param <T>     The entity type.
+     * @return The number of exported rows.
+     */
+    public <T> long export(Class<T> clazz, String prefix, Format format, OutputStream out, String... columns) {
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final RowWriter writer = new RowWriter(m, format, columns);
+        final Scan scan = writer.scan().setRowPrefixFilter(Bytes.toBytes(prefix));
+        return export(m, scan, writer, out);
+    }
+
+    /**
+     * Export the rows of a key range to a channel. The channel is not closed.
+     *
+     * @param clazz    The mapped entity class.
+     * @param startKey The first row key, inclusive.
+     * @param stopKey  The last row key, exclusive. Empty for the end of the table.
+     * @param format   The output format.
+     * @param channel  The channel the rows are written to.
+     * @param columns  The exported columns, all mapped columns in name order when empty.
+     * @param <T>      The entity type.
+     * @return The number of exported rows.
+     */
+    public <T> long export(Class<T> clazz, String startKey, String stopKey, Format format, WritableByteChannel channel,
+                           String... columns) {
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final RowWriter writer = new RowWriter(m, format, columns);
+        final Scan scan = writer.scan().withStartRow(Bytes.toBytes(startKey)).withStopRow(Bytes.toBytes(stopKey));
+        return export(m, scan, writer, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Export the rows with a key prefix to one file per region, the regions are exported in parallel with at most
+     * the {@link Operation#EXPORT} limit of regions at once. The files are named after the table and the index of
+     * the region, every csv file has its own header.
+     *
+     * @param clazz     The mapped entity class.
+     * @param prefix    The row key prefix.
+     * @param format    The output format.
+     * @param directory The directory the files are created in, it is created when it does not exist.
+     * @param columns   The exported columns, all mapped columns in name order when empty.
+     * @param <T>       The entity type.
+     * @return The files in region order.
+     */
+    public <T> List<Path> exportRegions(Class<T> clazz, String prefix, Format format, Path directory,
+                                        String... columns) {
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final RowWriter writer = new RowWriter(m, format, columns);
+        final Scan scan = writer.scan().setRowPrefixFilter(Bytes.toBytes(prefix));
+        final OperationTimer timer = OperationTimer.start(manager.getMetrics(), clazz, Operation.EXPORT);
+        scan.setScanMetricsEnabled(timer.isEnabled());
+
+        try (StorageTable table = manager.getTable(m)) {
+            Files.createDirectories(directory);
+            final List<Scan> regions = RegionSplits.split(scan, table.getStartKeys());
+            final String name = m.getTableName().replace(':', '_');
+            final Iterator<Callable<Path>> tasks = Iterators.transform(IntStream.range(0, regions.size()).iterator(),
+                    i -> () -> {
+                        final Path file = directory.resolve(String.format("%s-%05d.%s", name, i,
+                                format.getExtension()));
+                        try (OutputStream out = Files.newOutputStream(file)) {
+                            write(table, regions.get(i), writer, out, timer);
+                        } catch (IOException e) {
+                            throw new HBaseException(String.format("Error while exporting region starting at %s to %s",
+                                    Bytes.toStringBinary(regions.get(i).getStartRow()), file), e);
+                        }
+                        return file;
+                    });
+            final List<Path> files = manager.getExecutors().fanOut(Operation.EXPORT, tasks);
+            timer.succeeded();
+            return files;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while exporting entity %s with row key prefix %s",
+                    clazz, prefix), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    private long export(EntityClassModel<?> m, Scan scan, RowWriter writer, OutputStream out) {
+        final OperationTimer timer = OperationTimer.start(manager.getMetrics(), m.getEntityType(), Operation.EXPORT);
+        scan.setScanMetricsEnabled(timer.isEnabled());
+        try (StorageTable table = manager.getTable(m)) {
+            final long rows = write(table, scan, writer, out, timer);
+            timer.succeeded();
+            return rows;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while exporting entity %s", m.getEntityType()), e);
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * Write the header and every row of a scan.
+     *
+     * @return The number of rows.
+     */
+    private static long write(StorageTable table, Scan scan, RowWriter writer, OutputStream target,
+                              OperationTimer timer) throws IOException {
+        final BufferedOutputStream out = new BufferedOutputStream(target, BUFFER_SIZE);
+        long rows = 0;
+        writer.header(out);
+        try (ResultScanner scanner = table.getScanner(scan)) {
+            for (Result r : scanner) {
+                timer.result(r);
+                writer.row(r, out);
+                rows++;
+            }
+            timer.scanMetrics(scanner.getScanMetrics());
+        }
+        out.flush();
+        return rows;
+    }
+
+    /**
+     * How the value of a column is written.
+     */
+    private enum Kind {
+        LONG, INT, DOUBLE, STRING, JSON, VALUE
+    }
+
+    /**
+     * The precomputed layout of an exported line.
+     */
+    private static final class RowWriter {
+
+        private final EntityClassModel<?> model;
+        private final Format format;
+        private final ColumnMeta<?>[] columns;
+        private final Kind[] kinds;
+        private final boolean[] compressed;
+        private final byte[][] names;
+        private final Kind keyKind;
+
+        private RowWriter(EntityClassModel<?> model, Format format, String[] columns) {
+            this.model = model;
+            this.format = format;
+            final List<ColumnMeta<?>> selected = new ArrayList<>();
+            if (columns.length == 0) {
+                selected.addAll(model.getNamedColumns());
+                selected.sort(Comparator.comparing(ColumnMeta::getName));
+            } else {
+                for (String column : columns) {
+                    selected.add(model.getColumnOrThrow(column));
+                }
+            }
+            this.columns = selected.toArray(new ColumnMeta<?>[0]);
+            this.kinds = new Kind[this.columns.length];
+            this.compressed = new boolean[this.columns.length];
+            this.names = new byte[this.columns.length + 1][];
+            names[0] = name("key");
+            for (int i = 0; i < this.columns.length; i++) {
+                ColumnConverter<?> converter = this.columns[i].converter();
+                if (converter instanceof CompressedConverter) {
+                    compressed[i] = true;
+                    converter = ((CompressedConverter<?>) converter).getConverter();
+                }
+                kinds[i] = kind(converter);
+                names[i + 1] = name(this.columns[i].getName());
+            }
+            this.keyKind = kind(model.getIdConverter());
+        }
+
+        private static Kind kind(ColumnConverter<?> converter) {
+            final Class<?> type = converter.getClass();
+            if (type == ColumnConverter.LongColumn.class) {
+                return Kind.LONG;
+            }
+            if (type == ColumnConverter.IntegerColumn.class) {
+                return Kind.INT;
+            }
+            if (type == ColumnConverter.DoubleColumn.class) {
+                return Kind.DOUBLE;
+            }
+            if (type == ColumnConverter.StringColumn.class) {
+                return Kind.STRING;
+            }
+            return converter instanceof ColumnConverter.JacksonJsonConverter ? Kind.JSON : Kind.VALUE;
+        }
+
+        /**
+         * @return The field name as it is written, a quoted json string with its colon or a csv field.
+         */
+        private byte[] name(String name) {
+            if (format == Format.CSV) {
+                return Bytes.toBytes(name);
+            }
+            try {
+                return Bytes.add(JSON.writeValueAsBytes(name), new byte[]{':'});
+            } catch (IOException e) {
+                throw new IllegalArgumentException(String.format("Invalid column name %s", name), e);
+            }
+        }
+
+        /**
+         * @return A scan of the exported columns that skips the block cache.
+         */
+        private Scan scan() {
+            final Scan scan = new Scan();
+            scan.setCacheBlocks(false);
+            for (ColumnMeta<?> c : columns) {
+                scan.addColumn(c.getFamily(), c.getQualifier());
+            }
+            return scan;
+        }
+
+        private void header(OutputStream out) throws IOException {
+            if (format != Format.CSV) {
+                return;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                csv(out, names[i], 0, names[i].length);
+            }
+            out.write('\n');
+        }
+
+        private void row(Result r, OutputStream out) throws IOException {
+            final boolean json = format == Format.NDJSON;
+            if (json) {
+                out.write('{');
+                out.write(names[0]);
+            }
+            final byte[] row = r.getRow();
+            if (keyKind == Kind.STRING) {
+                string(out, row, 0, row.length);
+            } else {
+                value(out, model.decodeId(row));
+            }
+            for (int i = 0; i < columns.length; i++) {
+                out.write(',');
+                if (json) {
+                    out.write(names[i + 1]);
+                }
+                final Cell cell = r.getColumnLatestCell(columns[i].getFamily(), columns[i].getQualifier());
+                if (cell == null || cell.getValueLength() == 0) {
+                    if (json) {
+                        out.write(NULL);
+                    }
+                } else if (compressed[i]) {
+                    cell(out, i, ColumnCodec.decode(CellUtil.cloneValue(cell)), 0, -1, cell);
+                } else {
+                    cell(out, i, cell.getValueArray(), cell.getValueOffset(), cell.getValueLength(), cell);
+                }
+            }
+            out.write(json ? '}' : '\n');
+            if (json) {
+                out.write('\n');
+            }
+        }
+
+        /**
+         * Write the value of a column from its bytes, a negative length means the whole array.
+         */
+        private void cell(OutputStream out, int column, byte[] bytes, int offset, int length, Cell cell)
+                throws IOException {
+            final int len = length < 0 ? bytes.length - offset : length;
+            switch (kinds[column]) {
+                case LONG:
+                    ascii(out, Long.toString(Bytes.toLong(bytes, offset, len)));
+                    break;
+                case INT:
+                    ascii(out, Integer.toString(Bytes.toInt(bytes, offset, len)));
+                    break;
+                case DOUBLE: {
+                    final double d = Bytes.toDouble(bytes, offset);
+                    if (format == Format.NDJSON && (Double.isNaN(d) || Double.isInfinite(d))) {
+                        out.write(NULL);
+                    } else {
+                        ascii(out, Double.toString(d));
+                    }
+                    break;
+                }
+                case STRING:
+                    string(out, bytes, offset, len);
+                    break;
+                case JSON:
+                    if (format == Format.NDJSON) {
+                        out.write(bytes, offset, len);
+                    } else {
+                        csv(out, bytes, offset, len);
+                    }
+                    break;
+                default:
+                    value(out, columns[column].fromCell(cell));
+            }
+        }
+
+        /**
+         * Write a decoded value, a json value or a csv field of its string or json form.
+         */
+        private void value(OutputStream out, Object value) throws IOException {
+            if (format == Format.NDJSON) {
+                out.write(value == null ? NULL : JSON.writeValueAsBytes(value));
+                return;
+            }
+            if (value == null) {
+                return;
+            }
+            final byte[] bytes = value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+                    ? Bytes.toBytes(value.toString()) : JSON.writeValueAsBytes(value);
+            csv(out, bytes, 0, bytes.length);
+        }
+
+        private void string(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+            if (format == Format.NDJSON) {
+                jsonString(out, bytes, offset, length);
+            } else {
+                csv(out, bytes, offset, length);
+            }
+        }
+    }
+
+    private static void ascii(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Write utf-8 bytes as a json string. Quotes, backslashes and control characters are escaped, every other byte
+     * is copied as it is.
+     */
+    static void jsonString(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+        out.write('"');
+        int start = offset;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final int c = bytes[i] & 0xff;
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            out.write(bytes, start, i - start);
+            start = i + 1;
+            out.write('\\');
+            switch (c) {
+                case '"':
+                case '\\':
+                    out.write(c);
+                    break;
+                case '\n':
+                    out.write('n');
+                    break;
+                case '\r':
+                    out.write('r');
+                    break;
+                case '\t':
+                    out.write('t');
+                    break;
+                default:
+                    out.write('u');
+                    out.write('0');
+                    out.write('0');
+                    out.write(HEX[c >>> 4]);
+                    out.write(HEX[c & 0xf]);
+            }
+        }
+        out.write(bytes, start, end - start);
+        out.write('"');
+    }
+
+    /**
+     * Write bytes as a csv field, the field is quoted when it holds a separator, a quote or a line break.
+     */
+    static void csv(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+        final int end = offset + length;
+        boolean quote = false;
+        for (int i = offset; i < end && !quote; i++) {
+            final byte b = bytes[i];
+            quote = b == ',' || b == '"' || b == '\n' || b == '\r';
+        }
+        if (!quote) {
+            out.write(bytes, offset, length);
+            return;
+        }
+        out.write('"');
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == '"') {
+                out.write(bytes, start, i + 1 - start);
+                out.write('"');
+                start = i + 1;
+            }
+        }
+        out.write(bytes, start, end - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,94 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+
+/**
+ * Metrics surface for the operations executed by {@link HEntityManager}. An implementation is handed a callback
+ * for every completed operation with the entity type, the operation and the time spent mapping entities versus the
+ * time spent waiting on hbase along with the number of rows, cells and bytes that were moved.
+ * <p>
+ * The {@link #NOOP} implementation is the default. It reports itself as disabled which keeps the manager from
+ * reading the clock or counting cells at all, so metrics cost nothing unless they are turned on.
+ *
+ * @see HMetricsRegistry
+ */
+public interface HMetrics {
+
+    /**
+     * The operations that are reported by the entity manager.
+     */
+    enum Operation {
+        SAVE,
+        SAVE_ALL,
+        GET_ONE,
+        FIND,
+        DELETE,
+        AGGREGATE,
+        INCREMENT,
+        EXPORT,
+        COMMIT,
+        SNAPSHOT
+    }
+
+    /**
+     * Disabled metrics, every callback is a no-op.
+     */
+    HMetrics NOOP = new HMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void onOperation(Class<?> entityType, Operation operation, long totalNanos, long mappingNanos,
+                                long rpcNanos, long rows, long cells, long bytes) {
+        }
+
+        @Override
+        public void onError(Class<?> entityType, Operation operation) {
+        }
+    };
+
+    /**
+     * When this returns false the manager will skip all timing and counting for the operation.
+     *
+     * @return true if the callbacks should be invoked.
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Called once for every operation that completed successfully.
+     *
+     * @param entityType   The mapped entity class the operation was executed for.
+     * @param operation    The operation that was executed.
+     * @param totalNanos   Wall clock time of the whole operation.
+     * @param mappingNanos Time spent converting between entities and hbase rows.
+     * @param rpcNanos     Time spent waiting on the hbase client.
+     * @param rows         Number of rows written, read or deleted.
+     * @param cells        Number of cells written or read.
+     * @param bytes        Number of key and value bytes written or read.
+     */
+    void onOperation(Class<?> entityType, Operation operation, long totalNanos, long mappingNanos, long rpcNanos,
+                     long rows, long cells, long bytes);
+
+    /**
+     * Called once for every operation that failed with an exception.
+     *
+     * @param entityType The mapped entity class the operation was executed for.
+     * @param operation  The operation that failed.
+     */
+    void onError(Class<?> entityType, Operation operation);
+
+    /**
+     * Called when a scanner is closed with the metrics collected by the hbase client for that scan. This is only
+     * invoked when scan metrics were enabled on the scan, which the manager does whenever metrics are enabled.
+     *
+     * @param entityType  The mapped entity class that was scanned.
+     * @param operation   The operation that executed the scan.
+     * @param scanMetrics The client side metrics of the scan.
+     */
+    default void onScanMetrics(Class<?> entityType, Operation operation, ScanMetrics scanMetrics) {
+    }
+}
@@ -0,0 +1,159 @@
+package com.ch.htable.core;
+
+import com.google.common.base.MoreObjects;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In process implementation of {@link HMetrics} that keeps counters and a {@link LatencyHistogram} per entity
+ * class and operation. The collected values can be read at any time through {@link #getStats(Class, Operation)}
+ * and exported to whatever reporting system is in use.
+ */
+public class HMetricsRegistry implements HMetrics {
+
+    private final ConcurrentHashMap<Class<?>, Map<Operation, OperationStats>> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public void onOperation(Class<?> entityType, Operation operation, long totalNanos, long mappingNanos,
+                            long rpcNanos, long rows, long cells, long bytes) {
+        final OperationStats s = stats(entityType, operation);
+        s.count.increment();
+        s.latency.record(totalNanos);
+        s.mappingNanos.add(mappingNanos);
+        s.rpcNanos.add(rpcNanos);
+        s.rows.add(rows);
+        s.cells.add(cells);
+        s.bytes.add(bytes);
+    }
+
+    @Override
+    public void onError(Class<?> entityType, Operation operation) {
+        stats(entityType, operation).errors.increment();
+    }
+
+    @Override
+    public void onScanMetrics(Class<?> entityType, Operation operation, ScanMetrics scanMetrics) {
+        final OperationStats s = stats(entityType, operation);
+        scanMetrics.getMetricsMap().forEach((name, value) ->
+                s.scanMetrics.computeIfAbsent(name, k -> new LongAdder()).add(value));
+    }
+
+    /**
+     * Lookup the statistics collected for an entity and operation.
+     *
+     * @param entityType The mapped entity class.
+     * @param operation  The operation.
+     * @return The statistics if the operation was ever reported for the entity.
+     */
+    public Optional<OperationStats> getStats(Class<?> entityType, Operation operation) {
+        return Optional.ofNullable(stats.getOrDefault(entityType, Collections.emptyMap()).get(operation));
+    }
+
+    /**
+     * @return A read only view of all statistics grouped by entity class.
+     */
+    public Map<Class<?>, Map<Operation, OperationStats>> getAll() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Drop everything that has been collected so far.
+     */
+    public void reset() {
+        stats.clear();
+    }
+
+    private OperationStats stats(Class<?> entityType, Operation operation) {
+        final Map<Operation, OperationStats> byOperation = stats.computeIfAbsent(entityType,
+                k -> Collections.synchronizedMap(new EnumMap<>(Operation.class)));
+        return byOperation.computeIfAbsent(operation, k -> new OperationStats());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("stats", stats)
+                .toString();
+    }
+
+    /**
+     * The counters collected for a single entity class and operation.
+     */
+    public static class OperationStats {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder mappingNanos = new LongAdder();
+        private final LongAdder rpcNanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder cells = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final ConcurrentHashMap<String, LongAdder> scanMetrics = new ConcurrentHashMap<>();
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getMappingTime(TimeUnit unit) {
+            return unit.convert(mappingNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        public long getRpcTime(TimeUnit unit) {
+            return unit.convert(rpcNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getCells() {
+            return cells.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * The hbase {@link ScanMetrics} summed over every scan of this operation, keyed by the hbase metric name
+         * for example {@code RPC_CALLS} or {@code BYTES_IN_RESULTS}.
+         *
+         * @param name The hbase scan metric name.
+         * @return The summed value or zero if the metric was never reported.
+         */
+        public long getScanMetric(String name) {
+            final LongAdder value = scanMetrics.get(name);
+            return value == null ? 0L : value.sum();
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("count", getCount())
+                    .add("errors", getErrors())
+                    .add("mappingMs", getMappingTime(TimeUnit.MILLISECONDS))
+                    .add("rpcMs", getRpcTime(TimeUnit.MILLISECONDS))
+                    .add("rows", getRows())
+                    .add("cells", getCells())
+                    .add("bytes", getBytes())
+                    .add("latency", latency)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.ch.htable.core.HMetrics.Operation;
+import com.google.common.collect.Iterators;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.TableSnapshotScanner;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.snapshot.RestoreSnapshotHelper;
+import org.apache.hadoop.hbase.util.CommonFSUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.util.stream.StreamSupport.stream;
+
+/**
+ * Reads mapped entities from a table snapshot straight from the hbase file system instead of the region servers.
+ * The region files of the snapshot are opened in this process, so bulk reads neither load the region servers nor
+ * churn their block caches, and they see the table as it was when the snapshot was taken.
+ * <p>
+ * A snapshot is restored into a fresh directory under the restore root before it is read. Restoring only writes
+ * links to the snapshot files, so the restore root must be on the file system of the hbase root directory and
+ * must not be inside it. The directory is removed when the read is done. Reading needs
+ * {@code org.apache.hbase:hbase-server} and read access to the hbase root directory. hbase-server is a compile
+ * only dependency, its classes are only loaded once a snapshot is read.
+ */
+public class HSnapshotReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HSnapshotReader.class);
+
+    private final HEntityManager manager;
+    private final Configuration conf;
+    private final Path restoreRoot;
+
+    /**
+     * @param manager     The manager whose entity models map the rows.
+     * @param conf        The hbase configuration, {@code hbase.rootdir} locates the snapshots.
+     * @param restoreRoot The directory snapshots are restored under.
+     */
+    public HSnapshotReader(HEntityManager manager, Configuration conf, Path restoreRoot) {
+        this.manager = manager;
+        this.conf = new Configuration(conf);
+        this.restoreRoot = restoreRoot;
+    }
+
+    /**
+     * Stream the entities with a key prefix from a snapshot, region after region. The stream must be closed, which
+     * removes the restored snapshot.
+     *
+     * @param clazz    The mapped entity class.
+     * @param snapshot The name of a snapshot of the table of the entity.
+     * @param prefix   The row key prefix.
+     * @param filter   The optional filter that is applied to the rows.
+     * @param columns  List of columns to fetch.
+     * @param <T>      The entity type.
+     * @return Stream of the entities in key order.
+     */
+    public <T> Stream<T> find(Class<T> clazz, String snapshot, String prefix, Optional<Filter> filter,
+                              String ... columns) {
+        requireServer();
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(manager.getMetrics(), clazz, Operation.SNAPSHOT);
+        final Scan scan = scan(clazz, prefix, filter, columns);
+        try {
+            final ResultScanner scanner = SnapshotLibrary.open(conf, CommonFSUtils.getRootDir(conf),
+                    restoreRoot, snapshot, scan, false);
+            return stream(HEntityManager.spliterator(scanner, timer), false)
+                    .onClose(() -> {
+                        timer.scanMetrics(scanner.getScanMetrics());
+                        if (!timer.isFailed()) {
+                            timer.succeeded();
+                        }
+                        timer.finish();
+                        scanner.close();
+                    }).map(r -> {
+                        final long mark = timer.mark();
+                        final T entity = HEntityManager.resultToEntity(r, m);
+                        timer.mapping(mark);
+                        return entity;
+                    });
+        } catch (IOException e) {
+            timer.finish();
+            throw new HBaseException(String.format("Error while reading snapshot %s of %s with row key prefix %s",
+                    snapshot, clazz, prefix), e);
+        }
+    }
+
+    /**
+     * Visit every entity with a key prefix in a snapshot in parallel, one worker per region of the snapshot under
+     * the {@link Operation#SNAPSHOT} limit. The snapshot is restored once for all workers. Every worker takes one
+     * instance from the supplier and reuses it for all rows of its region, the supplier must therefore return a
+     * distinct instance per call and the action must be thread safe. The action must not keep a reference to an
+     * instance.
+     *
+     * @param clazz     The mapped entity class.
+     * @param snapshot  The name of a snapshot of the table of the entity.
+     * @param prefix    The row key prefix.
+     * @param filter    The optional filter that is applied to the rows.
+     * @param instances Supplies the instance of every region worker.
+     * @param action    Consumes the reused entity of every row.
+     * @param columns   List of columns to fetch.
+     * @param <T>       The entity type.
+     * @return The number of rows visited.
+     */
+    public <T> long forEach(Class<T> clazz, String snapshot, String prefix, Optional<Filter> filter,
+                            Supplier<? extends T> instances, Consumer<? super T> action, String ... columns) {
+        requireServer();
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final OperationTimer timer = OperationTimer.start(manager.getMetrics(), clazz, Operation.SNAPSHOT);
+        final Scan scan = scan(clazz, prefix, filter, columns);
+        Path restoreDir = null;
+        FileSystem fs = null;
+        try {
+            final Path rootDir = CommonFSUtils.getRootDir(conf);
+            fs = rootDir.getFileSystem(conf);
+            restoreDir = new Path(restoreRoot, UUID.randomUUID().toString());
+            final byte[][] startKeys = SnapshotLibrary.restore(conf, fs, rootDir, restoreDir, snapshot);
+            LOG.debug("Restored snapshot {} with {} regions into {}", snapshot, startKeys.length, restoreDir);
+            if (startKeys.length == 0) {
+                timer.succeeded();
+                return 0;
+            }
+
+            final Path restored = restoreDir;
+            final Iterator<Callable<Long>> tasks = Iterators.transform(
+                    RegionSplits.split(scan, startKeys).iterator(),
+                    region -> () -> forEach(m, SnapshotLibrary.open(conf, rootDir, restored, snapshot, region, true),
+                            instances.get(), action, timer));
+            final long rows = manager.getExecutors().fanOut(Operation.SNAPSHOT, tasks).stream()
+                    .mapToLong(Long::longValue).sum();
+            timer.succeeded();
+            return rows;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while reading snapshot %s of %s with row key prefix %s",
+                    snapshot, clazz, prefix), e);
+        } finally {
+            timer.finish();
+            delete(fs, restoreDir);
+        }
+    }
+
+    private static void requireServer() {
+        try {
+            Class.forName("org.apache.hadoop.hbase.client.TableSnapshotScanner", false,
+                    HSnapshotReader.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Reading snapshots requires org.apache.hbase:hbase-server on the classpath", e);
+        }
+    }
+
+    private <T> Scan scan(Class<T> clazz, String prefix, Optional<Filter> filter, String ... columns) {
+        final Scan scan = manager.createScan(clazz, prefix, filter, columns);
+        scan.setCacheBlocks(false);
+        return scan;
+    }
+
+    private static <T> long forEach(EntityClassModel<T> m, ResultScanner scanner, T instance,
+                                    Consumer<? super T> action, OperationTimer timer) throws IOException {
+        long rows = 0;
+        try {
+            for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                timer.result(r);
+                final long mark = timer.mark();
+                m.clear(instance);
+                HEntityManager.resultToEntity(r, m, instance);
+                timer.mapping(mark);
+                action.accept(instance);
+                rows++;
+            }
+            timer.scanMetrics(scanner.getScanMetrics());
+        } finally {
+            scanner.close();
+        }
+        return rows;
+    }
+
+    private static void delete(FileSystem fs, Path restoreDir) {
+        if (fs == null || restoreDir == null) {
+            return;
+        }
+        try {
+            fs.delete(restoreDir, true);
+        } catch (IOException e) {
+            LOG.warn("Unable to remove the restored snapshot {}", restoreDir, e);
+        }
+    }
+
+    /**
+     * The hbase-server classes, only loaded once a snapshot is read.
+     */
+    static final class SnapshotLibrary {
+
+        private SnapshotLibrary() {}
+
+        /**
+         * Restore a snapshot for reading.
+         *
+         * @return The start keys of the regions of the snapshot in key order, the first one is empty.
+         */
+        static byte[][] restore(Configuration conf, FileSystem fs, Path rootDir, Path restoreDir, String snapshot)
+                throws IOException {
+            final List<RegionInfo> regions = RestoreSnapshotHelper
+                    .copySnapshotForScanner(conf, fs, rootDir, restoreDir, snapshot).getRegionsToAdd();
+            return regions.stream()
+                    .filter(r -> !(r.isOffline() && (r.isSplit() || r.isSplitParent())))
+                    .sorted(RegionInfo.COMPARATOR)
+                    .map(RegionInfo::getStartKey)
+                    .toArray(byte[][]::new);
+        }
+
+        /**
+         * Open a scanner over a snapshot, it reads the regions that overlap the scan one after the other.
+         *
+         * @param restored True when the snapshot is already restored into the directory, otherwise it is restored
+         *                 into a new directory under it that is removed when the scanner is closed.
+         */
+        static ResultScanner open(Configuration conf, Path rootDir, Path restoreDir, String snapshot, Scan scan,
+                                  boolean restored) throws IOException {
+            return new TableSnapshotScanner(conf, rootDir, restoreDir, snapshot, scan, restored);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.ch.htable.HBaseUtil;
+import com.ch.htable.annotations.HFamily;
+import com.ch.htable.annotations.HSplits;
+import org.apache.hadoop.hbase.NamespaceDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Creates and validates the tables of mapped entities from their annotations. The table name and the namespace come
+ * from the {@link com.ch.htable.annotations.HTable} name and the table name space of the manager, a name space
+ * {@code "ns:"} puts the tables in the hbase namespace {@code ns}. The families are the families the columns of the
+ * entity map to, their storage settings come from {@link HFamily} and the initial regions from {@link HSplits}.
+ * Families without {@link HFamily} use the hbase defaults, except that families of
+ * {@link com.ch.htable.annotations.HVersions} columns keep {@link #VERSIONED_MAX_VERSIONS} versions. Every index
+ * table of the entity is created with the default family of the entity.
+ * <p>
+ * {@link #diff(Class)} compares the expected schema with the live tables and {@link #validate(Class[])} fails when
+ * they differ, which makes schema drift visible at startup instead of at the first write. Only the settings this
+ * class manages are compared, the settings of an {@link HFamily} and the versions of a versioned family, other
+ * settings of the live families are left to the operators.
+ */
+public class HTableAdmin {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HTableAdmin.class);
+
+    /**
+     * The key space of {@link HSplits.Strategy#HEX}, eight hex digits.
+     */
+    private static final long HEX_KEYS = 1L << 32;
+
+    /**
+     * The versions kept by a family of versioned columns without {@link HFamily}.
+     */
+    public static final int VERSIONED_MAX_VERSIONS = 3;
+
+    private final Connection connection;
+    private final AnnotationAnalyzer metaModel;
+    private final String tableNameSpace;
+
+    /**
+     * @param connection     The hbase connection.
+     * @param metaModel      The meta model of the mapped entities.
+     * @param tableNameSpace The prefix that is prepended to every table name, the same as the manager uses.
+     */
+    public HTableAdmin(Connection connection, AnnotationAnalyzer metaModel, String tableNameSpace) {
+        this.connection = connection;
+        this.metaModel = metaModel;
+        this.tableNameSpace = tableNameSpace;
+    }
+
+    /**
+     * @param clazz The mapped entity class.
+     * @return The expected descriptor of the entity table.
+     */
+    public TableDescriptor descriptor(Class<?> clazz) {
+        final EntityClassModel<?> m = metaModel.entityModel(clazz);
+        final Map<String, HFamily> settings = familySettings(m);
+        final Set<String> versioned = m.getVersionedFamilies();
+        final TableDescriptorBuilder table = TableDescriptorBuilder.newBuilder(tableName(m.getTableName()));
+        for (byte[] family : m.getFamilies()) {
+            final String name = Bytes.toString(family);
+            table.setColumnFamily(family(ColumnFamilyDescriptorBuilder.newBuilder(family), name, settings.get(name),
+                    versioned.contains(name)));
+        }
+        return table.build();
+    }
+
+    /**
+     * @param clazz The mapped entity class.
+     * @return The split points the entity table is created with, empty for a single region.
+     */
+    public byte[][] splitKeys(Class<?> clazz) {
+        final HSplits splits = clazz.getAnnotation(HSplits.class);
+        if (splits == null) {
+            return new byte[0][];
+        }
+        final int regions = splits.regions();
+        switch (splits.strategy()) {
+            case HEX: {
+                checkArgument(regions > 0 && regions <= HEX_KEYS, "Invalid number of hex regions %s of %s", regions, clazz);
+                final byte[][] keys = new byte[regions - 1][];
+                for (int i = 1; i < regions; i++) {
+                    keys[i - 1] = Bytes.toBytes(String.format("%08x", HEX_KEYS * i / regions));
+                }
+                return keys;
+            }
+            case SALT: {
+                checkArgument(regions > 0, "Invalid number of salt buckets %s of %s", regions, clazz);
+                final byte[][] keys = new byte[regions - 1][];
+                for (int i = 1; i < regions; i++) {
+                    keys[i - 1] = Bytes.toBytes(HBaseUtil.salt(i, regions));
+                }
+                return keys;
+            }
+            case EXPLICIT: {
+                final byte[][] keys = Arrays.stream(splits.keys()).map(Bytes::toBytes)
+                        .sorted(Bytes.BYTES_COMPARATOR).toArray(byte[][]::new);
+                for (int i = 0; i < keys.length; i++) {
+                    checkArgument(keys[i].length > 0, "Empty split point of %s", clazz);
+                    checkArgument(i == 0 || !Bytes.equals(keys[i - 1], keys[i]), "Duplicate split point %s of %s",
+                            Bytes.toStringBinary(keys[i]), clazz);
+                }
+                return keys;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown split strategy " + splits.strategy());
+        }
+    }
+
+    /**
+     * Create the namespace, the entity table and the index tables of an entity where they do not exist yet. Tables
+     * that exist are left alone, use {@link #update(Class)} to bring them in line with the entity.
+     *
+     * @param clazz The mapped entity class.
+     * @return true when the entity table was created.
+     */
+    public boolean create(Class<?> clazz) {
+        final EntityClassModel<?> m = metaModel.entityModel(clazz);
+        try (Admin admin = connection.getAdmin()) {
+            createNamespace(admin, tableName(m.getTableName()).getNamespaceAsString());
+            final boolean created = create(admin, descriptor(clazz), splitKeys(clazz));
+            for (TableDescriptor index : indexDescriptors(m)) {
+                create(admin, index, new byte[0][]);
+            }
+            return created;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while creating the tables of %s", clazz), e);
+        }
+    }
+
+    /**
+     * Compare the entity table and the index tables of an entity with their live schema.
+     *
+     * @param clazz The mapped entity class.
+     * @return One diff per table, the entity table first. A diff is empty when the table matches.
+     */
+    public List<SchemaDiff> diff(Class<?> clazz) {
+        final EntityClassModel<?> m = metaModel.entityModel(clazz);
+        try (Admin admin = connection.getAdmin()) {
+            final List<SchemaDiff> diffs = new ArrayList<>();
+            diffs.add(diff(admin, descriptor(clazz), familySettings(m), m.getVersionedFamilies()));
+            for (TableDescriptor index : indexDescriptors(m)) {
+                diffs.add(diff(admin, index, Collections.emptyMap(), Collections.emptySet()));
+            }
+            return diffs;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while reading the tables of %s", clazz), e);
+        }
+    }
+
+    /**
+     * Check that the live tables of entities match their annotations.
+     *
+     * @param classes The mapped entity classes.
+     * @throws HBaseException When a table is missing or differs, the message lists every difference.
+     */
+    public void validate(Class<?>... classes) {
+        final List<SchemaDiff> drift = Arrays.stream(classes)
+                .flatMap(c -> diff(c).stream())
+                .filter(d -> !d.isEmpty())
+                .collect(Collectors.toList());
+        if (!drift.isEmpty()) {
+            throw new HBaseException(String.format("The live schema differs from the entities: %s", drift));
+        }
+    }
+
+    /**
+     * Bring the tables of an entity in line with its annotations. Missing tables are created, missing families are
+     * added and the managed settings of families that differ are modified, their other settings are kept. Families
+     * the entity does not map to are kept and the regions of existing tables are never changed.
+     *
+     * @param clazz The mapped entity class.
+     * @return The differences that were found before the update.
+     */
+    public List<SchemaDiff> update(Class<?> clazz) {
+        final List<SchemaDiff> diffs = diff(clazz);
+        final EntityClassModel<?> m = metaModel.entityModel(clazz);
+        final Map<String, HFamily> settings = familySettings(m);
+        final Set<String> versioned = m.getVersionedFamilies();
+        final List<TableDescriptor> expected = new ArrayList<>();
+        expected.add(descriptor(clazz));
+        expected.addAll(indexDescriptors(m));
+
+        try (Admin admin = connection.getAdmin()) {
+            for (int i = 0; i < diffs.size(); i++) {
+                final SchemaDiff diff = diffs.get(i);
+                final TableDescriptor table = expected.get(i);
+                if (diff.isTableMissing()) {
+                    createNamespace(admin, table.getTableName().getNamespaceAsString());
+                    create(admin, table, i == 0 ? splitKeys(clazz) : new byte[0][]);
+                    continue;
+                }
+                for (String family : diff.getMissingFamilies()) {
+                    LOG.info("Adding family {} to table {}", family, table.getTableName());
+                    admin.addColumnFamily(table.getTableName(), table.getColumnFamily(Bytes.toBytes(family)));
+                }
+                if (diff.getChangedFamilies().isEmpty()) {
+                    continue;
+                }
+                // only the entity table has managed settings, the families of index tables are never changed
+                final TableDescriptor live = admin.getDescriptor(table.getTableName());
+                for (String family : diff.getChangedFamilies().keySet()) {
+                    LOG.info("Modifying family {} of table {}: {}", family, table.getTableName(),
+                            diff.getChangedFamilies().get(family));
+                    admin.modifyColumnFamily(table.getTableName(), family(
+                            ColumnFamilyDescriptorBuilder.newBuilder(live.getColumnFamily(Bytes.toBytes(family))),
+                            family, settings.get(family), versioned.contains(family)));
+                }
+            }
+            return diffs;
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Error while updating the tables of %s", clazz), e);
+        }
+    }
+
+    private boolean create(Admin admin, TableDescriptor table, byte[][] splitKeys) throws IOException {
+        if (admin.tableExists(table.getTableName())) {
+            return false;
+        }
+        LOG.info("Creating table {} with {} regions", table.getTableName(), splitKeys.length + 1);
+        if (splitKeys.length == 0) {
+            admin.createTable(table);
+        } else {
+            admin.createTable(table, splitKeys);
+        }
+        return true;
+    }
+
+    private static void createNamespace(Admin admin, String namespace) throws IOException {
+        if (NamespaceDescriptor.DEFAULT_NAMESPACE_NAME_STR.equals(namespace)) {
+            return;
+        }
+        final boolean exists = Arrays.stream(admin.listNamespaceDescriptors())
+                .anyMatch(n -> n.getName().equals(namespace));
+        if (!exists) {
+            LOG.info("Creating namespace {}", namespace);
+            admin.createNamespace(NamespaceDescriptor.create(namespace).build());
+        }
+    }
+
+    /**
+     * @param settings  The {@link HFamily} per family name, only their settings are compared.
+     * @param versioned The families of versioned columns, their versions are compared.
+     */
+    private static SchemaDiff diff(Admin admin, TableDescriptor expected, Map<String, HFamily> settings,
+                                   Set<String> versioned) throws IOException {
+        if (!admin.tableExists(expected.getTableName())) {
+            return new SchemaDiff(expected.getTableName(), true);
+        }
+        final TableDescriptor live = admin.getDescriptor(expected.getTableName());
+        final SchemaDiff diff = new SchemaDiff(expected.getTableName(), false);
+        for (ColumnFamilyDescriptor family : expected.getColumnFamilies()) {
+            final ColumnFamilyDescriptor current = live.getColumnFamily(family.getName());
+            if (current == null) {
+                diff.missingFamily(family.getNameAsString());
+                continue;
+            }
+            if (settings.containsKey(family.getNameAsString())) {
+                compare(diff, family, "bloom", current.getBloomFilterType(), family.getBloomFilterType());
+                compare(diff, family, "encoding", current.getDataBlockEncoding(), family.getDataBlockEncoding());
+                compare(diff, family, "compression", current.getCompressionType(), family.getCompressionType());
+                compare(diff, family, "blockSize", current.getBlocksize(), family.getBlocksize());
+            }
+            if (settings.containsKey(family.getNameAsString()) || versioned.contains(family.getNameAsString())) {
+                compare(diff, family, "maxVersions", current.getMaxVersions(), family.getMaxVersions());
+            }
+        }
+        for (ColumnFamilyDescriptor family : live.getColumnFamilies()) {
+            if (!expected.hasColumnFamily(family.getName())) {
+                diff.extraFamily(family.getNameAsString());
+            }
+        }
+        return diff;
+    }
+
+    private static void compare(SchemaDiff diff, ColumnFamilyDescriptor family, String setting, Object live,
+                                Object expected) {
+        if (!Objects.equals(live, expected)) {
+            diff.changed(family.getNameAsString(), setting, live, expected);
+        }
+    }
+
+    private List<TableDescriptor> indexDescriptors(EntityClassModel<?> m) {
+        final List<TableDescriptor> tables = new ArrayList<>();
+        for (IndexMeta<?> index : m.getIndexes()) {
+            tables.add(TableDescriptorBuilder.newBuilder(tableName(index.getTableName()))
+                    .setColumnFamily(ColumnFamilyDescriptorBuilder.of(m.getFamily()))
+                    .build());
+        }
+        return tables;
+    }
+
+    /**
+     * @return The settings by family name, every annotated family must be a family of the entity.
+     */
+    private static Map<String, HFamily> familySettings(EntityClassModel<?> m) {
+        final Map<String, HFamily> settings = new TreeMap<>();
+        for (HFamily family : m.getEntityType().getAnnotationsByType(HFamily.class)) {
+            checkArgument(Arrays.stream(m.getFamilies()).anyMatch(f -> Bytes.toString(f).equals(family.name())),
+                    "Family %s of %s is not mapped by any column", family.name(), m.getEntityType());
+            checkArgument(settings.put(family.name(), family) == null, "Family %s of %s is annotated twice",
+                    family.name(), m.getEntityType());
+        }
+        return settings;
+    }
+
+    /**
+     * Apply the managed settings of a family, every other setting of the builder is kept.
+     *
+     * @param family    A builder of a new family or of the live family that is modified.
+     * @param name      The name of the family.
+     * @param settings  The annotated settings or null.
+     * @param versioned True when the family holds versioned columns.
+     */
+    private static ColumnFamilyDescriptor family(ColumnFamilyDescriptorBuilder family, String name, HFamily settings,
+                                                 boolean versioned) {
+        if (settings == null) {
+            if (versioned) {
+                family.setMaxVersions(VERSIONED_MAX_VERSIONS);
+            }
+            return family.build();
+        }
+        checkArgument(settings.blockSize() > 0, "Invalid block size %s of family %s", settings.blockSize(), name);
+        checkArgument(settings.maxVersions() > (versioned ? 1 : 0),
+                "Invalid max versions %s of family %s, a family of versioned columns keeps more than one",
+                settings.maxVersions(), name);
+        return family
+                .setBloomFilterType(settings.bloom())
+                .setDataBlockEncoding(settings.encoding())
+                .setCompressionType(settings.compression())
+                .setBlocksize(settings.blockSize())
+                .setMaxVersions(settings.maxVersions())
+                .build();
+    }
+
+    private TableName tableName(String tableName) {
+        return TableName.valueOf(tableNameSpace + tableName);
+    }
+}
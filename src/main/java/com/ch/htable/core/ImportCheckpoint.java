@@ -0,0 +1,40 @@
+package com.ch.htable.core;
+
+import java.io.IOException;
+
+/**
+ * Durable position of an import. The offset is the number of source records that have been written, every record
+ * before it is stored and an import that is restarted resumes reading the source at this offset.
+ *
+ * @see FileImportCheckpoint
+ */
+public interface ImportCheckpoint {
+
+    /**
+     * A checkpoint that is never stored, every import starts from the beginning of the source.
+     */
+    ImportCheckpoint NONE = new ImportCheckpoint() {
+        @Override
+        public long load() {
+            return 0;
+        }
+
+        @Override
+        public void commit(long offset) {
+        }
+    };
+
+    /**
+     * @return The last committed offset or 0 when nothing was committed yet.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    long load() throws IOException;
+
+    /**
+     * Store a new offset. Offsets are committed in increasing order.
+     *
+     * @param offset The number of source records that have been written.
+     * @throws IOException If the checkpoint could not be stored.
+     */
+    void commit(long offset) throws IOException;
+}
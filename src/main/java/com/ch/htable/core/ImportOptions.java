@@ -0,0 +1,163 @@
+package com.ch.htable.core;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tuning of an import pipeline. The defaults parse and map on a single thread each, write with two threads and do
+ * not limit the write rate until the region servers push back.
+ *
+ * @see HBaseImportService#importFrom(ImportSource, java.util.function.Function, Class, ImportOptions)
+ */
+public class ImportOptions {
+
+    private int parseThreads = 1;
+    private int mapThreads = 1;
+    private int writeThreads = 2;
+    private int queueCapacity = 1024;
+    private int batchSize = 1000;
+    private double maxRate = Double.POSITIVE_INFINITY;
+    private double minRate = 100;
+    private double rateIncrease = 1000;
+    private int maxRetries = 10;
+    private Duration retryBackoff = Duration.ofMillis(200);
+    private Duration reportInterval = Duration.ofSeconds(10);
+    private ImportCheckpoint checkpoint = ImportCheckpoint.NONE;
+    private Consumer<ImportProgress> listener = p -> {};
+
+    /**
+     * @param parse The number of threads parsing raw records.
+     * @param map   The number of threads mapping entities to mutations.
+     * @param write The number of threads writing batches.
+     * @return These options.
+     */
+    public ImportOptions threads(int parse, int map, int write) {
+        checkArgument(parse > 0 && map > 0 && write > 0, "Every stage needs at least one thread");
+        this.parseThreads = parse;
+        this.mapThreads = map;
+        this.writeThreads = write;
+        return this;
+    }
+
+    /**
+     * @param queueCapacity The number of items buffered between two stages, a full queue blocks the stage before it.
+     * @return These options.
+     */
+    public ImportOptions queueCapacity(int queueCapacity) {
+        checkArgument(queueCapacity > 0, "Invalid queue capacity %s", queueCapacity);
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public ImportOptions batchSize(int batchSize) {
+        checkArgument(batchSize > 0, "Invalid batch size %s", batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Bound the write rate. The rate starts at the maximum, it is halved whenever the region servers push back and
+     * raised by the increase after every report interval without push back.
+     *
+     * @param minRate      The lowest rate in records per second the throttle backs off to.
+     * @param maxRate      The highest rate in records per second, infinite for no limit.
+     * @param rateIncrease The records per second added after an interval without push back.
+     * @return These options.
+     */
+    public ImportOptions rate(double minRate, double maxRate, double rateIncrease) {
+        checkArgument(minRate > 0 && minRate <= maxRate, "Invalid rate range %s - %s", minRate, maxRate);
+        checkArgument(rateIncrease > 0, "Invalid rate increase %s", rateIncrease);
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.rateIncrease = rateIncrease;
+        return this;
+    }
+
+    /**
+     * @param maxRetries   The number of times a batch is retried after push back before the import fails.
+     * @param retryBackoff The pause before the first retry, it grows linearly with every attempt.
+     * @return These options.
+     */
+    public ImportOptions retries(int maxRetries, Duration retryBackoff) {
+        checkArgument(maxRetries >= 0, "Invalid max retries %s", maxRetries);
+        this.maxRetries = maxRetries;
+        this.retryBackoff = checkNotNull(retryBackoff);
+        return this;
+    }
+
+    /**
+     * @param checkpoint Where the committed offset is stored, it is committed every report interval.
+     * @return These options.
+     */
+    public ImportOptions checkpoint(ImportCheckpoint checkpoint) {
+        this.checkpoint = checkNotNull(checkpoint);
+        return this;
+    }
+
+    /**
+     * @param interval How often progress is reported and the checkpoint is committed.
+     * @param listener Receives the progress of the import, it is called once more when the import ends.
+     * @return These options.
+     */
+    public ImportOptions progress(Duration interval, Consumer<ImportProgress> listener) {
+        checkArgument(!interval.isNegative() && !interval.isZero(), "Invalid report interval %s", interval);
+        this.reportInterval = interval;
+        this.listener = checkNotNull(listener);
+        return this;
+    }
+
+    int getParseThreads() {
+        return parseThreads;
+    }
+
+    int getMapThreads() {
+        return mapThreads;
+    }
+
+    int getWriteThreads() {
+        return writeThreads;
+    }
+
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    double getMaxRate() {
+        return maxRate;
+    }
+
+    double getMinRate() {
+        return minRate;
+    }
+
+    double getRateIncrease() {
+        return rateIncrease;
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    Duration getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    Duration getReportInterval() {
+        return reportInterval;
+    }
+
+    ImportCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    Consumer<ImportProgress> getListener() {
+        return listener;
+    }
+}
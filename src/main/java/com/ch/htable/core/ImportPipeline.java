@@ -0,0 +1,452 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.ch.htable.core.HEntityManager.PendingKeys;
+import com.ch.htable.core.HMetrics.Operation;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.hbase.RegionTooBusyException;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RetriesExhaustedException;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * A single run of an import. Records flow through three stages connected by bounded queues, a full queue blocks the
+ * stage in front of it so memory stays bounded when the writes fall behind.
+ * <ol>
+ * <li>parse: raw records are turned into entities by the parser.</li>
+ * <li>map: entities are collected into batches and mapped to puts.</li>
+ * <li>write: batches are written through a rate limiter, push back from the region servers halves the rate and the
+ * batch is retried. The index entries of a batch are written before its rows and the rows are added to the key
+ * filters first, as {@link HEntityManager#saveAll} does.</li>
+ * </ol>
+ * Batches complete out of order, the committed offset is the low watermark below which every record is written.
+ *
+ * @param <R> The raw record type.
+ * @param <V> The entity type.
+ */
+final class ImportPipeline<R, V> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImportPipeline.class);
+
+    /**
+     * How long a map worker waits for more entities before it writes a partial batch.
+     */
+    private static final long LINGER_MILLIS = 100;
+
+    private static final Item<?> END = new Item<>(-1, null);
+    private static final Batch<?> END_BATCH = new Batch<>(new long[0], new ArrayList<>(), new ArrayList<>());
+
+    private final HEntityManager manager;
+    private final EntityClassModel<V> model;
+    private final StorageTable table;
+    private final Function<R, V> parser;
+    private final ImportOptions options;
+
+    private final BlockingQueue<Item<R>> parseQueue;
+    private final BlockingQueue<Item<V>> mapQueue;
+    private final BlockingQueue<Batch<V>> writeQueue;
+    private final AtomicInteger parsers;
+    private final AtomicInteger mappers;
+
+    private final OffsetTracker offsets;
+    private final Throttle throttle;
+    private final AtomicLong read;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final long started = System.nanoTime();
+    private final ExecutorService workers;
+
+    private long lastCommitted;
+    private long lastWritten;
+    private long lastReport = started;
+
+    ImportPipeline(HEntityManager manager, EntityClassModel<V> model, StorageTable table, Function<R, V> parser,
+                   ImportOptions options, long offset) {
+        this.manager = manager;
+        this.model = model;
+        this.table = table;
+        this.parser = parser;
+        this.options = options;
+        this.parseQueue = new ArrayBlockingQueue<>(options.getQueueCapacity());
+        this.mapQueue = new ArrayBlockingQueue<>(options.getQueueCapacity());
+        this.writeQueue = new ArrayBlockingQueue<>(options.getQueueCapacity());
+        this.parsers = new AtomicInteger(options.getParseThreads());
+        this.mappers = new AtomicInteger(options.getMapThreads());
+        this.offsets = new OffsetTracker(offset);
+        this.throttle = new Throttle(options);
+        this.read = new AtomicLong(offset);
+        this.lastCommitted = offset;
+        this.workers = Executors.newFixedThreadPool(
+                1 + options.getParseThreads() + options.getMapThreads() + options.getWriteThreads(),
+                new ThreadFactoryBuilder().setNameFormat("htable-import-" + model.getTableName() + "-%d")
+                        .setDaemon(true).build());
+    }
+
+    /**
+     * Run the import until the source is exhausted or a stage fails. The checkpoint is committed every report
+     * interval and once more when the run ends, also when it failed.
+     *
+     * @param records The records of the source starting at the resume offset.
+     * @return The final progress.
+     */
+    ImportProgress run(Iterator<R> records) {
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("htable-import-reporter-%d").setDaemon(true).build());
+        final long interval = options.getReportInterval().toNanos();
+        reporter.scheduleAtFixedRate(() -> report(true), interval, interval, TimeUnit.NANOSECONDS);
+
+        workers.execute(() -> stage(() -> read(records)));
+        for (int i = 0; i < options.getParseThreads(); i++) {
+            workers.execute(() -> stage(this::parse));
+        }
+        for (int i = 0; i < options.getMapThreads(); i++) {
+            workers.execute(() -> stage(this::map));
+        }
+        for (int i = 0; i < options.getWriteThreads(); i++) {
+            workers.execute(() -> stage(this::write));
+        }
+        workers.shutdown();
+
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOG.debug("Waiting for import of {} to finish", model.getEntityType());
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+            Thread.currentThread().interrupt();
+        } finally {
+            reporter.shutdownNow();
+        }
+
+        final ImportProgress progress = report(false);
+        if (failure.get() != null) {
+            throw new HBaseException(String.format("Import of %s failed, committed offset %s",
+                    model.getEntityType(), progress.getCommitted()), failure.get());
+        }
+        return progress;
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws InterruptedException, IOException;
+    }
+
+    private void stage(Stage stage) {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            // Another stage failed and the pipeline is shutting down.
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure.compareAndSet(null, e)) {
+            LOG.error("Import of {} failed", model.getEntityType(), e);
+            workers.shutdownNow();
+        }
+    }
+
+    private void read(Iterator<R> records) throws InterruptedException {
+        while (records.hasNext()) {
+            parseQueue.put(new Item<>(read.get(), records.next()));
+            read.incrementAndGet();
+        }
+        parseQueue.put(end());
+    }
+
+    private void parse() throws InterruptedException {
+        for (Item<R> item = parseQueue.take(); item != END; item = parseQueue.take()) {
+            mapQueue.put(new Item<>(item.offset, parser.apply(item.value)));
+        }
+        // Let the other parsers see the end, the last one to finish ends the next stage.
+        parseQueue.put(end());
+        if (parsers.decrementAndGet() == 0) {
+            mapQueue.put(end());
+        }
+    }
+
+    private void map() throws InterruptedException {
+        final int batchSize = options.getBatchSize();
+        final List<V> entities = new ArrayList<>(batchSize);
+        final long[] batchOffsets = new long[batchSize];
+
+        for (Item<V> item = mapQueue.poll(LINGER_MILLIS, TimeUnit.MILLISECONDS); item != END;
+             item = mapQueue.poll(LINGER_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (item != null) {
+                batchOffsets[entities.size()] = item.offset;
+                entities.add(item.value);
+            }
+            if (entities.size() == batchSize || (item == null && !entities.isEmpty())) {
+                writeQueue.put(batch(entities, batchOffsets));
+            }
+        }
+        if (!entities.isEmpty()) {
+            writeQueue.put(batch(entities, batchOffsets));
+        }
+        mapQueue.put(end());
+        if (mappers.decrementAndGet() == 0) {
+            writeQueue.put(endBatch());
+        }
+    }
+
+    private Batch<V> batch(List<V> entities, long[] batchOffsets) {
+        final Batch<V> batch = new Batch<>(Arrays.copyOf(batchOffsets, entities.size()),
+                new ArrayList<>(entities), HEntityManager.entityToPut(model, entities));
+        entities.clear();
+        return batch;
+    }
+
+    private void write() throws InterruptedException, IOException {
+        for (Batch<V> batch = writeQueue.take(); batch != END_BATCH; batch = writeQueue.take()) {
+            write(batch);
+            offsets.complete(batch.offsets);
+            written.addAndGet(batch.offsets.length);
+        }
+        writeQueue.put(endBatch());
+    }
+
+    /**
+     * Write a batch, retrying the rows the region servers pushed back on with a growing pause. Every attempt writes
+     * the index entries of its entities before their rows, so a retried row is retried with its index entries.
+     */
+    private void write(Batch<V> batch) throws InterruptedException, IOException {
+        // imports are not metered, the inert timer only satisfies the index writes
+        final OperationTimer timer = OperationTimer.start(HMetrics.NOOP, model.getEntityType(), Operation.SAVE_ALL);
+        Batch<V> pending = batch;
+        for (int attempt = 1; ; attempt++) {
+            throttle.acquire(pending.puts.size());
+            boolean indexed = false;
+            try {
+                manager.putIndexes(model, pending.entities, timer);
+                indexed = true;
+                final PendingKeys keys = manager.keysWritten(model, pending.puts);
+                try {
+                    // the client may remove written puts from the list
+                    table.put(new ArrayList<>(pending.puts));
+                } finally {
+                    keys.close();
+                }
+                return;
+            } catch (RetriesExhaustedWithDetailsException e) {
+                // rejected index entries retry the whole attempt, rejected rows only themselves
+                if (indexed) {
+                    pending = pending.failed(e);
+                }
+                pushBack(e, attempt);
+            } catch (RetriesExhaustedException | RegionTooBusyException e) {
+                pushBack(e, attempt);
+            }
+            Thread.sleep(options.getRetryBackoff().toMillis() * attempt);
+        }
+    }
+
+    private void pushBack(IOException e, int attempt) throws IOException {
+        if (attempt > options.getMaxRetries()) {
+            throw e;
+        }
+        final double seconds = (System.nanoTime() - started) / 1e9;
+        throttle.pushBack(written.get() / Math.max(seconds, 1e-3));
+        LOG.warn("Region servers pushed back on import of {}, rate lowered to {}/s (attempt {}): {}",
+                model.getEntityType(), String.format("%.1f", throttle.getRate()), attempt, e.getMessage());
+    }
+
+    /**
+     * Commit the low watermark and publish the progress.
+     *
+     * @param tick True when called by the reporter, a tick raises the write rate if there was no push back.
+     */
+    private synchronized ImportProgress report(boolean tick) {
+        final long now = System.nanoTime();
+        final long writtenNow = written.get();
+        final double throughput = (writtenNow - lastWritten) / Math.max((now - lastReport) / 1e9, 1e-3);
+        lastWritten = writtenNow;
+        lastReport = now;
+        if (tick) {
+            throttle.tick();
+        }
+
+        final long committed = offsets.getWatermark();
+        if (committed > lastCommitted) {
+            try {
+                options.getCheckpoint().commit(committed);
+                lastCommitted = committed;
+            } catch (IOException e) {
+                LOG.warn("Unable to commit import checkpoint {} of {}", committed, model.getEntityType(), e);
+            }
+        }
+
+        final ImportProgress progress = new ImportProgress(read.get(), writtenNow, lastCommitted,
+                throttle.getThrottled(), throughput, throttle.getRate(),
+                parseQueue.size(), mapQueue.size(), writeQueue.size());
+        LOG.info("Import of {}: {}", model.getEntityType(), progress);
+        options.getListener().accept(progress);
+        return progress;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Item<T> end() {
+        return (Item<T>) END;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Batch<T> endBatch() {
+        return (Batch<T>) END_BATCH;
+    }
+
+    private static final class Item<T> {
+
+        private final long offset;
+        private final T value;
+
+        private Item(long offset, T value) {
+            this.offset = offset;
+            this.value = value;
+        }
+    }
+
+    private static final class Batch<V> {
+
+        private final long[] offsets;
+        private final List<V> entities;
+        private final List<Put> puts;
+
+        private Batch(long[] offsets, List<V> entities, List<Put> puts) {
+            this.offsets = offsets;
+            this.entities = entities;
+            this.puts = puts;
+        }
+
+        /**
+         * @return The rows of this batch the region servers rejected together with their entities.
+         */
+        private Batch<V> failed(RetriesExhaustedWithDetailsException e) {
+            final Map<Put, V> entityOf = new IdentityHashMap<>(puts.size());
+            for (int i = 0; i < puts.size(); i++) {
+                entityOf.put(puts.get(i), entities.get(i));
+            }
+            final List<V> failedEntities = new ArrayList<>(e.getNumExceptions());
+            final List<Put> failedPuts = new ArrayList<>(e.getNumExceptions());
+            for (int i = 0; i < e.getNumExceptions(); i++) {
+                final Put put = (Put) e.getRow(i);
+                failedEntities.add(entityOf.get(put));
+                failedPuts.add(put);
+            }
+            return new Batch<>(offsets, failedEntities, failedPuts);
+        }
+    }
+
+    /**
+     * Tracks the written offsets, completed offsets above the watermark are kept in a bit set until the gap
+     * below them is filled.
+     */
+    static final class OffsetTracker {
+
+        private long watermark;
+        private BitSet completed = new BitSet();
+
+        OffsetTracker(long watermark) {
+            this.watermark = watermark;
+        }
+
+        synchronized void complete(long... offsets) {
+            for (long offset : offsets) {
+                completed.set(Math.toIntExact(offset - watermark));
+            }
+            final int contiguous = completed.nextClearBit(0);
+            if (contiguous > 0) {
+                watermark += contiguous;
+                completed = completed.get(contiguous, Math.max(contiguous, completed.length()));
+            }
+        }
+
+        synchronized long getWatermark() {
+            return watermark;
+        }
+    }
+
+    /**
+     * Additive increase, multiplicative decrease of the write rate. The rate is cut in half at most once per
+     * second so a burst of rejected batches does not collapse it.
+     */
+    private static final class Throttle {
+
+        private static final long DECREASE_WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+        private final RateLimiter limiter;
+        private final double minRate;
+        private final double maxRate;
+        private final double increase;
+        private final AtomicLong throttled = new AtomicLong();
+        private long lastDecrease = System.nanoTime() - DECREASE_WINDOW;
+        private boolean pushedBack;
+
+        private Throttle(ImportOptions options) {
+            this.limiter = RateLimiter.create(options.getMaxRate());
+            this.minRate = options.getMinRate();
+            this.maxRate = options.getMaxRate();
+            this.increase = options.getRateIncrease();
+        }
+
+        void acquire(int permits) {
+            if (permits > 0) {
+                limiter.acquire(permits);
+            }
+        }
+
+        /**
+         * @param observed The observed throughput, used as the base when the rate is not limited yet.
+         */
+        synchronized void pushBack(double observed) {
+            throttled.incrementAndGet();
+            pushedBack = true;
+            final long now = System.nanoTime();
+            if (now - lastDecrease >= DECREASE_WINDOW) {
+                final double rate = limiter.getRate();
+                final double base = Double.isInfinite(rate) ? observed : rate;
+                limiter.setRate(Math.max(minRate, base / 2));
+                lastDecrease = now;
+            }
+        }
+
+        synchronized void tick() {
+            final double rate = limiter.getRate();
+            if (!pushedBack && rate < maxRate) {
+                limiter.setRate(Math.min(maxRate, rate + increase));
+            }
+            pushedBack = false;
+        }
+
+        double getRate() {
+            return limiter.getRate();
+        }
+
+        long getThrottled() {
+            return throttled.get();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.ch.htable.core;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A snapshot of a running or finished import.
+ */
+public class ImportProgress {
+
+    private final long read;
+    private final long written;
+    private final long committed;
+    private final long throttled;
+    private final double throughput;
+    private final double rate;
+    private final int parseQueue;
+    private final int mapQueue;
+    private final int writeQueue;
+
+    ImportProgress(long read, long written, long committed, long throttled, double throughput, double rate,
+                   int parseQueue, int mapQueue, int writeQueue) {
+        this.read = read;
+        this.written = written;
+        this.committed = committed;
+        this.throttled = throttled;
+        this.throughput = throughput;
+        this.rate = rate;
+        this.parseQueue = parseQueue;
+        this.mapQueue = mapQueue;
+        this.writeQueue = writeQueue;
+    }
+
+    /**
+     * @return The offset of the next record to read from the source.
+     */
+    public long getRead() {
+        return read;
+    }
+
+    /**
+     * @return The number of records written by this run, resumed records are not counted.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return The committed offset, every record before it is stored.
+     */
+    public long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return The number of records that are read but not committed yet.
+     */
+    public long getLag() {
+        return read - committed;
+    }
+
+    /**
+     * @return The number of times the region servers pushed back.
+     */
+    public long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return Records written per second during the last report interval.
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @return The current write rate limit in records per second.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public int getParseQueue() {
+        return parseQueue;
+    }
+
+    public int getMapQueue() {
+        return mapQueue;
+    }
+
+    public int getWriteQueue() {
+        return writeQueue;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("read", read)
+                .add("written", written)
+                .add("committed", committed)
+                .add("lag", getLag())
+                .add("throttled", throttled)
+                .add("throughput", String.format("%.1f/s", throughput))
+                .add("rate", String.format("%.1f/s", rate))
+                .add("queues", parseQueue + "/" + mapQueue + "/" + writeQueue)
+                .toString();
+    }
+}
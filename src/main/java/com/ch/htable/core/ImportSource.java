@@ -0,0 +1,49 @@
+package com.ch.htable.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The raw records of an import. A source must be replayable, an import that resumes from a checkpoint opens the
+ * source again at the committed offset and the records must come back in the same order.
+ *
+ * @param <R> The raw record type.
+ */
+@FunctionalInterface
+public interface ImportSource<R> {
+
+    /**
+     * Open the source at an offset. The stream is closed by the import.
+     *
+     * @param offset The number of records to skip.
+     * @return The records starting at the offset.
+     * @throws IOException If the source could not be opened.
+     */
+    Stream<R> open(long offset) throws IOException;
+
+    /**
+     * A source that skips already imported records of a stream. The supplier must return a new stream with the same
+     * records every time it is called.
+     *
+     * @param records Supplier of the record stream.
+     * @param <R>     The raw record type.
+     * @return The source.
+     */
+    static <R> ImportSource<R> of(Supplier<Stream<R>> records) {
+        return offset -> records.get().sequential().skip(offset);
+    }
+
+    /**
+     * A source that reads the lines of a UTF-8 text file.
+     *
+     * @param file The file to read.
+     * @return The source.
+     */
+    static ImportSource<String> lines(Path file) {
+        return offset -> Files.lines(file, StandardCharsets.UTF_8).skip(offset);
+    }
+}
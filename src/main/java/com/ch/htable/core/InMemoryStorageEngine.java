@@ -0,0 +1,66 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.TableName;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An embedded {@link StorageEngine} that keeps every table in a {@link java.util.concurrent.ConcurrentSkipListMap}
+ * ordered by the unsigned byte order of the row keys, the same order hbase uses. Reads honor column projections,
+ * time ranges, versions and hbase filters so entity code behaves the same as it does against a cluster. This is
+ * useful as a local low latency cache tier, for unit tests and for benchmarks that should not need a cluster.
+ * <p>
+ * Tables are created on first use and live as long as the engine. Nothing is persisted.
+ */
+public class InMemoryStorageEngine implements StorageEngine {
+
+    private final ConcurrentHashMap<TableName, InMemoryTable> tables = new ConcurrentHashMap<>();
+    private final int maxVersions;
+
+    /**
+     * Create an engine that keeps a single version of every cell, the hbase default.
+     */
+    public InMemoryStorageEngine() {
+        this(1);
+    }
+
+    /**
+     * @param maxVersions The number of versions that are retained for every cell.
+     */
+    public InMemoryStorageEngine(int maxVersions) {
+        checkArgument(maxVersions > 0, "Invalid max versions %s, at least one version must be kept", maxVersions);
+        this.maxVersions = maxVersions;
+    }
+
+    @Override
+    public StorageTable getTable(TableName tableName) {
+        return tables.computeIfAbsent(tableName, n -> new InMemoryTable(n, maxVersions));
+    }
+
+    /**
+     * Declare virtual region boundaries for a table. The rows are not moved, this only changes the start keys
+     * reported by the table so per region fan out can be exercised without a cluster.
+     *
+     * @param tableName The table to split.
+     * @param splitKeys The region split points, the first region always starts at the empty key.
+     */
+    public void split(TableName tableName, byte[]... splitKeys) {
+        ((InMemoryTable) getTable(tableName)).setSplitKeys(splitKeys);
+    }
+
+    /**
+     * Drop a table and all of its rows.
+     *
+     * @param tableName The table to drop.
+     */
+    public void drop(TableName tableName) {
+        tables.remove(tableName);
+    }
+
+    @Override
+    public void close() {
+        tables.clear();
+    }
+}
@@ -0,0 +1,564 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilder;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.shaded.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * A table of the {@link InMemoryStorageEngine}. Rows live in a concurrent skip list ordered by row key, every row
+ * holds family, qualifier and timestamp ordered maps and is guarded by its own monitor so writers of different rows
+ * never contend. Scanners iterate the skip list lazily, they are weakly consistent like hbase scanners and see
+ * every row that was committed before they reached it.
+ * <p>
+ * Filters are copied through their protobuf form before use, exactly as they would be shipped to a region server,
+ * so a filter instance is never mutated and a filter that can not be serialized fails here as it would on a
+ * cluster.
+ */
+class InMemoryTable implements StorageTable {
+
+    private final TableName name;
+    private final int maxVersions;
+    private final ConcurrentSkipListMap<byte[], Row> rows = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+    private volatile byte[][] startKeys = {HConstants.EMPTY_START_ROW};
+
+    InMemoryTable(TableName name, int maxVersions) {
+        this.name = name;
+        this.maxVersions = maxVersions;
+    }
+
+    @Override
+    public TableName getName() {
+        return name;
+    }
+
+    @Override
+    public Result get(Get get) throws IOException {
+        final Row row = rows.get(get.getRow());
+        final List<Cell> cells = row == null ? null : read(get.getRow(), row, get.getFamilyMap(), get.getTimeRange(),
+                get.getMaxVersions(), copy(get.getFilter()));
+        if (get.isCheckExistenceOnly()) {
+            return Result.create(null, cells != null && !cells.isEmpty());
+        }
+        return cells == null || cells.isEmpty() ? Result.EMPTY_RESULT : Result.create(cells);
+    }
+
+    @Override
+    public Result[] get(List<Get> gets) throws IOException {
+        final Result[] results = new Result[gets.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = get(gets.get(i));
+        }
+        return results;
+    }
+
+    @Override
+    public void put(Put put) {
+        final long now = System.currentTimeMillis();
+        mutate(put.getRow(), row -> {
+            for (List<Cell> cells : put.getFamilyCellMap().values()) {
+                for (Cell c : cells) {
+                    final long ts = c.getTimestamp() == HConstants.LATEST_TIMESTAMP ? now : c.getTimestamp();
+                    final TreeMap<Long, byte[]> versions = row.families
+                            .computeIfAbsent(CellUtil.cloneFamily(c), k -> new TreeMap<>(Bytes.BYTES_COMPARATOR))
+                            .computeIfAbsent(CellUtil.cloneQualifier(c), k -> new TreeMap<>(Comparator.reverseOrder()));
+                    versions.put(ts, CellUtil.cloneValue(c));
+                    while (versions.size() > maxVersions) {
+                        versions.pollLastEntry();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void put(List<Put> puts) {
+        puts.forEach(this::put);
+    }
+
+    @Override
+    public void delete(Delete delete) {
+        final Row row = rows.get(delete.getRow());
+        if (row == null) {
+            return;
+        }
+        synchronized (row) {
+            if (row.removed) {
+                return;
+            }
+            if (delete.getFamilyCellMap().isEmpty()) {
+                removeVersions(row.families.values(), delete.getTimestamp(), false);
+            }
+            for (List<Cell> cells : delete.getFamilyCellMap().values()) {
+                for (Cell c : cells) {
+                    delete(row, c);
+                }
+            }
+            prune(delete.getRow(), row);
+        }
+    }
+
+    @Override
+    public void delete(List<Delete> deletes) {
+        deletes.forEach(this::delete);
+    }
+
+    /**
+     * Counters are validated before any of them is changed so an increment with a cell that is not a long leaves
+     * the row untouched, as it does on a region server.
+     */
+    @Override
+    public Result increment(Increment increment) throws IOException {
+        final long now = System.currentTimeMillis();
+        final CellBuilder builder = CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY);
+        final List<Cell> cells = new ArrayList<>();
+        final String[] invalid = new String[1];
+        mutate(increment.getRow(), row -> {
+            for (List<Cell> deltas : increment.getFamilyCellMap().values()) {
+                for (Cell c : deltas) {
+                    final byte[] current = latest(row, c);
+                    if (current != null && current.length != Bytes.SIZEOF_LONG) {
+                        invalid[0] = Bytes.toStringBinary(CellUtil.cloneQualifier(c));
+                        return;
+                    }
+                }
+            }
+            for (List<Cell> deltas : increment.getFamilyCellMap().values()) {
+                for (Cell c : deltas) {
+                    final byte[] current = latest(row, c);
+                    final long value = (current == null ? 0 : Bytes.toLong(current)) + Bytes.toLong(CellUtil.cloneValue(c));
+                    final TreeMap<Long, byte[]> versions = row.families
+                            .computeIfAbsent(CellUtil.cloneFamily(c), k -> new TreeMap<>(Bytes.BYTES_COMPARATOR))
+                            .computeIfAbsent(CellUtil.cloneQualifier(c), k -> new TreeMap<>(Comparator.reverseOrder()));
+                    versions.put(now, Bytes.toBytes(value));
+                    while (versions.size() > maxVersions) {
+                        versions.pollLastEntry();
+                    }
+                    cells.add(builder.clear()
+                            .setRow(increment.getRow())
+                            .setFamily(CellUtil.cloneFamily(c))
+                            .setQualifier(CellUtil.cloneQualifier(c))
+                            .setTimestamp(now)
+                            .setType(Cell.Type.Put)
+                            .setValue(Bytes.toBytes(value))
+                            .build());
+                }
+            }
+        });
+        if (invalid[0] != null) {
+            throw new DoNotRetryIOException(String.format("Column %s of row %s is not an eight byte long", invalid[0],
+                    Bytes.toStringBinary(increment.getRow())));
+        }
+        return increment.isReturnResults() ? Result.create(cells) : Result.EMPTY_RESULT;
+    }
+
+    @Override
+    public Result[] increment(List<Increment> increments) throws IOException {
+        final Result[] results = new Result[increments.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = increment(increments.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * The actions are applied one after the other, a failed action does not stop the batch.
+     */
+    @Override
+    public void batch(List<? extends org.apache.hadoop.hbase.client.Row> actions, Object[] results) throws IOException {
+        final List<Throwable> causes = new ArrayList<>();
+        final List<org.apache.hadoop.hbase.client.Row> failed = new ArrayList<>();
+        for (int i = 0; i < actions.size(); i++) {
+            final org.apache.hadoop.hbase.client.Row action = actions.get(i);
+            try {
+                if (action instanceof Put) {
+                    put((Put) action);
+                    results[i] = Result.EMPTY_RESULT;
+                } else if (action instanceof Delete) {
+                    delete((Delete) action);
+                    results[i] = Result.EMPTY_RESULT;
+                } else if (action instanceof Increment) {
+                    results[i] = increment((Increment) action);
+                } else {
+                    throw new DoNotRetryIOException("Unsupported batch action " + action.getClass().getSimpleName());
+                }
+            } catch (IOException e) {
+                results[i] = e;
+                causes.add(e);
+                failed.add(action);
+            }
+        }
+        if (!causes.isEmpty()) {
+            throw new RetriesExhaustedWithDetailsException(causes, failed,
+                    Collections.nCopies(causes.size(), name.getNameAsString()));
+        }
+    }
+
+    private static byte[] latest(Row row, Cell c) {
+        final TreeMap<byte[], TreeMap<Long, byte[]>> qualifiers = row.families.get(CellUtil.cloneFamily(c));
+        final TreeMap<Long, byte[]> versions = qualifiers == null ? null : qualifiers.get(CellUtil.cloneQualifier(c));
+        return versions == null || versions.isEmpty() ? null : versions.firstEntry().getValue();
+    }
+
+    @Override
+    public ResultScanner getScanner(Scan scan) throws IOException {
+        return new InMemoryScanner(scan, range(scan).entrySet().iterator(), copy(scan.getFilter()));
+    }
+
+    /**
+     * The table is a single region unless it was split with {@link InMemoryStorageEngine#split(TableName, byte[]...)}.
+     * Regions only affect how operations fan out, the rows are always kept in one map.
+     */
+    @Override
+    public byte[][] getStartKeys() {
+        return startKeys.clone();
+    }
+
+    void setSplitKeys(byte[][] splitKeys) {
+        final byte[][] keys = new byte[splitKeys.length + 1][];
+        keys[0] = HConstants.EMPTY_START_ROW;
+        System.arraycopy(splitKeys, 0, keys, 1, splitKeys.length);
+        Arrays.sort(keys, Bytes.BYTES_COMPARATOR);
+        this.startKeys = keys;
+    }
+
+    /**
+     * The tables are shared by every handle of the engine so there is nothing to release.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return The number of rows currently stored.
+     */
+    int size() {
+        return rows.size();
+    }
+
+    private NavigableMap<byte[], Row> range(Scan scan) {
+        final byte[] start = scan.getStartRow();
+        final byte[] stop = scan.getStopRow();
+        NavigableMap<byte[], Row> range = scan.isReversed() ? rows.descendingMap() : rows;
+        if (start.length > 0) {
+            range = range.tailMap(start, scan.includeStartRow());
+        }
+        if (stop.length > 0) {
+            range = range.headMap(stop, scan.includeStopRow());
+        }
+        return range;
+    }
+
+    /**
+     * Apply a mutation to a row, creating the row when it does not exist yet. A row that lost all of its cells
+     * is unlinked from the table and flagged so a writer that raced with the unlink retries on a fresh row.
+     */
+    private void mutate(byte[] key, Consumer<Row> mutation) {
+        while (true) {
+            Row row = rows.get(key);
+            if (row == null) {
+                final Row created = new Row();
+                row = rows.putIfAbsent(key.clone(), created);
+                if (row == null) {
+                    row = created;
+                }
+            }
+            synchronized (row) {
+                if (row.removed) {
+                    continue;
+                }
+                mutation.accept(row);
+                prune(key, row);
+                return;
+            }
+        }
+    }
+
+    private void prune(byte[] key, Row row) {
+        row.families.values().removeIf(qualifiers -> {
+            qualifiers.values().removeIf(Map::isEmpty);
+            return qualifiers.isEmpty();
+        });
+        if (row.families.isEmpty()) {
+            row.removed = true;
+            rows.remove(key, row);
+        }
+    }
+
+    private static void delete(Row row, Cell c) {
+        final TreeMap<byte[], TreeMap<Long, byte[]>> family = row.families.get(CellUtil.cloneFamily(c));
+        if (family == null) {
+            return;
+        }
+        final long ts = c.getTimestamp();
+        switch (c.getType()) {
+            case DeleteFamily:
+                removeVersions(Collections.singleton(family), ts, false);
+                break;
+            case DeleteFamilyVersion:
+                removeVersions(Collections.singleton(family), ts, true);
+                break;
+            case DeleteColumn:
+            case Delete:
+                final TreeMap<Long, byte[]> versions = family.get(CellUtil.cloneQualifier(c));
+                if (versions == null || versions.isEmpty()) {
+                    break;
+                }
+                if (c.getType() == Cell.Type.DeleteColumn) {
+                    versions.tailMap(ts, true).clear();
+                } else if (ts == HConstants.LATEST_TIMESTAMP) {
+                    versions.pollFirstEntry();
+                } else {
+                    versions.remove(ts);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported delete type %s", c.getType()));
+        }
+    }
+
+    /**
+     * Remove the versions older than or equal to the timestamp, or exactly at the timestamp, from every column
+     * of the families.
+     */
+    private static void removeVersions(Collection<TreeMap<byte[], TreeMap<Long, byte[]>>> families, long ts,
+                                       boolean exact) {
+        for (TreeMap<byte[], TreeMap<Long, byte[]>> family : families) {
+            for (TreeMap<Long, byte[]> versions : family.values()) {
+                if (exact) {
+                    versions.remove(ts);
+                } else {
+                    versions.tailMap(ts, true).clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the visible cells of a row in hbase cell order.
+     *
+     * @return The cells that passed the projection and the filter, null when the filter excluded the row.
+     */
+    private static List<Cell> read(byte[] key, Row row, Map<byte[], NavigableSet<byte[]>> columns,
+                                   TimeRange timeRange, int versions, Filter filter) throws IOException {
+        final CellBuilder builder = CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY);
+        final List<Cell> cells = new ArrayList<>();
+        synchronized (row) {
+            for (Map.Entry<byte[], TreeMap<byte[], TreeMap<Long, byte[]>>> f : row.families.entrySet()) {
+                final NavigableSet<byte[]> qualifiers = columns.isEmpty() ? null : columns.get(f.getKey());
+                if (!columns.isEmpty() && !columns.containsKey(f.getKey())) {
+                    continue;
+                }
+                if (qualifiers == null || qualifiers.isEmpty()) {
+                    for (Map.Entry<byte[], TreeMap<Long, byte[]>> q : f.getValue().entrySet()) {
+                        versions(builder, cells, key, f.getKey(), q.getKey(), q.getValue(), timeRange, versions);
+                    }
+                } else {
+                    for (byte[] q : qualifiers) {
+                        final TreeMap<Long, byte[]> values = f.getValue().get(q);
+                        if (values != null) {
+                            versions(builder, cells, key, f.getKey(), q, values, timeRange, versions);
+                        }
+                    }
+                }
+            }
+        }
+        return filter == null || cells.isEmpty() ? cells : filter(cells, filter);
+    }
+
+    private static void versions(CellBuilder builder, List<Cell> cells, byte[] key, byte[] family, byte[] qualifier,
+                                 TreeMap<Long, byte[]> values, TimeRange timeRange, int versions) {
+        int count = 0;
+        for (Map.Entry<Long, byte[]> v : values.entrySet()) {
+            if (count >= versions) {
+                return;
+            }
+            if (timeRange.withinTimeRange(v.getKey())) {
+                cells.add(builder.clear()
+                        .setRow(key)
+                        .setFamily(family)
+                        .setQualifier(qualifier)
+                        .setTimestamp(v.getKey())
+                        .setType(Cell.Type.Put)
+                        .setValue(v.getValue())
+                        .build());
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Run the cells of a single row through a filter following the same protocol a region server uses.
+     *
+     * @return The cells that were included, null when the filter excluded the whole row.
+     */
+    private static List<Cell> filter(List<Cell> cells, Filter filter) throws IOException {
+        filter.reset();
+        if (filter.filterRowKey(cells.get(0))) {
+            return null;
+        }
+        final CellComparator comparator = CellComparator.getInstance();
+        final List<Cell> included = new ArrayList<>(cells.size());
+        Cell hint = null;
+        Cell skipColumn = null;
+        scan:
+        for (Cell c : cells) {
+            if (hint != null) {
+                if (comparator.compare(c, hint) < 0) {
+                    continue;
+                }
+                hint = null;
+            }
+            if (skipColumn != null) {
+                if (CellUtil.matchingColumn(c, skipColumn)) {
+                    continue;
+                }
+                skipColumn = null;
+            }
+            switch (filter.filterCell(c)) {
+                case INCLUDE:
+                    included.add(filter.transformCell(c));
+                    break;
+                case INCLUDE_AND_NEXT_COL:
+                    included.add(filter.transformCell(c));
+                    skipColumn = c;
+                    break;
+                case INCLUDE_AND_SEEK_NEXT_ROW:
+                    included.add(filter.transformCell(c));
+                    break scan;
+                case NEXT_COL:
+                    skipColumn = c;
+                    break;
+                case NEXT_ROW:
+                    break scan;
+                case SEEK_NEXT_USING_HINT:
+                    hint = filter.getNextCellHint(c);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (filter.hasFilterRow()) {
+            filter.filterRowCells(included);
+            if (filter.filterRow()) {
+                return null;
+            }
+        }
+        return included.isEmpty() ? null : included;
+    }
+
+    private static Filter copy(Filter filter) throws IOException {
+        return filter == null ? null : ProtobufUtil.toFilter(ProtobufUtil.toFilter(filter));
+    }
+
+    /**
+     * Lazy scanner over a range of the skip list. When the scan has a batch size a row with more cells than the
+     * batch is returned as several partial results.
+     */
+    private static final class InMemoryScanner implements ResultScanner {
+
+        private final Scan scan;
+        private final Iterator<Map.Entry<byte[], Row>> rows;
+        private final Filter filter;
+        private final Deque<Result> partials = new ArrayDeque<>();
+        private final ScanMetrics scanMetrics;
+        private int returned;
+        private volatile boolean closed;
+
+        InMemoryScanner(Scan scan, Iterator<Map.Entry<byte[], Row>> rows, Filter filter) {
+            this.scan = scan;
+            this.rows = rows;
+            this.filter = filter;
+            this.scanMetrics = scan.isScanMetricsEnabled() ? new ScanMetrics() : null;
+            if (scanMetrics != null) {
+                scanMetrics.countOfRegions.incrementAndGet();
+            }
+        }
+
+        @Override
+        public Result next() throws IOException {
+            if (!partials.isEmpty()) {
+                return partials.poll();
+            }
+            while (!closed && rows.hasNext()) {
+                if (scan.getLimit() > 0 && returned >= scan.getLimit()) {
+                    return null;
+                }
+                if (filter != null && filter.filterAllRemaining()) {
+                    return null;
+                }
+                final Map.Entry<byte[], Row> row = rows.next();
+                final List<Cell> cells = read(row.getKey(), row.getValue(), scan.getFamilyMap(), scan.getTimeRange(),
+                        scan.getMaxVersions(), filter);
+                if (scanMetrics != null) {
+                    scanMetrics.countOfRowsScanned.incrementAndGet();
+                }
+                if (cells == null || cells.isEmpty()) {
+                    if (scanMetrics != null) {
+                        scanMetrics.countOfRowsFiltered.incrementAndGet();
+                    }
+                    continue;
+                }
+                returned++;
+                final Result result = batch(cells);
+                if (scanMetrics != null) {
+                    scanMetrics.countOfBytesInResults.addAndGet(Result.getTotalSizeOfCells(result));
+                }
+                return result;
+            }
+            return null;
+        }
+
+        private Result batch(List<Cell> cells) {
+            final int batch = scan.getBatch();
+            if (batch <= 0 || cells.size() <= batch) {
+                return Result.create(cells);
+            }
+            for (int from = 0; from < cells.size(); from += batch) {
+                final int to = Math.min(cells.size(), from + batch);
+                partials.add(Result.create(cells.subList(from, to), null, false, to < cells.size()));
+            }
+            return partials.poll();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean renewLease() {
+            return !closed;
+        }
+
+        @Override
+        public ScanMetrics getScanMetrics() {
+            return scanMetrics;
+        }
+    }
+
+    /**
+     * A single row, family to qualifier to timestamp (newest first) to value.
+     */
+    private static final class Row {
+        private final TreeMap<byte[], TreeMap<byte[], TreeMap<Long, byte[]>>> families =
+                new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        private boolean removed;
+    }
+}
@@ -0,0 +1,279 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.ch.htable.core.HEntityManager.PendingKeys;
+import com.ch.htable.core.HMetrics.Operation;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Coalesces increments of {@link com.ch.htable.annotations.HCounter} columns on the client. Increments of the same
+ * row and counter are summed in memory and written as a single cell, the counters of a row share one
+ * {@link Increment} and the rows of a flush are sent as one batch. The buffer is flushed when it holds the maximum
+ * number of distinct counters, when the window elapses and when it is closed.
+ * <p>
+ * A flush that fails puts the deltas that were not applied back into the buffer so they are retried by the next
+ * flush. The deltas of a batch that failed without reporting which rows were applied are dropped rather than risk
+ * adding them twice. The buffer is thread safe, adds only contend on the counter they change.
+ *
+ * @param <T> The entity type.
+ */
+public class IncrementBuffer<T> implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementBuffer.class);
+
+    private static final int MAX_BATCH_SIZE = 0xFFF;
+
+    private final HEntityManager manager;
+    private final EntityClassModel<T> model;
+    private final int maxPending;
+    private final Duration window;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Adds hold the read lock, a flush takes the write lock only to swap the pending map.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile ConcurrentHashMap<Key, LongAdder> pending = new ConcurrentHashMap<>();
+    private boolean closed;
+
+    private final LongAdder added = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder rpcs = new LongAdder();
+
+    IncrementBuffer(HEntityManager manager, EntityClassModel<T> model, int maxPending, Duration window) {
+        checkArgument(maxPending > 0, "Invalid max pending %s", maxPending);
+        checkArgument(!window.isNegative() && !window.isZero(), "Invalid window %s", window);
+        this.manager = manager;
+        this.model = model;
+        this.maxPending = maxPending;
+        this.window = window;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("htable-increment-" + model.getTableName() + "-%d").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::flushWindow, window.toNanos(), window.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Add to a counter. The increment is written by a later flush.
+     *
+     * @param id      The row key of the entity.
+     * @param counter Getter reference of the counter column.
+     * @param delta   The amount to add, negative to subtract.
+     */
+    public void add(String id, ColumnRef<T, Long> counter, long delta) {
+        final ColumnMeta<Long> column = HEntityManager.counterColumn(model, counter);
+        final int size;
+        lock.readLock().lock();
+        try {
+            checkState(!closed, "Increment buffer of %s is closed", model.getEntityType());
+            final ConcurrentHashMap<Key, LongAdder> p = pending;
+            p.computeIfAbsent(new Key(id, column), k -> new LongAdder()).add(delta);
+            size = p.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+        added.increment();
+        if (size >= maxPending) {
+            flush();
+        }
+    }
+
+    /**
+     * Write every pending increment.
+     *
+     * @throws HBaseException If the increments could not be written. The increments that were not applied stay
+     *                        buffered, those of a batch that failed without reporting its rows are not retried.
+     */
+    public void flush() {
+        final Map<Key, LongAdder> batch;
+        lock.writeLock().lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ConcurrentHashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        final Map<String, Increment> rows = new LinkedHashMap<>();
+        batch.forEach((k, v) -> {
+            final long delta = v.sum();
+            if (delta != 0) {
+                rows.computeIfAbsent(k.row, r -> new Increment(Bytes.toBytes(r)).setReturnResults(false))
+                        .addColumn(k.column.getFamily(), k.column.getQualifier(), delta);
+            }
+        });
+        write(new ArrayList<>(rows.values()));
+    }
+
+    private void flushWindow() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.warn("Flush of increments of {} failed, retrying in {}", model.getEntityType(), window, e);
+        }
+    }
+
+    private void write(List<Increment> increments) {
+        final OperationTimer timer = OperationTimer.start(manager.getMetrics(), model.getEntityType(), Operation.INCREMENT);
+        final List<List<Increment>> batches = Lists.partition(increments, MAX_BATCH_SIZE);
+        // the number of batches handed to the table, the batches after them were not sent
+        int sent = 0;
+        try (StorageTable table = manager.getTable(model)) {
+            final PendingKeys keys = manager.keysWritten(model, increments);
+            try {
+                for (List<Increment> b : batches) {
+                    sent++;
+                    final long mark = timer.mark();
+                    table.increment(b);
+                    timer.rpc(mark);
+                    timer.mutations(b);
+                    rpcs.increment();
+                    b.forEach(i -> written.add(i.size()));
+                }
+            } finally {
+                keys.close();
+            }
+            timer.succeeded();
+        } catch (RetriesExhaustedWithDetailsException e) {
+            for (int i = 0; i < e.getNumExceptions(); i++) {
+                restore((Increment) e.getRow(i));
+            }
+            batches.subList(sent, batches.size()).forEach(b -> b.forEach(this::restore));
+            throw new HBaseException(String.format("Error while incrementing counters of %s", model.getEntityType()), e);
+        } catch (IOException e) {
+            // the failed batch may have been applied in part, only the batches that were not sent are retried
+            batches.subList(sent, batches.size()).forEach(b -> b.forEach(this::restore));
+            throw new HBaseException(String.format("Error while incrementing counters of %s", model.getEntityType()), e);
+        } finally {
+            timer.finish();
+        }
+        LOG.debug("Flushed {} increments of {}, coalescing ratio {}", increments.size(), model.getEntityType(),
+                getCoalescingRatio());
+    }
+
+    /**
+     * Put the deltas of an increment that was not written back into the buffer. This ignores the closed flag so
+     * a failed final flush can still be retried.
+     */
+    private void restore(Increment increment) {
+        final String row = Bytes.toString(increment.getRow());
+        lock.readLock().lock();
+        try {
+            for (List<Cell> cells : increment.getFamilyCellMap().values()) {
+                for (Cell c : cells) {
+                    final ColumnMeta<?> column = model.getColumnOrThrow(Bytes.toString(CellUtil.cloneQualifier(c)));
+                    pending.computeIfAbsent(new Key(row, column), k -> new LongAdder())
+                            .add(Bytes.toLong(CellUtil.cloneValue(c)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of increments added to the buffer.
+     */
+    public long getAdded() {
+        return added.sum();
+    }
+
+    /**
+     * @return The number of counter cells written to the table.
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return The number of batches sent to the table.
+     */
+    public long getRpcs() {
+        return rpcs.sum();
+    }
+
+    /**
+     * @return The number of added increments per written cell, 1 when nothing was coalesced.
+     */
+    public double getCoalescingRatio() {
+        final long w = written.sum();
+        return w == 0 ? 1 : (double) added.sum() / w;
+    }
+
+    /**
+     * Stop the window flushes and write every pending increment. Adds fail once the buffer is closed.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduler.shutdown();
+        try {
+            // a running window flush must finish before the final flush
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private static final class Key {
+
+        private final String row;
+        private final ColumnMeta<?> column;
+
+        private Key(String row, ColumnMeta<?> column) {
+            this.row = row;
+            this.column = column;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return row.equals(key.row) && column == key.column;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * row.hashCode() + System.identityHashCode(column);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.Arrays;
+
+/**
+ * The index of a single column. Every row of the index table is keyed by the length of the encoded column value,
+ * the value and the row key of the entity, {@code [int length][value][row key]}. The length prefix keeps a value
+ * from matching the prefix of a longer value so all entities with a value are found by a prefix scan.
+ *
+ * @param <T> The value type of the indexed column.
+ */
+class IndexMeta<T> {
+
+    private final ColumnMeta<T> column;
+    private final String tableName;
+
+    IndexMeta(ColumnMeta<T> column, String tableName) {
+        this.column = column;
+        this.tableName = tableName;
+    }
+
+    ColumnMeta<T> getColumn() {
+        return column;
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @param value The column value.
+     * @return The encoded value, the same bytes that are stored in the entity column.
+     */
+    byte[] encode(T value) {
+        return column.converter().toBytes(column.getValueAccessor().getterType(), value);
+    }
+
+    /**
+     * @param entity The entity to index.
+     * @return The encoded column value of the entity or null when the entity has no value, null values are not
+     * indexed.
+     */
+    byte[] encodeEntity(Object entity) {
+        return column.getValueAccessor().getValue(entity) == null ? null : column.getBytes(entity);
+    }
+
+    /**
+     * @param value The encoded column value.
+     * @return The key prefix shared by every index row of the value.
+     */
+    byte[] prefix(byte[] value) {
+        return Bytes.add(Bytes.toBytes(value.length), value);
+    }
+
+    byte[] indexKey(byte[] value, byte[] rowKey) {
+        return Bytes.add(Bytes.toBytes(value.length), value, rowKey);
+    }
+
+    /**
+     * @param indexKey The key of an index row.
+     * @return The row key of the indexed entity.
+     */
+    byte[] rowKey(byte[] indexKey) {
+        return Arrays.copyOfRange(indexKey, Bytes.SIZEOF_INT + Bytes.toInt(indexKey), indexKey.length);
+    }
+}
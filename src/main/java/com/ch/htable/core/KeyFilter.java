@@ -0,0 +1,138 @@
+package com.ch.htable.core;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A client side membership filter of the row keys of an entity table. Lookups of keys that the filter has never
+ * seen are answered without a call to the region servers, which makes reads of missing keys nearly free. The filter
+ * is a bloom filter so it never misses a key it was told about but may report a key that does not exist, such a
+ * false positive costs the read it would have cost anyway.
+ * <p>
+ * The filter is filled from a key only scan when it is enabled and every save and increment through the manager
+ * adds its keys. Bits can not be removed from a bloom filter, a deleted key stays a positive until the filter is
+ * rebuilt, the number of deletes since the build shows when that is due. Rows written by other clients are not
+ * seen, a filter must only be enabled when every writer of the table goes through this manager.
+ */
+public class KeyFilter {
+
+    private final BloomFilter<byte[]> keys;
+    private final long expectedKeys;
+    private final double fpp;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+
+    KeyFilter(long expectedKeys, double fpp) {
+        checkArgument(expectedKeys > 0, "Invalid number of expected keys %s", expectedKeys);
+        checkArgument(fpp > 0 && fpp < 1, "Invalid false positive probability %s", fpp);
+        this.keys = BloomFilter.create(Funnels.byteArrayFunnel(), expectedKeys, fpp);
+        this.expectedKeys = expectedKeys;
+        this.fpp = fpp;
+    }
+
+    void add(byte[] key) {
+        keys.put(key);
+    }
+
+    /**
+     * @param key The row key.
+     * @return false when the row certainly does not exist.
+     */
+    boolean mightContain(byte[] key) {
+        lookups.increment();
+        if (keys.mightContain(key)) {
+            return true;
+        }
+        negatives.increment();
+        return false;
+    }
+
+    /**
+     * Record that a key the filter passed did not exist.
+     */
+    void falsePositive() {
+        falsePositives.increment();
+    }
+
+    void deleted(long count) {
+        deletes.add(count);
+    }
+
+    public long getExpectedKeys() {
+        return expectedKeys;
+    }
+
+    /**
+     * @return The number of lookups.
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * @return The number of lookups that were answered without a read.
+     */
+    public long getNegatives() {
+        return negatives.sum();
+    }
+
+    /**
+     * @return The number of lookups of missing keys that the filter passed.
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * The observed false positive rate, the share of lookups of missing keys that still needed a read. This grows
+     * with the deletes since the build.
+     *
+     * @return The rate between zero and one, zero before the first miss.
+     */
+    public double getFalsePositiveRate() {
+        final long fp = falsePositives.sum();
+        final long misses = fp + negatives.sum();
+        return misses == 0 ? 0d : (double) fp / misses;
+    }
+
+    /**
+     * @return The false positive probability the filter expects for the keys it holds.
+     */
+    public double getExpectedFalsePositiveRate() {
+        return keys.expectedFpp();
+    }
+
+    /**
+     * @return The number of keys deleted since the filter was built.
+     */
+    public long getDeletesSinceBuild() {
+        return deletes.sum();
+    }
+
+    /**
+     * @return The estimated number of distinct keys in the filter.
+     */
+    public long getApproximateKeys() {
+        return keys.approximateElementCount();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("keys", getApproximateKeys())
+                .add("fpp", fpp)
+                .add("lookups", getLookups())
+                .add("negatives", getNegatives())
+                .add("falsePositives", getFalsePositives())
+                .add("deletes", getDeletesSinceBuild())
+                .toString();
+    }
+}
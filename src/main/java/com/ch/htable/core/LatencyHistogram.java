@@ -0,0 +1,86 @@
+package com.ch.htable.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free latency histogram using power of two nanosecond buckets. The resolution is coarse (every bucket
+ * is twice as wide as the previous one) but recording is a single atomic increment and the memory footprint is
+ * fixed, which makes it cheap enough to keep one per entity and operation.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+    /**
+     * Record a single latency.
+     *
+     * @param nanos The latency in nanoseconds, negative values are recorded as zero.
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0L, nanos);
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public double getMean(TimeUnit unit) {
+        final long n = count.sum();
+        return n == 0 ? 0d : (double) unit.convert(sum.sum(), TimeUnit.NANOSECONDS) / n;
+    }
+
+    /**
+     * Estimate a percentile. The returned value is the upper bound of the bucket that contains the percentile so
+     * it will over estimate by at most a factor of two.
+     *
+     * @param percentile A value between 0 and 100.
+     * @param unit       The unit of the returned value.
+     * @return The estimated latency, zero if nothing was recorded.
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        final long n = count.sum();
+        if (n == 0) {
+            return 0L;
+        }
+        final long rank = (long) Math.ceil(n * Math.min(100d, Math.max(0d, percentile)) / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return unit.convert(Math.min(upperBound(i), max.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    private static int bucket(long nanos) {
+        return nanos == 0 ? 0 : Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(nanos));
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1fus, p50=%dus, p99=%dus, max=%dus", getCount(),
+                getMean(TimeUnit.MICROSECONDS), getPercentile(50, TimeUnit.MICROSECONDS),
+                getPercentile(99, TimeUnit.MICROSECONDS), getMax(TimeUnit.MICROSECONDS));
+    }
+}
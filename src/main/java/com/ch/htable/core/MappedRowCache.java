@@ -0,0 +1,586 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * An off heap cache of byte values stored in memory mapped segment files on local disk. The values live in the page
+ * cache of the operating system instead of the java heap so a large cache causes no garbage collection work, and
+ * since the files survive the process the cache is warm again right after a restart.
+ * <p>
+ * Every segment is a log that records are appended to, an update or an invalidation appends a new record. The
+ * segments are reused in a ring: when the current segment is full the oldest one is reclaimed. Reclaiming keeps
+ * the records that were read since they were written (the clock second chance) up to half of the segment and
+ * evicts the rest, expired records are always evicted. The index is an open addressing hash table of primitive
+ * arrays that maps a key to the segment and offset of its newest record, it costs thirteen bytes per key and no
+ * objects. On open the index is rebuilt by replaying the segments in the order they were written, every record
+ * carries a checksum so a record that was torn by a crash ends the replay of its segment.
+ * <p>
+ * The cache is thread safe, reads share a lock and writes are serialized.
+ */
+public class MappedRowCache implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRowCache.class);
+
+    private static final int MAGIC = 0x48524331;
+
+    /**
+     * Segment header: magic int, sequence long at 8 and write position int at 16. A sequence of -1 marks an empty
+     * segment.
+     */
+    private static final int SEGMENT_HEADER = 32;
+    private static final int SEQUENCE = 8;
+    private static final int WRITE_POSITION = 16;
+
+    /**
+     * Record header: checksum int, key hash int at 4, key length int at 8, value length int at 12 (-1 for an
+     * invalidation) and the expiry in epoch milliseconds long at 16.
+     */
+    private static final int RECORD_HEADER = 24;
+    private static final int HASH = 4;
+    private static final int KEY_LENGTH = 8;
+    private static final int VALUE_LENGTH = 12;
+    private static final int EXPIRES = 16;
+    private static final int INVALIDATED = -1;
+
+    private static final long EMPTY = 0L;
+    private static final long DELETED = -1L;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int segmentBytes;
+    private final long ttlMillis;
+    private final MappedByteBuffer[] segments;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[64 * 1024];
+
+    private int current;
+    private long nextSequence;
+    private boolean closed;
+
+    private int[] hashes;
+    private long[] locations;
+    private byte[] referenced;
+    private int size;
+    private int used;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Open or create a cache. Segment files of an earlier run with the same segment size are replayed, files of a
+     * different size are reset.
+     *
+     * @param directory    The directory of the segment files, it is created when it does not exist.
+     * @param segments     The number of segment files, at least two.
+     * @param segmentBytes The size of a segment file, the largest value is a little less than half of it.
+     * @param ttl          How long a value is served after it was written.
+     */
+    public MappedRowCache(Path directory, int segments, int segmentBytes, Duration ttl) {
+        checkArgument(segments >= 2, "Invalid number of segments %s, at least two are needed", segments);
+        checkArgument(segmentBytes > SEGMENT_HEADER * 2, "Invalid segment size %s", segmentBytes);
+        checkArgument(!ttl.isNegative() && !ttl.isZero(), "Invalid time to live %s", ttl);
+        this.segmentBytes = segmentBytes;
+        this.ttlMillis = ttl.toMillis();
+        this.segments = new MappedByteBuffer[segments];
+        resetIndex(INITIAL_CAPACITY);
+        try {
+            Files.createDirectories(directory);
+            for (int i = 0; i < segments; i++) {
+                this.segments[i] = map(directory.resolve(String.format("segment-%03d.bin", i)));
+            }
+        } catch (IOException e) {
+            throw new HBaseException(String.format("Unable to open the row cache in %s", directory), e);
+        }
+        recover();
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final boolean resize = channel.size() != segmentBytes;
+            if (resize) {
+                channel.truncate(0);
+            }
+            final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            if (resize || segment.getInt(0) != MAGIC) {
+                segment.putInt(0, MAGIC);
+                segment.putLong(SEQUENCE, -1L);
+                segment.putInt(WRITE_POSITION, SEGMENT_HEADER);
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Rebuild the index from the segments in the order they were written.
+     */
+    private void recover() {
+        final int[] order = IntStream.range(0, segments.length)
+                .filter(i -> segments[i].getLong(SEQUENCE) >= 0)
+                .boxed()
+                .sorted(Comparator.comparingLong(i -> segments[i].getLong(SEQUENCE)))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        final long now = System.currentTimeMillis();
+        long records = 0;
+        for (int s : order) {
+            records += replay(s, now);
+        }
+        for (int s = 0; s < segments.length; s++) {
+            if (segments[s].getLong(SEQUENCE) < 0) {
+                segments[s].putInt(WRITE_POSITION, SEGMENT_HEADER);
+            }
+        }
+        if (order.length == 0) {
+            current = 0;
+            segments[0].putLong(SEQUENCE, 0L);
+            nextSequence = 1;
+        } else {
+            current = order[order.length - 1];
+            nextSequence = segments[current].getLong(SEQUENCE) + 1;
+        }
+        if (records > 0) {
+            LOG.info("Recovered {} keys from {} records of the row cache", size, records);
+        }
+    }
+
+    /**
+     * Apply the records of a segment to the index, a record with a bad checksum truncates the segment.
+     *
+     * @return The number of valid records.
+     */
+    private long replay(int s, long now) {
+        final MappedByteBuffer segment = segments[s];
+        final int end = Math.min(segment.getInt(WRITE_POSITION), segmentBytes);
+        long records = 0;
+        int r = SEGMENT_HEADER;
+        while (r + RECORD_HEADER <= end) {
+            final int keyLength = segment.getInt(r + KEY_LENGTH);
+            final int valueLength = segment.getInt(r + VALUE_LENGTH);
+            if (keyLength <= 0 || valueLength < INVALIDATED
+                    || (long) r + RECORD_HEADER + keyLength + Math.max(valueLength, 0) > end
+                    || checksum(segment, r, keyLength, Math.max(valueLength, 0)) != segment.getInt(r)) {
+                LOG.warn("Truncating segment {} of the row cache at {} after a torn record", s, r);
+                break;
+            }
+            final byte[] key = new byte[keyLength];
+            final ByteBuffer read = segment.duplicate();
+            read.position(r + RECORD_HEADER);
+            read.get(key);
+            if (valueLength == INVALIDATED || segment.getLong(r + EXPIRES) <= now) {
+                remove(key, segment.getInt(r + HASH));
+            } else {
+                index(key, segment.getInt(r + HASH), location(s, r));
+            }
+            records++;
+            r += RECORD_HEADER + keyLength + Math.max(valueLength, 0);
+        }
+        segment.putInt(WRITE_POSITION, r);
+        return records;
+    }
+
+    /**
+     * @param key The key.
+     * @return A copy of the value or null when the key is not cached or expired.
+     */
+    byte[] get(byte[] key) {
+        final int hash = hash(key);
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            final int slot = find(key, hash);
+            if (slot < 0) {
+                misses.increment();
+                return null;
+            }
+            final long location = locations[slot];
+            final MappedByteBuffer segment = segments[segment(location)];
+            final int offset = offset(location);
+            if (segment.getLong(offset + EXPIRES) <= System.currentTimeMillis()) {
+                misses.increment();
+                return null;
+            }
+            final byte[] value = new byte[segment.getInt(offset + VALUE_LENGTH)];
+            final ByteBuffer read = segment.duplicate();
+            read.position(offset + RECORD_HEADER + key.length);
+            read.get(value);
+            referenced[slot] = 1;
+            hits.increment();
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Cache a value, values that do not fit in half a segment are not cached.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    void put(byte[] key, byte[] value) {
+        if (RECORD_HEADER + key.length + value.length > (segmentBytes - SEGMENT_HEADER) / 2) {
+            return;
+        }
+        final int hash = hash(key);
+        lock.writeLock().lock();
+        try {
+            if (!closed) {
+                index(key, hash, append(key, hash, value, System.currentTimeMillis() + ttlMillis));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a key, the invalidation is recorded so the value does not come back after a restart.
+     *
+     * @param key The key.
+     */
+    void invalidate(byte[] key) {
+        final int hash = hash(key);
+        lock.writeLock().lock();
+        try {
+            if (!closed && remove(key, hash)) {
+                append(key, hash, null, 0L);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop every cached value.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            checkState(!closed, "The row cache is closed");
+            for (MappedByteBuffer segment : segments) {
+                segment.putLong(SEQUENCE, -1L);
+                segment.putInt(WRITE_POSITION, SEGMENT_HEADER);
+            }
+            current = 0;
+            segments[0].putLong(SEQUENCE, nextSequence++);
+            resetIndex(INITIAL_CAPACITY);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Append a record to the current segment, reclaiming the oldest segment when it is full.
+     *
+     * @return The location of the record.
+     */
+    private long append(byte[] key, int hash, byte[] value, long expires) {
+        final int valueLength = value == null ? 0 : value.length;
+        final int length = RECORD_HEADER + key.length + valueLength;
+        MappedByteBuffer segment = segments[current];
+        int position = segment.getInt(WRITE_POSITION);
+        if (position + length > segmentBytes) {
+            current = (current + 1) % segments.length;
+            reclaim(current);
+            segment = segments[current];
+            position = segment.getInt(WRITE_POSITION);
+        }
+        segment.putInt(position + HASH, hash);
+        segment.putInt(position + KEY_LENGTH, key.length);
+        segment.putInt(position + VALUE_LENGTH, value == null ? INVALIDATED : value.length);
+        segment.putLong(position + EXPIRES, expires);
+        final ByteBuffer write = segment.duplicate();
+        write.position(position + RECORD_HEADER);
+        write.put(key);
+        if (value != null) {
+            write.put(value);
+        }
+        segment.putInt(position, checksum(segment, position, key.length, valueLength));
+        segment.putInt(WRITE_POSITION, position + length);
+        return location(current, position);
+    }
+
+    /**
+     * Make the oldest segment the current one. Records that were read since they were written and did not expire
+     * are compacted to the start of the segment up to half of its size, every other live record is evicted. The
+     * segment is marked empty while it is compacted so a crash loses it instead of leaving it half moved.
+     */
+    private void reclaim(int s) {
+        final MappedByteBuffer segment = segments[s];
+        final int end = segment.getInt(WRITE_POSITION);
+        final int budget = SEGMENT_HEADER + (segmentBytes - SEGMENT_HEADER) / 2;
+        final long now = System.currentTimeMillis();
+        segment.putLong(SEQUENCE, -1L);
+
+        int r = SEGMENT_HEADER;
+        int w = SEGMENT_HEADER;
+        while (r < end) {
+            final int keyLength = segment.getInt(r + KEY_LENGTH);
+            final int valueLength = segment.getInt(r + VALUE_LENGTH);
+            final int length = RECORD_HEADER + keyLength + Math.max(valueLength, 0);
+            final int slot = valueLength == INVALIDATED ? -1 : slotOf(segment.getInt(r + HASH), location(s, r));
+            if (slot >= 0) {
+                if (referenced[slot] != 0 && segment.getLong(r + EXPIRES) > now && w + length <= budget) {
+                    move(segment, r, w, length);
+                    locations[slot] = location(s, w);
+                    referenced[slot] = 0;
+                    w += length;
+                } else {
+                    locations[slot] = DELETED;
+                    size--;
+                    evictions.increment();
+                }
+            }
+            r += length;
+        }
+        segment.putInt(WRITE_POSITION, w);
+        segment.putLong(SEQUENCE, nextSequence++);
+    }
+
+    /**
+     * Copy a record towards the start of its segment in chunks, the target never overtakes the source.
+     */
+    private void move(MappedByteBuffer segment, int from, int to, int length) {
+        if (from == to) {
+            return;
+        }
+        final ByteBuffer read = segment.duplicate();
+        final ByteBuffer write = segment.duplicate();
+        read.position(from);
+        write.position(to);
+        for (int done = 0; done < length; ) {
+            final int n = Math.min(chunk.length, length - done);
+            read.get(chunk, 0, n);
+            write.put(chunk, 0, n);
+            done += n;
+        }
+    }
+
+    private int checksum(MappedByteBuffer segment, int position, int keyLength, int valueLength) {
+        crc.reset();
+        final ByteBuffer record = segment.duplicate();
+        record.position(position + HASH);
+        record.limit(position + RECORD_HEADER + keyLength + valueLength);
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static int hash(byte[] key) {
+        return Hashing.murmur3_32().hashBytes(key).asInt();
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) (segment + 1) << 32) | offset;
+    }
+
+    private static int segment(long location) {
+        return (int) (location >>> 32) - 1;
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private void resetIndex(int capacity) {
+        hashes = new int[capacity];
+        locations = new long[capacity];
+        referenced = new byte[capacity];
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * @return The slot of a key or -1.
+     */
+    private int find(byte[] key, int hash) {
+        final int mask = locations.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final long location = locations[i];
+            if (location == EMPTY) {
+                return -1;
+            }
+            if (location != DELETED && hashes[i] == hash && keyEquals(location, key)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * @return The slot that points to a record or -1 when the record is no longer the newest of its key.
+     */
+    private int slotOf(int hash, long location) {
+        final int mask = locations.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            if (locations[i] == EMPTY) {
+                return -1;
+            }
+            if (locations[i] == location) {
+                return i;
+            }
+        }
+    }
+
+    private boolean keyEquals(long location, byte[] key) {
+        final MappedByteBuffer segment = segments[segment(location)];
+        final int offset = offset(location);
+        if (segment.getInt(offset + KEY_LENGTH) != key.length) {
+            return false;
+        }
+        final int start = offset + RECORD_HEADER;
+        for (int i = 0; i < key.length; i++) {
+            if (segment.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void index(byte[] key, int hash, long location) {
+        final int slot = find(key, hash);
+        if (slot >= 0) {
+            locations[slot] = location;
+            referenced[slot] = 0;
+            return;
+        }
+        if ((used + 1) * 4L > locations.length * 3L) {
+            rehash(size * 2 + 2 > locations.length / 2 ? locations.length * 2 : locations.length);
+        }
+        final int mask = locations.length - 1;
+        int i = hash & mask;
+        while (locations[i] != EMPTY && locations[i] != DELETED) {
+            i = (i + 1) & mask;
+        }
+        if (locations[i] == EMPTY) {
+            used++;
+        }
+        hashes[i] = hash;
+        locations[i] = location;
+        referenced[i] = 0;
+        size++;
+    }
+
+    private boolean remove(byte[] key, int hash) {
+        final int slot = find(key, hash);
+        if (slot < 0) {
+            return false;
+        }
+        locations[slot] = DELETED;
+        size--;
+        return true;
+    }
+
+    /**
+     * Rebuild the index into a table of the given capacity, dropping the deleted slots.
+     */
+    private void rehash(int capacity) {
+        final int[] oldHashes = hashes;
+        final long[] oldLocations = locations;
+        final byte[] oldReferenced = referenced;
+        resetIndex(capacity);
+        final int mask = capacity - 1;
+        for (int j = 0; j < oldLocations.length; j++) {
+            if (oldLocations[j] == EMPTY || oldLocations[j] == DELETED) {
+                continue;
+            }
+            int i = oldHashes[j] & mask;
+            while (locations[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            hashes[i] = oldHashes[j];
+            locations[i] = oldLocations[j];
+            referenced[i] = oldReferenced[j];
+            size++;
+            used++;
+        }
+    }
+
+    /**
+     * @return The number of cached keys, including expired keys that were not evicted yet.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of values that were dropped to make room.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Write the dirty pages of every segment to disk. The operating system writes them eventually anyway, this is
+     * only needed to survive a crash of the machine.
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            if (!closed) {
+                Arrays.stream(segments).forEach(MappedByteBuffer::force);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        lock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("keys", size())
+                .add("hits", getHits())
+                .add("misses", getMisses())
+                .add("evictions", getEvictions())
+                .toString();
+    }
+}
@@ -0,0 +1,174 @@
+package com.ch.htable.core;
+
+import com.ch.htable.core.HMetrics.Operation;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the timing and volume of a single {@link HEntityManager} operation and reports it to {@link HMetrics}
+ * when the operation finishes. When metrics are disabled a shared inert instance is handed out so the operation
+ * pays for nothing but a few predictable branches. The counters are adders since a single operation such as
+ * saveAll can be mapping and writing batches from several threads at once.
+ */
+final class OperationTimer {
+
+    private static final OperationTimer DISABLED = new OperationTimer();
+
+    private final boolean enabled;
+    private final HMetrics metrics;
+    private final Class<?> entityType;
+    private final Operation operation;
+    private final long start;
+    private final LongAdder mappingNanos;
+    private final LongAdder rpcNanos;
+    private final LongAdder rows;
+    private final LongAdder cells;
+    private final LongAdder bytes;
+    private final AtomicBoolean finished;
+    private volatile boolean succeeded;
+    private volatile boolean failed;
+
+    private OperationTimer() {
+        this.enabled = false;
+        this.metrics = HMetrics.NOOP;
+        this.entityType = null;
+        this.operation = null;
+        this.start = 0L;
+        this.mappingNanos = null;
+        this.rpcNanos = null;
+        this.rows = null;
+        this.cells = null;
+        this.bytes = null;
+        this.finished = null;
+    }
+
+    private OperationTimer(HMetrics metrics, Class<?> entityType, Operation operation) {
+        this.enabled = true;
+        this.metrics = metrics;
+        this.entityType = entityType;
+        this.operation = operation;
+        this.mappingNanos = new LongAdder();
+        this.rpcNanos = new LongAdder();
+        this.rows = new LongAdder();
+        this.cells = new LongAdder();
+        this.bytes = new LongAdder();
+        this.finished = new AtomicBoolean();
+        this.start = System.nanoTime();
+    }
+
+    static OperationTimer start(HMetrics metrics, Class<?> entityType, Operation operation) {
+        return metrics.isEnabled() ? new OperationTimer(metrics, entityType, operation) : DISABLED;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The current time to be passed back to {@link #mapping(long)} or {@link #rpc(long)}.
+     */
+    long mark() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    void mapping(long mark) {
+        if (enabled) {
+            mappingNanos.add(System.nanoTime() - mark);
+        }
+    }
+
+    void rpc(long mark) {
+        if (enabled) {
+            rpcNanos.add(System.nanoTime() - mark);
+        }
+    }
+
+    void mutation(Mutation mutation) {
+        if (enabled) {
+            rows.increment();
+            mutation.getFamilyCellMap().values().forEach(this::cells);
+        }
+    }
+
+    void mutations(List<? extends Mutation> mutations) {
+        if (enabled) {
+            mutations.forEach(this::mutation);
+        }
+    }
+
+    void result(Result result) {
+        if (enabled && result != null && !result.isEmpty()) {
+            rows.increment();
+            for (Cell c : result.rawCells()) {
+                cell(c);
+            }
+        }
+    }
+
+    void rows(long count) {
+        if (enabled) {
+            rows.add(count);
+        }
+    }
+
+    void scanMetrics(ScanMetrics scanMetrics) {
+        if (enabled && scanMetrics != null) {
+            metrics.onScanMetrics(entityType, operation, scanMetrics);
+        }
+    }
+
+    /**
+     * Mark the operation as successful, {@link #finish()} will report it as an error otherwise.
+     */
+    void succeeded() {
+        succeeded = true;
+    }
+
+    /**
+     * Record a failure of an operation whose end is only known later, such as a streamed scan, so that it is not
+     * marked successful when it is closed.
+     */
+    void failed() {
+        if (enabled) {
+            failed = true;
+        }
+    }
+
+    /**
+     * @return True when a failure was recorded.
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Report the operation, only the first call has any effect.
+     */
+    void finish() {
+        if (enabled && finished.compareAndSet(false, true)) {
+            if (succeeded) {
+                metrics.onOperation(entityType, operation, System.nanoTime() - start, mappingNanos.sum(),
+                        rpcNanos.sum(), rows.sum(), cells.sum(), bytes.sum());
+            } else {
+                metrics.onError(entityType, operation);
+            }
+        }
+    }
+
+    private void cells(List<Cell> list) {
+        for (Cell c : list) {
+            cell(c);
+        }
+    }
+
+    private void cell(Cell c) {
+        cells.increment();
+        bytes.add(c.getRowLength() + c.getFamilyLength() + c.getQualifierLength() + c.getValueLength());
+    }
+}
@@ -0,0 +1,116 @@
+package com.ch.htable.core;
+
+import com.google.common.base.MoreObjects;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcome of a prefix or range purge. A purge keeps going when a batch fails so the report carries the number of
+ * rows that were deleted, the number that failed and a bounded sample of the failed keys and their causes. The
+ * report is updated concurrently by the region workers and the {@link Listener} is told after every batch.
+ */
+public class PurgeReport {
+
+    /**
+     * The number of failures whose key and cause are retained.
+     */
+    private static final int MAX_RECORDED_FAILURES = 100;
+
+    /**
+     * Progress callback of a purge, invoked from the region workers after every batch.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        Listener NONE = (deleted, failed) -> {};
+
+        void onProgress(long deleted, long failed);
+    }
+
+    private final Listener listener;
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+
+    PurgeReport(Listener listener) {
+        this.listener = listener;
+    }
+
+    void deleted(long count) {
+        deleted.add(count);
+    }
+
+    void failed(byte[] key, Throwable cause) {
+        failed.increment();
+        if (failures.size() < MAX_RECORDED_FAILURES) {
+            failures.add(new Failure(key, cause));
+        }
+    }
+
+    void progress() {
+        listener.onProgress(deleted.sum(), failed.sum());
+    }
+
+    public long getDeleted() {
+        return deleted.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return A sample of at most one hundred failures.
+     */
+    public List<Failure> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    public boolean isSuccessful() {
+        return failed.sum() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("deleted", getDeleted())
+                .add("failed", getFailed())
+                .toString();
+    }
+
+    /**
+     * A row that could not be deleted. The key is null when a whole region failed before its keys were read.
+     */
+    public static class Failure {
+
+        private final byte[] key;
+        private final Throwable cause;
+
+        Failure(byte[] key, Throwable cause) {
+            this.key = key;
+            this.cause = cause;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public Throwable getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("key", key == null ? null : Bytes.toStringBinary(key))
+                    .add("cause", cause)
+                    .toString();
+        }
+    }
+}
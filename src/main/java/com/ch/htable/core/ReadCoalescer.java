@@ -0,0 +1,253 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseEntityNotFoundException;
+import com.ch.htable.HBaseException;
+import com.ch.htable.core.HMetrics.Operation;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Coalesces concurrent point reads of an entity type. Reads of a key that is already being read wait for the read
+ * in flight instead of sending their own (single flight) and the distinct keys requested within a short window are
+ * read with one multi get. A batch is sent when it holds the maximum number of keys or when the window of its first
+ * key elapses, whichever comes first, so a read waits at most one window longer than it would on its own.
+ * <p>
+ * Every waiter gets its own entity instance. The coalescer is thread safe and honors the
+ * {@link KeyFilter} of the entity type.
+ *
+ * @param <T> The entity type.
+ */
+public class ReadCoalescer<T> implements Closeable {
+
+    private final HEntityManager manager;
+    private final EntityClassModel<T> model;
+    private final int maxBatch;
+    private final Duration window;
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private List<Pending> batch = new ArrayList<>();
+    private boolean closed;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+
+    ReadCoalescer(HEntityManager manager, EntityClassModel<T> model, int maxBatch, Duration window) {
+        checkArgument(maxBatch > 0, "Invalid max batch %s", maxBatch);
+        checkArgument(!window.isNegative() && !window.isZero(), "Invalid window %s", window);
+        this.manager = manager;
+        this.model = model;
+        this.maxBatch = maxBatch;
+        this.window = window;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("htable-read-" + model.getTableName() + "-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Read an entity.
+     *
+     * @param key The row key of the entity.
+     * @return The entity.
+     * @throws HBaseEntityNotFoundException When the row does not exist.
+     */
+    public T getOne(String key) {
+        return findOne(key).orElseThrow(() -> new HBaseEntityNotFoundException(
+                String.format("Entity %s with key %s does not exist", model.getEntityType(), key)));
+    }
+
+    /**
+     * Read an entity that may not exist.
+     *
+     * @param key The row key of the entity.
+     * @return The entity or empty when the row does not exist.
+     */
+    public Optional<T> findOne(String key) {
+        try {
+            return findAsync(key).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new HBaseException(String.format("Error retrieving entity for class %s with key %s",
+                    model.getEntityType(), key), e.getCause());
+        }
+    }
+
+    /**
+     * Read an entity without blocking. The future completes on an I/O thread of the manager.
+     *
+     * @param key The row key of the entity.
+     * @return The entity or empty when the row does not exist.
+     */
+    public CompletableFuture<Optional<T>> findAsync(String key) {
+        requests.increment();
+        final KeyFilter filter = manager.getKeyFilter(model.getEntityType()).orElse(null);
+        if (filter != null && !filter.mightContain(Bytes.toBytes(key))) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        final CompletableFuture<Result> created = new CompletableFuture<>();
+        final CompletableFuture<Result> result = inFlight.putIfAbsent(key, created);
+        if (result == null) {
+            enqueue(new Pending(key, created));
+        } else {
+            coalesced.increment();
+        }
+        return (result == null ? created : result).thenApply(r -> {
+            if (r.isEmpty()) {
+                if (filter != null) {
+                    filter.falsePositive();
+                }
+                return Optional.empty();
+            }
+            return Optional.of(HEntityManager.resultToEntity(r, model));
+        });
+    }
+
+    /**
+     * Send the keys that are waiting for their window.
+     */
+    public void flush() {
+        final List<Pending> keys;
+        synchronized (lock) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            keys = batch;
+            batch = new ArrayList<>();
+        }
+        manager.getExecutors().io().execute(() -> read(keys));
+    }
+
+    private void enqueue(Pending pending) {
+        List<Pending> full = null;
+        synchronized (lock) {
+            if (closed) {
+                inFlight.remove(pending.key, pending.result);
+                pending.result.completeExceptionally(new IllegalStateException(
+                        String.format("Read coalescer of %s is closed", model.getEntityType())));
+                return;
+            }
+            batch.add(pending);
+            if (batch.size() >= maxBatch) {
+                full = batch;
+                batch = new ArrayList<>();
+            } else if (batch.size() == 1) {
+                scheduler.schedule(this::flush, window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            final List<Pending> keys = full;
+            manager.getExecutors().io().execute(() -> read(keys));
+        }
+    }
+
+    /**
+     * Read a batch with one multi get and hand every result to its waiters.
+     */
+    private void read(List<Pending> keys) {
+        final OperationTimer timer = OperationTimer.start(manager.getMetrics(), model.getEntityType(), Operation.GET_ONE);
+        final List<Get> gets = new ArrayList<>(keys.size());
+        for (Pending p : keys) {
+            final Get get = new Get(Bytes.toBytes(p.key));
+            for (byte[] family : model.getFamilies()) {
+                get.addFamily(family);
+            }
+            gets.add(get);
+        }
+        try (StorageTable table = manager.getTable(model)) {
+            final long mark = timer.mark();
+            final Result[] results = table.get(gets);
+            timer.rpc(mark);
+            batches.increment();
+            reads.add(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                final Pending p = keys.get(i);
+                timer.result(results[i]);
+                inFlight.remove(p.key, p.result);
+                p.result.complete(results[i]);
+            }
+            timer.succeeded();
+        } catch (IOException | RuntimeException e) {
+            for (Pending p : keys) {
+                inFlight.remove(p.key, p.result);
+                p.result.completeExceptionally(e);
+            }
+        } finally {
+            timer.finish();
+        }
+    }
+
+    /**
+     * @return The number of reads requested.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return The number of reads that waited for a read of the same key in flight.
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return The number of multi gets sent.
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return The average number of keys per multi get.
+     */
+    public double getAverageBatchSize() {
+        final long b = batches.sum();
+        return b == 0 ? 0 : (double) reads.sum() / b;
+    }
+
+    /**
+     * Stop accepting reads and send the keys that are still waiting.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        scheduler.shutdown();
+        flush();
+    }
+
+    private static final class Pending {
+
+        private final String key;
+        private final CompletableFuture<Result> result;
+
+        private Pending(String key, CompletableFuture<Result> result) {
+            this.key = key;
+            this.result = result;
+        }
+    }
+}
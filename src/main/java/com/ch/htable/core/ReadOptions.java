@@ -0,0 +1,193 @@
+package com.ch.htable.core;
+
+import com.google.common.base.MoreObjects;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Consistency;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Scan;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Time and version bounds of a read. A time range is checked against the time range of every store file so a read
+ * of recent changes lets hbase skip the files that only hold older cells. Options are immutable, every method
+ * returns a new instance.
+ * <p>
+ * Reading more than one version fills the properties annotated with {@link com.ch.htable.annotations.HVersions},
+ * every other column is set from its newest version in the range.
+ * <p>
+ * Latency sensitive reads can opt in to {@link #timeline() timeline consistency}, which lets hbase answer from a
+ * region replica when the primary region server is slow, and to {@link #hedged(double) hedging}, which sends a
+ * backup request when the first one has not answered in time and takes whichever answer comes first.
+ */
+public final class ReadOptions {
+
+    private static final ReadOptions LATEST = new ReadOptions(0, HConstants.LATEST_TIMESTAMP, 1,
+            Consistency.STRONG, Double.NaN, -1);
+
+    /**
+     * The number of recorded latencies below which a percentile hedge is not sent, the percentile is meaningless.
+     */
+    private static final long MIN_HEDGE_SAMPLES = 100;
+
+    private final long minStamp;
+    private final long maxStamp;
+    private final int versions;
+    private final Consistency consistency;
+    private final double hedgePercentile;
+    private final long hedgeNanos;
+
+    private ReadOptions(long minStamp, long maxStamp, int versions, Consistency consistency, double hedgePercentile,
+                        long hedgeNanos) {
+        this.minStamp = minStamp;
+        this.maxStamp = maxStamp;
+        this.versions = versions;
+        this.consistency = consistency;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeNanos = hedgeNanos;
+    }
+
+    /**
+     * @return Options that read the newest version of every cell, the default of every read.
+     */
+    public static ReadOptions latest() {
+        return LATEST;
+    }
+
+    /**
+     * @param minStamp The smallest timestamp to read, inclusive.
+     * @param maxStamp The largest timestamp to read, exclusive.
+     * @return Options that only read cells written in the range.
+     */
+    public ReadOptions timeRange(long minStamp, long maxStamp) {
+        checkArgument(minStamp >= 0 && minStamp < maxStamp, "Invalid time range %s - %s", minStamp, maxStamp);
+        return new ReadOptions(minStamp, maxStamp, versions, consistency, hedgePercentile, hedgeNanos);
+    }
+
+    /**
+     * @param minStamp The smallest timestamp to read, inclusive.
+     * @return Options that only read cells written at or after the timestamp.
+     */
+    public ReadOptions since(long minStamp) {
+        return timeRange(minStamp, HConstants.LATEST_TIMESTAMP);
+    }
+
+    /**
+     * @param timestamp The exact timestamp to read.
+     * @return Options that only read cells written at the timestamp.
+     */
+    public ReadOptions timestamp(long timestamp) {
+        return timeRange(timestamp, timestamp + 1);
+    }
+
+    /**
+     * @param versions The number of versions to read per column, newest first.
+     * @return Options that read up to the number of versions.
+     */
+    public ReadOptions versions(int versions) {
+        checkArgument(versions > 0, "Invalid number of versions %s", versions);
+        return new ReadOptions(minStamp, maxStamp, versions, consistency, hedgePercentile, hedgeNanos);
+    }
+
+    /**
+     * @return Options that read every version the table retains.
+     */
+    public ReadOptions allVersions() {
+        return versions(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Allow the read to be answered by a region replica. A replica answers when the primary region does not
+     * within the primary call timeout of the hbase client, its answer may miss the latest writes and is then
+     * flagged as stale. Tables without replicas are always read from the primary region.
+     *
+     * @return Options that read with {@link Consistency#TIMELINE} consistency.
+     */
+    public ReadOptions timeline() {
+        return new ReadOptions(minStamp, maxStamp, versions, Consistency.TIMELINE, hedgePercentile, hedgeNanos);
+    }
+
+    /**
+     * Send a backup request for a single entity read when the first request takes longer than a percentile of the
+     * recent hedged reads of the entity type, for example the 95th. The first answer is used. No backup is sent
+     * until a hundred hedged reads of the entity have been recorded.
+     *
+     * @param percentile The percentile of the read latency after which the backup is sent, between 50 and 100.
+     * @return Options that hedge single entity reads.
+     */
+    public ReadOptions hedged(double percentile) {
+        checkArgument(percentile >= 50 && percentile < 100, "Invalid hedge percentile %s", percentile);
+        return new ReadOptions(minStamp, maxStamp, versions, consistency, percentile, -1);
+    }
+
+    /**
+     * Send a backup request for a single entity read when the first request takes longer than a fixed delay.
+     *
+     * @param delay The delay after which the backup is sent.
+     * @return Options that hedge single entity reads.
+     */
+    public ReadOptions hedged(Duration delay) {
+        checkArgument(!delay.isNegative(), "Invalid hedge delay %s", delay);
+        return new ReadOptions(minStamp, maxStamp, versions, consistency, Double.NaN, delay.toNanos());
+    }
+
+    boolean isLatest() {
+        return this == LATEST || (minStamp == 0 && maxStamp == HConstants.LATEST_TIMESTAMP && versions == 1);
+    }
+
+    boolean isVersioned() {
+        return versions > 1;
+    }
+
+    boolean isHedged() {
+        return hedgeNanos >= 0 || !Double.isNaN(hedgePercentile);
+    }
+
+    /**
+     * @param latencies The recent read latencies of the entity type.
+     * @return The delay in nanoseconds after which a backup request is sent, negative when none is sent.
+     */
+    long hedgeDelay(LatencyHistogram latencies) {
+        if (hedgeNanos >= 0) {
+            return hedgeNanos;
+        }
+        if (Double.isNaN(hedgePercentile) || latencies.getCount() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return latencies.getPercentile(hedgePercentile, TimeUnit.NANOSECONDS);
+    }
+
+    Get apply(Get get) throws IOException {
+        if (!isLatest()) {
+            get.setTimeRange(minStamp, maxStamp);
+            get.readVersions(versions);
+        }
+        get.setConsistency(consistency);
+        return get;
+    }
+
+    Scan apply(Scan scan) throws IOException {
+        if (!isLatest()) {
+            scan.setTimeRange(minStamp, maxStamp);
+            scan.readVersions(versions);
+        }
+        scan.setConsistency(consistency);
+        return scan;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("minStamp", minStamp)
+                .add("maxStamp", maxStamp)
+                .add("versions", versions)
+                .add("consistency", consistency)
+                .add("hedgePercentile", hedgePercentile)
+                .add("hedgeNanos", hedgeNanos)
+                .toString();
+    }
+}
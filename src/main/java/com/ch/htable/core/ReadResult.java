@@ -0,0 +1,50 @@
+package com.ch.htable.core;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * An entity read along with how it was answered. A stale entity was read from a region replica with
+ * {@link ReadOptions#timeline() timeline consistency} and may miss the most recent writes.
+ *
+ * @param <T> The entity type.
+ */
+public final class ReadResult<T> {
+
+    private final T entity;
+    private final boolean stale;
+    private final boolean hedged;
+
+    ReadResult(T entity, boolean stale, boolean hedged) {
+        this.entity = entity;
+        this.stale = stale;
+        this.hedged = hedged;
+    }
+
+    public T getEntity() {
+        return entity;
+    }
+
+    /**
+     * @return true when the entity was read from a region replica that may lag the primary region.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * @return true when the answer came from the backup request of a {@link ReadOptions#hedged(double) hedged}
+     * read.
+     */
+    public boolean isHedged() {
+        return hedged;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("entity", entity)
+                .add("stale", stale)
+                .add("hedged", hedged)
+                .toString();
+    }
+}
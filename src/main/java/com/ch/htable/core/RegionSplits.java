@@ -0,0 +1,71 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits a scan along region boundaries so each piece can be executed independently, typically in parallel with
+ * one worker per region. Every piece is a copy of the original scan restricted to the part of the row range that
+ * falls inside a single region, pieces never overlap and together cover exactly the original range.
+ */
+final class RegionSplits {
+
+    private RegionSplits() {}
+
+    /**
+     * @param scan      The scan to split.
+     * @param startKeys The region start keys of the table in order, see {@link StorageTable#getStartKeys()}.
+     * @return One scan per region that intersects the scan range. Reversed scans are not split.
+     * @throws IOException If the scan could not be copied.
+     */
+    static List<Scan> split(Scan scan, byte[][] startKeys) throws IOException {
+        if (scan.isReversed() || startKeys.length <= 1) {
+            return Collections.singletonList(scan);
+        }
+        final byte[] start = scan.getStartRow();
+        final byte[] stop = scan.getStopRow();
+        final List<Scan> scans = new ArrayList<>(startKeys.length);
+
+        for (int i = 0; i < startKeys.length; i++) {
+            final byte[] regionStart = startKeys[i];
+            final byte[] regionEnd = i + 1 < startKeys.length ? startKeys[i + 1] : HConstants.EMPTY_END_ROW;
+
+            // The region ends before the scan starts.
+            if (regionEnd.length > 0 && Bytes.compareTo(regionEnd, start) <= 0) {
+                continue;
+            }
+            // The region starts after the scan stops.
+            if (stop.length > 0) {
+                final int cmp = Bytes.compareTo(regionStart, stop);
+                if (cmp > 0 || (cmp == 0 && !scan.includeStopRow())) {
+                    continue;
+                }
+            }
+
+            final boolean scanStartsHere = Bytes.compareTo(start, regionStart) >= 0;
+            final byte[] pieceStart = scanStartsHere ? start : regionStart;
+            final boolean includeStart = !scanStartsHere || scan.includeStartRow();
+
+            final byte[] pieceStop;
+            final boolean includeStop;
+            if (regionEnd.length == 0 || (stop.length > 0 && Bytes.compareTo(stop, regionEnd) < 0)) {
+                pieceStop = stop;
+                includeStop = scan.includeStopRow();
+            } else {
+                pieceStop = regionEnd;
+                includeStop = false;
+            }
+
+            scans.add(new Scan(scan)
+                    .withStartRow(pieceStart, includeStart)
+                    .withStopRow(pieceStop, includeStop));
+        }
+        return scans;
+    }
+}
@@ -0,0 +1,250 @@
+package com.ch.htable.core;
+
+import com.ch.htable.core.HMetrics.Operation;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A cold {@link Flow.Publisher} over a scan. Every subscriber gets its own scanner which is only opened once the
+ * subscriber requests its first entity, results are pulled from the scanner only while there is outstanding demand
+ * so at most the requested entities, bounded by the parallelism, and the scanner caching of results are held in
+ * memory. The scanner and table are closed when the scan completes, fails or the subscription is cancelled.
+ * <p>
+ * Results are mapped to entities on the executor with up to {@code parallelism} mappings in flight, entities are
+ * still signalled in scan order. All signals to a subscriber are serialized.
+ *
+ * @param <T> The entity type.
+ */
+class ScanPublisher<T> implements Flow.Publisher<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScanPublisher.class);
+
+    private final EntityClassModel<T> model;
+    private final Supplier<StorageTable> tables;
+    private final Supplier<Scan> scans;
+    private final Function<Result, T> mapper;
+    private final HMetrics metrics;
+    private final Executor executor;
+    private final int parallelism;
+
+    /**
+     * @param model       The model of the scanned entity.
+     * @param tables      Opens the table of the scan.
+     * @param scans       Creates the scan, every subscriber gets a new scan.
+     * @param mapper      Maps a result to an entity.
+     * @param metrics     The metrics the scan of every subscriber is reported to.
+     * @param executor    Runs the scanner and the mapping.
+     * @param parallelism The maximum number of results that are mapped concurrently.
+     */
+    ScanPublisher(EntityClassModel<T> model, Supplier<StorageTable> tables, Supplier<Scan> scans,
+                  Function<Result, T> mapper, HMetrics metrics, Executor executor, int parallelism) {
+        checkArgument(parallelism > 0, "Invalid parallelism %s", parallelism);
+        this.model = model;
+        this.tables = tables;
+        this.scans = scans;
+        this.mapper = mapper;
+        this.metrics = metrics;
+        this.executor = checkNotNull(executor, "Invalid executor");
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        checkNotNull(subscriber, "Invalid subscriber");
+        final ScanSubscription subscription = new ScanSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class ScanSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final Deque<CompletableFuture<T>> inFlight = new ArrayDeque<>();
+        private final OperationTimer timer = OperationTimer.start(metrics, model.getEntityType(), Operation.FIND);
+
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        // Only touched by the drain loop.
+        private StorageTable table;
+        private ResultScanner scanner;
+        private boolean exhausted;
+        private boolean done;
+
+        private ScanSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException(String.format("Invalid request of %s entities", n));
+            } else {
+                requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Schedule the drain loop unless it is already running, the loop runs again for every signal it missed.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(() -> {
+                    int missed = 1;
+                    do {
+                        drainOnce();
+                        missed = wip.addAndGet(-missed);
+                    } while (missed != 0);
+                });
+            }
+        }
+
+        private void drainOnce() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                done = true;
+                release();
+                return;
+            }
+            if (invalidRequest != null) {
+                fail(invalidRequest);
+                return;
+            }
+            try {
+                boolean progress;
+                do {
+                    progress = emit() | fill();
+                } while (progress && !done && !cancelled);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+            if (cancelled) {
+                done = true;
+                release();
+            } else if (!done && exhausted && inFlight.isEmpty()) {
+                done = true;
+                timer.succeeded();
+                release();
+                subscriber.onComplete();
+            }
+        }
+
+        /**
+         * Signal the mapped entities at the head of the queue while there is demand.
+         */
+        private boolean emit() {
+            boolean progress = false;
+            while (!cancelled && requested.get() > 0 && !inFlight.isEmpty() && inFlight.peekFirst().isDone()) {
+                final T entity = inFlight.pollFirst().join();
+                if (requested.get() != Long.MAX_VALUE) {
+                    requested.decrementAndGet();
+                }
+                subscriber.onNext(entity);
+                progress = true;
+            }
+            return progress;
+        }
+
+        /**
+         * Pull results from the scanner for the outstanding demand that is not already being mapped.
+         */
+        private boolean fill() throws IOException {
+            boolean progress = false;
+            while (!exhausted && !cancelled && inFlight.size() < parallelism && inFlight.size() < requested.get()) {
+                final Result r = next();
+                if (r == null) {
+                    exhausted = true;
+                    return true;
+                }
+                if (parallelism == 1) {
+                    inFlight.addLast(CompletableFuture.completedFuture(map(r)));
+                } else {
+                    final CompletableFuture<T> entity = CompletableFuture.supplyAsync(() -> map(r), executor);
+                    entity.whenComplete((e, t) -> drain());
+                    inFlight.addLast(entity);
+                }
+                progress = true;
+            }
+            return progress;
+        }
+
+        private Result next() throws IOException {
+            if (scanner == null) {
+                final Scan scan = scans.get();
+                scan.setScanMetricsEnabled(timer.isEnabled());
+                table = tables.get();
+                scanner = table.getScanner(scan);
+            }
+            final long mark = timer.mark();
+            final Result r = scanner.next();
+            timer.rpc(mark);
+            timer.result(r);
+            return r;
+        }
+
+        private T map(Result r) {
+            final long mark = timer.mark();
+            final T entity = mapper.apply(r);
+            timer.mapping(mark);
+            return entity;
+        }
+
+        private void fail(Throwable t) {
+            done = true;
+            release();
+            subscriber.onError(t instanceof CompletionException && t.getCause() != null
+                    ? t.getCause() : t);
+        }
+
+        private void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            inFlight.clear();
+            try {
+                if (scanner != null) {
+                    timer.scanMetrics(scanner.getScanMetrics());
+                    scanner.close();
+                }
+                if (table != null) {
+                    table.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to close the scan of {}", model.getEntityType(), e);
+            } finally {
+                timer.finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.ch.htable.core;
+
+import com.google.common.base.MoreObjects;
+import org.apache.hadoop.hbase.TableName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The differences between the schema a table is expected to have, derived from the annotations of its entity, and
+ * the live schema of the table, see {@link HTableAdmin#diff(Class)}. Families of the live table that no column maps
+ * to are reported but never dropped by {@link HTableAdmin#update(Class)} since that would delete their data.
+ */
+public final class SchemaDiff {
+
+    private final TableName table;
+    private final boolean missing;
+    private final List<String> missingFamilies = new ArrayList<>();
+    private final List<String> extraFamilies = new ArrayList<>();
+    private final Map<String, List<String>> changedFamilies = new LinkedHashMap<>();
+
+    SchemaDiff(TableName table, boolean missing) {
+        this.table = table;
+        this.missing = missing;
+    }
+
+    void missingFamily(String family) {
+        missingFamilies.add(family);
+    }
+
+    void extraFamily(String family) {
+        extraFamilies.add(family);
+    }
+
+    void changed(String family, String setting, Object live, Object expected) {
+        changedFamilies.computeIfAbsent(family, f -> new ArrayList<>())
+                .add(String.format("%s %s, expected %s", setting, live, expected));
+    }
+
+    public TableName getTable() {
+        return table;
+    }
+
+    /**
+     * @return true when the table does not exist.
+     */
+    public boolean isTableMissing() {
+        return missing;
+    }
+
+    /**
+     * @return The families the entity maps to that the table does not have.
+     */
+    public List<String> getMissingFamilies() {
+        return Collections.unmodifiableList(missingFamilies);
+    }
+
+    /**
+     * @return The families of the table that the entity does not map to.
+     */
+    public List<String> getExtraFamilies() {
+        return Collections.unmodifiableList(extraFamilies);
+    }
+
+    /**
+     * @return The settings that differ by family, every entry names the setting with its live and expected value.
+     */
+    public Map<String, List<String>> getChangedFamilies() {
+        return Collections.unmodifiableMap(changedFamilies);
+    }
+
+    /**
+     * @return true when the live table matches its entity.
+     */
+    public boolean isEmpty() {
+        return !missing && missingFamilies.isEmpty() && extraFamilies.isEmpty() && changedFamilies.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this).omitNullValues()
+                .add("table", table)
+                .add("missing", missing ? true : null)
+                .add("missingFamilies", missingFamilies.isEmpty() ? null : missingFamilies)
+                .add("extraFamilies", extraFamilies.isEmpty() ? null : extraFamilies)
+                .add("changedFamilies", changedFamilies.isEmpty() ? null : changedFamilies)
+                .toString();
+    }
+}
@@ -0,0 +1,24 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.TableName;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The storage SPI underneath {@link HEntityManager}. An engine hands out {@link StorageTable} instances that know
+ * how to read and write hbase client operations ({@code Get}, {@code Put}, {@code Delete} and {@code Scan}). The
+ * manager only ever talks to this interface which allows the same entity code to run against a cluster through
+ * {@link HBaseStorageEngine} or fully embedded through {@link InMemoryStorageEngine}.
+ */
+public interface StorageEngine extends Closeable {
+
+    /**
+     * Look up a table. The returned table is a light weight handle and should be closed when the caller is done.
+     *
+     * @param tableName The fully qualified table name.
+     * @return A table handle.
+     * @throws IOException If the table could not be opened.
+     */
+    StorageTable getTable(TableName tableName) throws IOException;
+}
@@ -0,0 +1,99 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A table handle of a {@link StorageEngine}. This is the subset of the hbase {@link Table} contract that the entity
+ * manager relies on, every implementation must honor the hbase semantics of the operations it receives including
+ * column projections, filters, time ranges and versions.
+ */
+public interface StorageTable extends Closeable {
+
+    TableName getName();
+
+    /**
+     * Read a single row.
+     *
+     * @param get The row, columns and options to read.
+     * @return The result which is empty when nothing matched.
+     * @throws IOException On storage errors.
+     */
+    Result get(Get get) throws IOException;
+
+    /**
+     * Read many rows at once.
+     *
+     * @param gets The rows to read.
+     * @return A result per get in the same order as the gets.
+     * @throws IOException On storage errors.
+     */
+    Result[] get(List<Get> gets) throws IOException;
+
+    void put(Put put) throws IOException;
+
+    void put(List<Put> puts) throws IOException;
+
+    void delete(Delete delete) throws IOException;
+
+    /**
+     * Delete a batch of rows or cells.
+     *
+     * @param deletes The deletes to apply.
+     * @throws IOException On storage errors.
+     */
+    void delete(List<Delete> deletes) throws IOException;
+
+    /**
+     * Atomically add to eight byte counter cells of a row, a missing cell counts from zero.
+     *
+     * @param increment The row and the amounts to add per column.
+     * @return The new values of the counters unless the increment does not return results.
+     * @throws IOException On storage errors or when a cell is not an eight byte long.
+     */
+    Result increment(Increment increment) throws IOException;
+
+    /**
+     * Apply a batch of increments. Every increment is atomic on its row, the batch is not atomic.
+     *
+     * @param increments The increments to apply.
+     * @return A result per increment in the same order.
+     * @throws IOException On storage errors.
+     */
+    Result[] increment(List<Increment> increments) throws IOException;
+
+    /**
+     * Apply a batch of puts, deletes and increments. Every action is atomic on its row, the batch is not atomic and
+     * the actions of one row may be applied in any order.
+     *
+     * @param actions The actions to apply.
+     * @param results Receives a result per action in the same order, or the cause of a failed action.
+     * @throws IOException When any action failed, the results tell which.
+     */
+    void batch(List<? extends Row> actions, Object[] results) throws IOException;
+
+    /**
+     * Open a scanner over a range of rows. The scanner must be closed by the caller.
+     *
+     * @param scan The range, columns, filter and options of the scan.
+     * @return The scanner.
+     * @throws IOException On storage errors.
+     */
+    ResultScanner getScanner(Scan scan) throws IOException;
+
+    /**
+     * The start keys of the regions of the table in key order. Operations that fan out per region split their
+     * scans on these keys, an engine without regions returns a single empty start key.
+     *
+     * @return The region start keys, the first one is always empty.
+     * @throws IOException If the region boundaries could not be looked up.
+     */
+    byte[][] getStartKeys() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
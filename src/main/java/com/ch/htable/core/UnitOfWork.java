@@ -0,0 +1,349 @@
+package com.ch.htable.core;
+
+import com.ch.htable.core.CommitReport.Kind;
+import com.ch.htable.core.CommitReport.Outcome;
+import com.ch.htable.core.HEntityManager.PendingKeys;
+import com.ch.htable.core.HMetrics.Operation;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+
+/**
+ * Collects saves, deletes and increments of any number of entity types and writes them together on
+ * {@link #commit()}. The mutations are grouped per table and every table is written with batches that run
+ * concurrently, so a business operation that touches several entity types costs one round of batch calls instead
+ * of a table lookup and a call per save or delete.
+ * <p>
+ * A commit is not a transaction. Every mutation is atomic on its row and the {@link CommitReport} tells which ones
+ * were applied. Index entries are written before the rows they point to, a save whose index entries fail is not
+ * written, and index entries of deleted entities are removed after the rows, as {@link HEntityManager} does. The
+ * mutations of one row in the same unit of work may be applied in any order. An entity is mapped to its row and
+ * index entries when it is registered, later changes to it are not written. A unit of work is not thread safe, it
+ * is empty again after a commit.
+ */
+public class UnitOfWork {
+
+    private static final int MAX_BATCH_SIZE = 0xFFF;
+
+    private final HEntityManager manager;
+    private final List<Pending> pending = new ArrayList<>();
+
+    UnitOfWork(HEntityManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Register an entity to be saved.
+     *
+     * @param entity The entity to save.
+     * @param <T>    The entity type.
+     * @return This unit of work.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> UnitOfWork save(T entity) {
+        final EntityClassModel<T> m = manager.entityModel((Class<T>) entity.getClass());
+        pending.add(new Pending(m, Kind.SAVE, HEntityManager.entityToPut(m, entity), entity));
+        return this;
+    }
+
+    /**
+     * Register entities of one type to be saved.
+     *
+     * @param entities The entities to save.
+     * @param clazz    The mapped entity class.
+     * @param <T>      The entity type.
+     * @return This unit of work.
+     */
+    public <T> UnitOfWork saveAll(Iterable<T> entities, Class<T> clazz) {
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        for (T entity : entities) {
+            pending.add(new Pending(m, Kind.SAVE, HEntityManager.entityToPut(m, entity), entity));
+        }
+        return this;
+    }
+
+    /**
+     * Register an entity to be deleted together with its index entries.
+     *
+     * @param entity The entity to delete.
+     * @param <T>    The entity type.
+     * @return This unit of work.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> UnitOfWork delete(T entity) {
+        final EntityClassModel<T> m = manager.entityModel((Class<T>) entity.getClass());
+        pending.add(new Pending(m, Kind.DELETE, new Delete(m.getIdValue(entity)), entity));
+        return this;
+    }
+
+    /**
+     * Register a row to be deleted by key, its index entries are left to {@link HEntityManager#findBy} to remove.
+     *
+     * @param clazz The mapped entity class.
+     * @param id    The row key of the entity.
+     * @param <T>   The entity type.
+     * @return This unit of work.
+     */
+    public <T> UnitOfWork delete(Class<T> clazz, String id) {
+        pending.add(new Pending(manager.entityModel(clazz), Kind.DELETE, new Delete(Bytes.toBytes(id)), null));
+        return this;
+    }
+
+    /**
+     * Register an increment of a counter column. The new value is the result of its {@link Outcome}.
+     *
+     * @param clazz   The mapped entity class.
+     * @param id      The row key of the entity.
+     * @param counter Getter reference of a column annotated with {@link com.ch.htable.annotations.HCounter}.
+     * @param delta   The amount to add, negative to subtract.
+     * @param <T>     The entity type.
+     * @return This unit of work.
+     */
+    public <T> UnitOfWork increment(Class<T> clazz, String id, ColumnRef<T, Long> counter, long delta) {
+        final EntityClassModel<T> m = manager.entityModel(clazz);
+        final ColumnMeta<Long> column = HEntityManager.counterColumn(m, counter);
+        pending.add(new Pending(m, Kind.INCREMENT,
+                new Increment(Bytes.toBytes(id)).addColumn(column.getFamily(), column.getQualifier(), delta), null));
+        return this;
+    }
+
+    /**
+     * @return The number of registered mutations.
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Drop every registered mutation.
+     */
+    public void clear() {
+        pending.clear();
+    }
+
+    /**
+     * Write every registered mutation. Index entries of saved entities are written first, then the rows of every
+     * table and last the index entries of deleted entities are removed, the tables of every step are written
+     * concurrently.
+     *
+     * @return An outcome per registered mutation in registration order.
+     */
+    public CommitReport commit() {
+        final List<Pending> work = new ArrayList<>(pending);
+        pending.clear();
+
+        final List<Outcome> outcomes = new ArrayList<>(work.size());
+        final Map<String, TableBatch> indexPuts = new LinkedHashMap<>();
+        final Map<String, TableBatch> rows = new LinkedHashMap<>();
+        final Map<String, TableBatch> indexDeletes = new LinkedHashMap<>();
+        for (Pending p : work) {
+            final Outcome outcome = new Outcome(p.model.getEntityType(), p.kind, p.mutation.getRow());
+            outcomes.add(outcome);
+            rows.computeIfAbsent(p.model.getTableName(), t -> new TableBatch(p.model, t))
+                    .add(p.mutation, outcome);
+            final byte[] family = Bytes.toBytes(p.model.getColumnFamily());
+            for (Map.Entry<String, byte[]> entry : p.indexKeys) {
+                final byte[] key = entry.getValue();
+                if (p.kind == Kind.SAVE) {
+                    indexPuts.computeIfAbsent(entry.getKey(), t -> new TableBatch(p.model, t))
+                            .add(new Put(key).addColumn(family, HConstants.EMPTY_BYTE_ARRAY, HConstants.EMPTY_BYTE_ARRAY), outcome);
+                } else {
+                    indexDeletes.computeIfAbsent(entry.getKey(), t -> new TableBatch(p.model, t))
+                            .add(new Delete(key), outcome);
+                }
+            }
+        }
+
+        write(indexPuts, Step.INDEX_PUTS);
+        final List<PendingKeys> keys = new ArrayList<>(rows.size());
+        try {
+            for (TableBatch b : rows.values()) {
+                keys.add(manager.keysWritten(b.model, b.writes()));
+            }
+            write(rows, Step.ROWS);
+        } finally {
+            keys.forEach(PendingKeys::close);
+        }
+        indexDeletes.values().forEach(b -> b.retain(Outcome::isSucceeded));
+        write(indexDeletes, Step.INDEX_DELETES);
+
+        for (TableBatch b : rows.values()) {
+            long deleted = 0;
+            for (int i = 0; i < b.mutations.size(); i++) {
+                if (b.outcomes.get(i).isSucceeded() && b.mutations.get(i) instanceof Delete) {
+                    deleted++;
+                }
+            }
+            manager.keysDeleted(b.model, deleted);
+        }
+        return new CommitReport(outcomes);
+    }
+
+    /**
+     * The steps of a commit, index entries are written before the rows they point to and removed after them.
+     */
+    private enum Step {
+        /**
+         * A failed index entry fails the save it belongs to so the row is not written.
+         */
+        INDEX_PUTS,
+        ROWS,
+        /**
+         * A failed removal is ignored, the entry is removed by {@link HEntityManager#findBy} when it is found.
+         */
+        INDEX_DELETES
+    }
+
+    /**
+     * Write the batches of every table concurrently.
+     *
+     * @param batches The batches per table name.
+     * @param step    The step of the commit.
+     */
+    private void write(Map<String, TableBatch> batches, Step step) {
+        final Iterator<Callable<Void>> tasks = batches.values().stream()
+                .flatMap(b -> Lists.partition(b.pending(), MAX_BATCH_SIZE).stream().map(chunk -> (Callable<Void>) () -> {
+                    b.write(chunk, step);
+                    return null;
+                }))
+                .iterator();
+        manager.getExecutors().fanOut(Operation.COMMIT, tasks);
+    }
+
+    private final class TableBatch {
+
+        private final EntityClassModel<?> model;
+        private final String tableName;
+        private final List<Mutation> mutations = new ArrayList<>();
+        private final List<Outcome> outcomes = new ArrayList<>();
+
+        private TableBatch(EntityClassModel<?> model, String tableName) {
+            this.model = model;
+            this.tableName = tableName;
+        }
+
+        private void add(Mutation mutation, Outcome outcome) {
+            mutations.add(mutation);
+            outcomes.add(outcome);
+        }
+
+        private void retain(Predicate<Outcome> keep) {
+            for (int i = mutations.size() - 1; i >= 0; i--) {
+                if (!keep.test(outcomes.get(i))) {
+                    mutations.remove(i);
+                    outcomes.remove(i);
+                }
+            }
+        }
+
+        /**
+         * @return The positions of the mutations that are still to be written.
+         */
+        private List<Integer> pending() {
+            final List<Integer> positions = new ArrayList<>(mutations.size());
+            for (int i = 0; i < mutations.size(); i++) {
+                if (outcomes.get(i).getCause() == null) {
+                    positions.add(i);
+                }
+            }
+            return positions;
+        }
+
+        /**
+         * @return The saves and increments that are still to be written.
+         */
+        private List<Mutation> writes() {
+            final List<Mutation> writes = new ArrayList<>(mutations.size());
+            for (int i : pending()) {
+                if (!(mutations.get(i) instanceof Delete)) {
+                    writes.add(mutations.get(i));
+                }
+            }
+            return writes;
+        }
+
+        private void write(List<Integer> positions, Step step) {
+            final OperationTimer timer = OperationTimer.start(manager.getMetrics(), model.getEntityType(), Operation.COMMIT);
+            final List<Mutation> actions = new ArrayList<>(positions.size());
+            for (int i : positions) {
+                actions.add(mutations.get(i));
+            }
+            final Object[] results = new Object[actions.size()];
+            IOException failure = null;
+            try (StorageTable table = manager.getTable(tableName)) {
+                final long mark = timer.mark();
+                table.batch(actions, results);
+                timer.rpc(mark);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(String.format("Error while writing %s of %s", tableName, model.getEntityType()), e);
+            }
+            long applied = 0;
+            for (int i = 0; i < actions.size(); i++) {
+                final Outcome outcome = outcomes.get(positions.get(i));
+                final Object result = results[i];
+                if (result instanceof Result) {
+                    applied++;
+                    if (step == Step.ROWS) {
+                        outcome.succeeded((Result) result);
+                    }
+                } else if (step != Step.INDEX_DELETES) {
+                    outcome.failed(result instanceof Throwable ? (Throwable) result : failure);
+                }
+            }
+            timer.rows(applied);
+            if (failure == null) {
+                timer.succeeded();
+            }
+            timer.finish();
+        }
+    }
+
+    private static final class Pending {
+
+        private final EntityClassModel<?> model;
+        private final Kind kind;
+        private final Mutation mutation;
+        /**
+         * The index table and key of every index entry, encoded when the mutation is registered so they match the row even when
+         * the entity changes before the commit.
+         */
+        private final List<Map.Entry<String, byte[]>> indexKeys;
+
+        private Pending(EntityClassModel<?> model, Kind kind, Mutation mutation, Object entity) {
+            this.model = model;
+            this.kind = kind;
+            this.mutation = mutation;
+            this.indexKeys = entity == null || kind == Kind.INCREMENT
+                    ? Collections.emptyList() : indexKeys(model, mutation.getRow(), entity);
+        }
+
+        private static List<Map.Entry<String, byte[]>> indexKeys(EntityClassModel<?> model, byte[] row, Object entity) {
+            final List<Map.Entry<String, byte[]>> keys = new ArrayList<>();
+            for (IndexMeta<?> index : model.getIndexes()) {
+                final byte[] value = index.encodeEntity(entity);
+                if (value != null) {
+                    keys.add(new AbstractMap.SimpleImmutableEntry<>(index.getTableName(), index.indexKey(value, row)));
+                }
+            }
+            return keys;
+        }
+    }
+}
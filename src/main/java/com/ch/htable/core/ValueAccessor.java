@@ -1,6 +1,8 @@
 package com.ch.htable.core;
 
 
+import com.google.common.base.Defaults;
+
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
@@ -34,6 +36,36 @@ interface ValueAccessor<T> {
             this.setter = setter;
         }
 
+        Method getGetter() {
+            return getter;
+        }
+
+        Method getSetter() {
+            return setter;
+        }
+
+        /**
+         * Set the default value of the setter type, null or the zero of a primitive, when there is a setter.
+         *
+         * @param o The object to clear.
+         */
+        void clear(Object o) {
+            if (setter != null) {
+                try {
+                    setter.invoke(o, Defaults.defaultValue(setter.getParameterTypes()[0]));
+                } catch (IllegalAccessException | InvocationTargetException | IllegalArgumentException e) {
+                    throw new RuntimeException(String.format("Unable to clear value on object %s with method %s ", o, setter), e);
+                }
+            }
+        }
+
+        /**
+         * @return The name of the getter method or an empty string if there is no getter.
+         */
+        String getterName() {
+            return getter == null ? "" : getter.getName();
+        }
+
         @Override
         public T getValue(Object o) {
             checkNotNull(o, "Invalid argument for accessor");
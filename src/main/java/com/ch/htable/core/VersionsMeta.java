@@ -0,0 +1,93 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A column whose versions are mapped to a {@code NavigableMap<Long, T>} of timestamp to value, see
+ * {@link com.ch.htable.annotations.HVersions}.
+ *
+ * @param <T> The value type of a single version.
+ */
+class VersionsMeta<T> {
+
+    private final String name;
+    private final byte[] qualifier;
+    private byte[] family;
+    private final ColumnConverter<T> converter;
+    private final ValueAccessor.MethodAccessor<NavigableMap<Long, T>> valueAccessor = new ValueAccessor.MethodAccessor<>();
+    private Class<T> valueType;
+
+    VersionsMeta(String name, ColumnConverter<T> converter) {
+        this.name = name;
+        this.qualifier = Bytes.toBytes(name);
+        this.converter = converter;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    byte[] getQualifier() {
+        return qualifier;
+    }
+
+    byte[] getFamily() {
+        return family;
+    }
+
+    void setFamily(byte[] family) {
+        this.family = family;
+    }
+
+    void setGetter(Method getter) {
+        valueAccessor.setGetter(getter);
+    }
+
+    /**
+     * @param setter The setter, it must take a {@code NavigableMap<Long, T>}.
+     */
+    @SuppressWarnings("unchecked")
+    void setSetter(Method setter) {
+        final Type type = setter.getParameterCount() == 1 ? setter.getGenericParameterTypes()[0] : null;
+        checkState(type instanceof ParameterizedType
+                        && NavigableMap.class.isAssignableFrom((Class<?>) ((ParameterizedType) type).getRawType()),
+                "Versions setter %s must take a NavigableMap<Long, T>", setter);
+        final Type value = ((ParameterizedType) type).getActualTypeArguments()[1];
+        checkState(value instanceof Class, "Versions setter %s must take a map of a concrete value type", setter);
+        this.valueType = (Class<T>) value;
+        valueAccessor.setSetter(setter);
+    }
+
+    /**
+     * Reset the versions of the column on a reused entity so a row without the column leaves none behind.
+     */
+    void clear(Object entity) {
+        valueAccessor.clear(entity);
+    }
+
+    /**
+     * Set the versions of the column on an entity.
+     *
+     * @param entity The entity to set the versions on.
+     * @param cells  The cells of a result in hbase order.
+     * @param from   The index of the newest cell of the column.
+     * @param to     The index after the oldest cell of the column.
+     */
+    void setVersions(Object entity, Cell[] cells, int from, int to) {
+        final NavigableMap<Long, T> versions = new TreeMap<>();
+        for (int i = from; i < to; i++) {
+            versions.put(cells[i].getTimestamp(), converter.fromBytes(valueType, CellUtil.cloneValue(cells[i])));
+        }
+        valueAccessor.setValue(entity, versions);
+    }
+}
@@ -0,0 +1,191 @@
+package com.ch.htable.core;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The precompiled conversion of an entity type to puts. Everything that only depends on the entity type is worked
+ * out once when the plan is built: the written columns in family and qualifier order, their family and qualifier
+ * bytes, which converters can encode into a scratch buffer and how many cells every family gets. Converting an
+ * entity then allocates the row key, one {@link KeyValue} per column, the put with its family map and one presized
+ * cell list per family, which is what the hbase client needs anyway.
+ * <p>
+ * Long, integer and double values written by the stock converters are encoded into a scratch buffer that is copied
+ * straight into the key value, other values go through their converter. A plan is immutable and thread safe, the
+ * scratch buffer belongs to the caller.
+ *
+ * @param <T> The entity type.
+ */
+final class WritePlan<T> {
+
+    /**
+     * The size of the scratch buffer, the widest value that is encoded directly.
+     */
+    static final int SCRATCH_SIZE = Bytes.SIZEOF_LONG;
+
+    private static final int CONVERTER = 0;
+    private static final int LONG = 1;
+    private static final int INT = 2;
+    private static final int DOUBLE = 3;
+
+    private final EntityClassModel<T> model;
+    private final ColumnMeta<?>[] columns;
+    private final byte[][] families;
+    private final byte[][] qualifiers;
+    private final int[] familyOf;
+    private final int[] encodings;
+    private final int[] cellsPerFamily;
+    private final AnyColumnMeta<?> anyColumn;
+
+    WritePlan(EntityClassModel<T> model) {
+        this.model = model;
+        final ColumnModel cm = model.getColumnModel();
+        if (cm.size() == 0) {
+            throw new IllegalStateException(String.format("Invalid number of columns for entity %s", model.getEntityType()));
+        }
+
+        final List<ColumnMeta<?>> written = new ArrayList<>();
+        for (ColumnMeta<?> c : cm.getNamedColumns()) {
+            if (c.isCounter()) {
+                continue;
+            }
+            if (c.getQualifier() == null || c.getQualifier().length == 0) {
+                throw new IllegalStateException(String.format("Entity does not have a valid column identifier for type %s", model.getEntityType()));
+            }
+            written.add(c);
+        }
+        written.sort(Comparator.<ColumnMeta<?>, byte[]>comparing(ColumnMeta::getFamily, Bytes.BYTES_COMPARATOR)
+                .thenComparing(ColumnMeta::getQualifier, Bytes.BYTES_COMPARATOR));
+
+        this.columns = written.toArray(new ColumnMeta<?>[0]);
+        this.families = new byte[columns.length][];
+        this.qualifiers = new byte[columns.length][];
+        this.familyOf = new int[columns.length];
+        this.encodings = new int[columns.length];
+        final List<byte[]> distinct = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            final ColumnMeta<?> c = columns[i];
+            if (distinct.isEmpty() || !Bytes.equals(distinct.get(distinct.size() - 1), c.getFamily())) {
+                distinct.add(c.getFamily());
+            }
+            familyOf[i] = distinct.size() - 1;
+            families[i] = distinct.get(familyOf[i]);
+            qualifiers[i] = c.getQualifier();
+            encodings[i] = encoding(c.converter());
+        }
+        this.cellsPerFamily = new int[distinct.size()];
+        for (int f : familyOf) {
+            cellsPerFamily[f]++;
+        }
+
+        final ColumnMeta<?> any = cm.getAnyColumn().orElse(null);
+        this.anyColumn = any instanceof AnyColumnMeta && ((AnyColumnMeta<?>) any).isWritable()
+                ? (AnyColumnMeta<?>) any : null;
+    }
+
+    private static int encoding(ColumnConverter<?> converter) {
+        final Class<?> type = converter.getClass();
+        if (type == ColumnConverter.LongColumn.class) {
+            return LONG;
+        }
+        if (type == ColumnConverter.IntegerColumn.class) {
+            return INT;
+        }
+        if (type == ColumnConverter.DoubleColumn.class) {
+            return DOUBLE;
+        }
+        return CONVERTER;
+    }
+
+    /**
+     * Convert an entity to a put.
+     *
+     * @param entity  The entity, an instance of the entity type.
+     * @param scratch A buffer of at least {@link #SCRATCH_SIZE} bytes that may be reused across calls of one thread.
+     * @return The put of the entity.
+     */
+    Put toPut(T entity, byte[] scratch) {
+        if (!model.getEntityType().isInstance(entity)) {
+            throw new IllegalArgumentException(String.format("Entity %s is not assignable to class entity type %s",
+                    entity.getClass(), model.getEntityType()));
+        }
+        final byte[] row = model.getIdValue(entity);
+
+        final NavigableMap<byte[], List<Cell>> familyMap = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        List<Cell> cells = null;
+        for (int i = 0; i < columns.length; i++) {
+            if (i == 0 || familyOf[i] != familyOf[i - 1]) {
+                cells = new ArrayList<>(cellsPerFamily[familyOf[i]]);
+                familyMap.put(families[i], cells);
+            }
+            cells.add(cell(row, i, entity, scratch));
+        }
+
+        final Put put = new Put(row, HConstants.LATEST_TIMESTAMP, familyMap);
+        if (anyColumn != null) {
+            HEntityManager.anyColumnsToPut(model, anyColumn, entity, put);
+        }
+        return put;
+    }
+
+    /**
+     * Convert entities to puts sharing one scratch buffer.
+     *
+     * @param entities The entities.
+     * @return The puts in the order of the entities.
+     */
+    List<Put> toPuts(Iterable<? extends T> entities) {
+        final byte[] scratch = new byte[SCRATCH_SIZE];
+        final List<Put> puts = entities instanceof Collection
+                ? new ArrayList<>(((Collection<?>) entities).size()) : new ArrayList<>();
+        for (T entity : entities) {
+            puts.add(toPut(entity, scratch));
+        }
+        return puts;
+    }
+
+    private KeyValue cell(byte[] row, int column, T entity, byte[] scratch) {
+        final byte[] family = families[column];
+        final byte[] qualifier = qualifiers[column];
+        final Object value;
+        int length = -1;
+        switch (encodings[column]) {
+            case LONG:
+                value = columns[column].getValueAccessor().getValue(entity);
+                if (value instanceof Long) {
+                    length = Bytes.putLong(scratch, 0, (Long) value);
+                }
+                break;
+            case INT:
+                value = columns[column].getValueAccessor().getValue(entity);
+                if (value instanceof Integer) {
+                    length = Bytes.putInt(scratch, 0, (Integer) value);
+                }
+                break;
+            case DOUBLE:
+                value = columns[column].getValueAccessor().getValue(entity);
+                if (value instanceof Double) {
+                    length = Bytes.putDouble(scratch, 0, (Double) value);
+                }
+                break;
+            default:
+                value = null;
+        }
+        if (length >= 0) {
+            return new KeyValue(row, 0, row.length, family, 0, family.length, qualifier, 0, qualifier.length,
+                    HConstants.LATEST_TIMESTAMP, KeyValue.Type.Put, scratch, 0, length);
+        }
+        final byte[] bytes = value == null && encodings[column] != CONVERTER ? null : columns[column].getBytes(entity);
+        return new KeyValue(row, family, qualifier, HConstants.LATEST_TIMESTAMP, KeyValue.Type.Put, bytes);
+    }
+}
@@ -0,0 +1,130 @@
+package com.ch.htable.core;
+
+import com.ch.htable.annotations.HColumn;
+import com.ch.htable.annotations.HId;
+import com.ch.htable.annotations.HTable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class HAggregatorTest {
+
+    @Test
+    public void groupByReadsTheGroupColumnFromAnyFamily() {
+        final HEntityManager manager = new HEntityManager(new InMemoryStorageEngine(), AnnotationAnalyzer.getInstance(), "");
+        final List<Ledger> ledgers = new ArrayList<>();
+        final Map<String, Long> expected = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            ledgers.add(ledger(i, "region-" + i, (long) i));
+            expected.put("region-" + i, 1L);
+        }
+        ledgers.add(ledger(10, null, 5L));
+        ledgers.add(ledger(11, null, 7L));
+        expected.put(null, 2L);
+        manager.saveAll(ledgers, Ledger.class);
+
+        final HAggregator aggregator = new HAggregator(manager);
+        assertEquals(expected, aggregator.groupBy(Ledger.class, "ledger", Ledger::getRegion).count());
+
+        final Map<Long, Long> byAmount = aggregator.groupBy(Ledger.class, "ledger", Ledger::getAmount).count();
+        assertEquals(10, byAmount.size());
+        assertEquals(Long.valueOf(2), byAmount.get(5L));
+
+        final Map<String, Number> sums = aggregator.groupBy(Ledger.class, "ledger", Ledger::getRegion)
+                .sum(Ledger::getAmount);
+        assertEquals(12L, sums.get(null));
+        assertEquals(9L, sums.get("region-9"));
+    }
+
+    @Test
+    public void groupByReadsTheGroupColumnFromTheDefaultFamily() {
+        final HEntityManager manager = new HEntityManager(new InMemoryStorageEngine(), AnnotationAnalyzer.getInstance(), "");
+        for (int i = 0; i < 6; i++) {
+            final Ledger ledger = ledger(i, "region", (long) i);
+            ledger.setName(i % 2 == 0 ? "even" : null);
+            manager.save(ledger);
+        }
+
+        final Map<String, Long> counts = new HAggregator(manager)
+                .groupBy(Ledger.class, "ledger", Ledger::getName).count();
+        assertEquals(2, counts.size());
+        assertEquals(Long.valueOf(3), counts.get("even"));
+        assertEquals(Long.valueOf(3), counts.get(null));
+    }
+
+    private static Ledger ledger(int i, String region, Long amount) {
+        final Ledger ledger = new Ledger();
+        ledger.setId(String.format("ledger:%04d", i));
+        ledger.setName("ledger " + i);
+        ledger.setNote("note " + i);
+        ledger.setRegion(region);
+        ledger.setAmount(amount);
+        return ledger;
+    }
+
+    /**
+     * An entity with several columns in its default family and group columns in a family after it.
+     */
+    @HTable(name = "ledger", cf = "a")
+    public static class Ledger {
+        private String id;
+        private String name;
+        private String note;
+        private String region;
+        private Long amount;
+
+        @HId(converter = ColumnConverter.StringColumn.class)
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        @HColumn(name = "name", converter = ColumnConverter.StringColumn.class)
+        public String getName() {
+            return name;
+        }
+
+        @HColumn(name = "name", converter = ColumnConverter.StringColumn.class)
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @HColumn(name = "note", converter = ColumnConverter.StringColumn.class)
+        public String getNote() {
+            return note;
+        }
+
+        @HColumn(name = "note", converter = ColumnConverter.StringColumn.class)
+        public void setNote(String note) {
+            this.note = note;
+        }
+
+        @HColumn(name = "region", family = "z", converter = ColumnConverter.StringColumn.class)
+        public String getRegion() {
+            return region;
+        }
+
+        @HColumn(name = "region", family = "z", converter = ColumnConverter.StringColumn.class)
+        public void setRegion(String region) {
+            this.region = region;
+        }
+
+        @HColumn(name = "amount", family = "z", converter = ColumnConverter.LongColumn.class)
+        public Long getAmount() {
+            return amount;
+        }
+
+        @HColumn(name = "amount", family = "z", converter = ColumnConverter.LongColumn.class)
+        public void setAmount(Long amount) {
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ch.htable.core;
+
+import com.ch.htable.HBaseException;
+import com.ch.htable.core.HMetrics.Operation;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HExecutorsTest {
+
+    @Test
+    public void fanOutReturnsTheResultsInTaskOrder() {
+        try (HExecutors executors = new HExecutors(1, 4)) {
+            final List<Integer> results = executors.fanOut(Operation.FIND, Arrays.<Callable<Integer>>asList(
+                    () -> 1, () -> 2, () -> 3).iterator());
+            assertEquals(Arrays.asList(1, 2, 3), results);
+        }
+    }
+
+    @Test
+    public void failedFanOutClosesTheTableOnlyAfterBlockedTasksExit() throws InterruptedException {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final AtomicBoolean usedClosedTable = new AtomicBoolean();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch exited = new CountDownLatch(1);
+
+        try (HExecutors executors = new HExecutors(1, 2)) {
+            try (Closeable table = () -> closed.set(true)) {
+                executors.fanOut(Operation.FIND, Arrays.<Callable<Void>>asList(
+                        () -> {
+                            blocked.countDown();
+                            // a blocking call that does not react to the interrupt of the cancellation
+                            Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+                            usedClosedTable.set(closed.get());
+                            exited.countDown();
+                            return null;
+                        },
+                        () -> {
+                            blocked.await();
+                            throw new IOException("region down");
+                        }).iterator());
+                fail("The failure of a task must be thrown");
+            } catch (HBaseException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+        assertTrue(exited.await(5, TimeUnit.SECONDS));
+        assertFalse("The table was closed while a task still used it", usedClosedTable.get());
+    }
+
+    @Test
+    public void failedFanOutStartsNoFurtherTasks() {
+        final AtomicInteger runs = new AtomicInteger();
+        try (HExecutors executors = new HExecutors(1, 1).limit(Operation.FIND, 1)) {
+            executors.fanOut(Operation.FIND, Arrays.<Callable<Void>>asList(
+                    () -> {
+                        runs.incrementAndGet();
+                        throw new IllegalStateException("failed");
+                    },
+                    () -> {
+                        runs.incrementAndGet();
+                        return null;
+                    }).iterator());
+            fail("The failure of a task must be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals(1, runs.get());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ch.htable.core;
+
+import com.ch.htable.annotations.HColumn;
+import com.ch.htable.annotations.HId;
+import com.ch.htable.annotations.HIndex;
+import com.ch.htable.annotations.HTable;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UnitOfWorkTest {
+
+    @Test
+    public void commitWritesTheIndexEntriesOfTheRegisteredRow() {
+        final HEntityManager manager = new HEntityManager(new InMemoryStorageEngine(), AnnotationAnalyzer.getInstance(), "");
+        final Account account = new Account();
+        account.setId("a1");
+        account.setEmail("before@example.com");
+
+        final UnitOfWork work = manager.unitOfWork().save(account);
+        account.setEmail("after@example.com");
+        assertTrue(work.commit().isSuccessful());
+
+        final List<Account> found = manager.findBy(Account.class, Account::getEmail, "before@example.com");
+        assertEquals(1, found.size());
+        assertEquals("before@example.com", found.get(0).getEmail());
+        assertTrue(manager.findBy(Account.class, Account::getEmail, "after@example.com").isEmpty());
+    }
+
+    @HTable(name = "uow_accounts")
+    public static class Account {
+        private String id;
+        private String email;
+
+        @HId(converter = ColumnConverter.StringColumn.class)
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        @HIndex
+        @HColumn(name = "email", converter = ColumnConverter.StringColumn.class)
+        public String getEmail() {
+            return email;
+        }
+
+        @HColumn(name = "email", converter = ColumnConverter.StringColumn.class)
+        public void setEmail(String email) {
+            this.email = email;
+        }
+    }
+}